@@ -0,0 +1,159 @@
+package com.studiohartman.jamepad;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures how the manager scales with the number of connected controllers. Every controller
+ * is an SDL virtual gamepad, so this runs headless, with the dummy drivers, on any machine:
+ * {@code ./gradlew jnigen benchmark}.
+ *
+ * <p>For each device count it reports, in nanoseconds:
+ * <ul>
+ *     <li>one frame of {@link ControllerManager#getStates(ControllerState[])}, in total and per
+ *     device,</li>
+ *     <li>one frame of {@link ControllerManager#getState(int)} for every index,</li>
+ *     <li>plugging in one more device, up to the {@link ControllerManager#update()} that gives
+ *     it an index, and unplugging it again,</li>
+ *     <li>how many of those hotplugs fell back to a full resync instead of taking the device
+ *     events, see {@link JamepadMetrics#getHotplugResyncCount()}.</li>
+ * </ul>
+ * Per-frame cost should grow linearly with the number of devices, so the per device column
+ * stays flat, and hotplug cost should not grow at all. The resync column should stay at 0;
+ * anything else means SDL's event queue lost device events and the hotplug timings measure
+ * the fallback.
+ */
+public final class ManagerBenchmark {
+    private static final int[] DEVICE_COUNTS = {1, 8, 16, 32, 64, 128, 256};
+
+    private static final int WARMUP_FRAMES = 500;
+
+    private static final int FRAMES = 2000;
+
+    private static final int HOTPLUGS = 100;
+
+    private final ControllerManager manager;
+
+    private final List<VirtualController> pads = new ArrayList<>();
+
+    private final ControllerState[] states;
+
+    private ManagerBenchmark(int maxDevices) {
+        Configuration configuration = new Configuration();
+        // One spare index for the hotplug measurement
+        configuration.maxNumControllers = maxDevices + 1;
+        manager = new ControllerManager(configuration);
+        states = new ControllerState[maxDevices + 1];
+    }
+
+    public static void main(String[] args) {
+        int maxDevices = args.length > 0 ? Integer.parseInt(args[0]) : 128;
+        ManagerBenchmark benchmark = new ManagerBenchmark(maxDevices);
+        benchmark.manager.initSDLGamepad();
+        try {
+            benchmark.run(maxDevices);
+        } finally {
+            benchmark.manager.quitSDLGamepad();
+        }
+    }
+
+    private void run(int maxDevices) {
+        System.out.printf("%8s %14s %12s %14s %12s %12s %8s%n",
+                "devices", "getStates", "per device", "getState(i)", "plug", "unplug", "resyncs");
+        for (int devices : DEVICE_COUNTS) {
+            if (devices > maxDevices) {
+                break;
+            }
+            while (pads.size() < devices) {
+                pads.add(manager.createVirtualController(new VirtualControllerDescriptor()));
+            }
+            manager.update();
+            int connected = countConnected();
+            if (connected < devices) {
+                throw new IllegalStateException(devices + " virtual controllers attached, but only "
+                        + connected + " connected");
+            }
+
+            long getStates = measureGetStates();
+            long getState = measureGetState(devices);
+            long resyncs = manager.getMetrics().getHotplugResyncCount();
+            long[] hotplug = measureHotplug();
+            resyncs = manager.getMetrics().getHotplugResyncCount() - resyncs;
+            System.out.printf("%8d %14d %12d %14d %12d %12d %8d%n",
+                    devices, getStates, getStates / devices, getState, hotplug[0], hotplug[1], resyncs);
+        }
+    }
+
+    private long measureGetStates() {
+        for (int frame = 0; frame < WARMUP_FRAMES; frame++) {
+            moveSticks(frame);
+            manager.getStates(states);
+        }
+        long total = 0;
+        for (int frame = 0; frame < FRAMES; frame++) {
+            moveSticks(frame);
+            long start = System.nanoTime();
+            manager.getStates(states);
+            total += System.nanoTime() - start;
+        }
+        return total / FRAMES;
+    }
+
+    private long measureGetState(int devices) {
+        for (int frame = 0; frame < WARMUP_FRAMES; frame++) {
+            moveSticks(frame);
+            for (int i = 0; i < devices; i++) {
+                manager.getState(i);
+            }
+        }
+        long total = 0;
+        for (int frame = 0; frame < FRAMES; frame++) {
+            moveSticks(frame);
+            long start = System.nanoTime();
+            for (int i = 0; i < devices; i++) {
+                manager.getState(i);
+            }
+            total += System.nanoTime() - start;
+        }
+        return total / FRAMES;
+    }
+
+    /**
+     * @return the average cost of plugging in and of unplugging one device
+     */
+    private long[] measureHotplug() {
+        long plug = 0;
+        long unplug = 0;
+        for (int i = 0; i < HOTPLUGS; i++) {
+            long start = System.nanoTime();
+            VirtualController extra = manager.createVirtualController(new VirtualControllerDescriptor());
+            manager.update();
+            plug += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            extra.close();
+            manager.update();
+            unplug += System.nanoTime() - start;
+        }
+        return new long[] {plug / HOTPLUGS, unplug / HOTPLUGS};
+    }
+
+    // Every device reports a change each frame, the worst case for the input path
+    private void moveSticks(int frame) {
+        float x = (frame % 200) / 100f - 1;
+        for (VirtualController pad : pads) {
+            pad.setAxis(ControllerAxis.LEFTX, x);
+        }
+    }
+
+    private int countConnected() {
+        manager.getStates(states);
+        int connected = 0;
+        for (ControllerState state : states) {
+            if (state.isConnected) {
+                connected++;
+            }
+        }
+        return connected;
+    }
+}
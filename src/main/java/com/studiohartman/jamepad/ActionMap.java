@@ -0,0 +1,400 @@
+package com.studiohartman.jamepad;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps named game actions, such as "jump" or "move_x", to the buttons and axes that trigger
+ * them, so game code asks whether an action happened instead of which button was pressed.
+ *
+ * <p>An action can have any number of bindings:
+ * <ul>
+ *     <li>a button, or a chord of buttons that must all be held,</li>
+ *     <li>an axis, scaled and signed, for analog actions such as movement,</li>
+ *     <li>half of an axis, for a digital direction such as "steer left".</li>
+ * </ul>
+ * Any binding can be put on a modifier layer: it only counts while exactly its modifier buttons
+ * are held among all the modifiers the map uses, so holding a shoulder button can switch the
+ * face buttons to a second set of actions. A binding without a layer only steps aside for a
+ * modifier when some layered binding uses the same button or axis, so the sticks keep moving
+ * while the shoulder button is held.
+ *
+ * <p>Define actions and bindings once, look up action ids with {@link #getActionId(String)} and
+ * keep them. Bindings can change at any time, for a rebinding menu for example; the map
+ * compiles them into flat tables on the next {@link #update(int, float[])}. Evaluating those
+ * tables against the frame's button bit mask and axis values allocates nothing and looks up
+ * nothing by name.
+ *
+ * <p>An action's value is the strongest of its active bindings: 1 for buttons, the scaled
+ * axis value for axes. It counts as pressed while that value reaches the press threshold.
+ * A map is not thread-safe; use one per player on the thread that reads the input.
+ */
+public final class ActionMap {
+    private static final float DEFAULT_PRESS_THRESHOLD = 0.5f;
+
+    private static final float DEFAULT_DEADZONE = 0.15f;
+
+    private static final int AXES = ControllerAxis.values().length;
+
+    // Compiled binding table, STRIDE ints per binding
+    private static final int STRIDE = 5;
+
+    private static final int ACTION = 0;
+
+    private static final int BUTTONS = 1;
+
+    private static final int LAYER = 2;
+
+    private static final int AXIS = 3; // -1 for none
+
+    private static final int CHECKED_MODIFIERS = 4; // the modifiers that decide the layer
+
+    private final Map<String, Integer> ids = new HashMap<>();
+
+    private final List<String> names = new ArrayList<>();
+
+    private final List<Binding> bindings = new ArrayList<>();
+
+    private boolean dirty = true;
+
+    private int[] table = new int[0];
+
+    // Scale of each axis binding; half axes keep only values of the scale's sign
+    private float[] scales = new float[0];
+
+    private boolean[] halfAxis = new boolean[0];
+
+    private int bindingCount;
+
+    // Every button that is a modifier of some layer
+    private int modifierMask;
+
+    private float[] values = new float[0];
+
+    private boolean[] pressed = new boolean[0];
+
+    private boolean[] wasPressed = new boolean[0];
+
+    private final float[] axes = new float[AXES];
+
+    private float pressThreshold = DEFAULT_PRESS_THRESHOLD;
+
+    private float deadzone = DEFAULT_DEADZONE;
+
+    /**
+     * Creates a map without actions.
+     */
+    public ActionMap() {
+    }
+
+    /**
+     * Defines an action, or finds it if it exists already.
+     *
+     * @param name the name of the action
+     * @return the id of the action, for the getters
+     */
+    public int defineAction(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        ids.put(name, names.size());
+        names.add(name);
+        dirty = true;
+        return names.size() - 1;
+    }
+
+    /**
+     * @param name the name of an action
+     * @return its id, or -1 if no action has that name
+     */
+    public int getActionId(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @param action an action id
+     * @return the name the action was defined with
+     */
+    public String getActionName(int action) {
+        return names.get(action);
+    }
+
+    /**
+     * @return how many actions are defined; ids run from 0 to one less than this
+     */
+    public int getNumActions() {
+        return names.size();
+    }
+
+    /**
+     * Binds a button, or a chord of buttons that must all be held.
+     *
+     * @param action the action id
+     * @param buttons the button or buttons
+     */
+    public void bindButtons(int action, ControllerButton... buttons) {
+        bindButtonsOnLayer(action, new ControllerButton[0], buttons);
+    }
+
+    /**
+     * Binds a button or chord on a modifier layer: it only counts while exactly the given
+     * modifiers are held, of all the modifiers used by bindings of this map. Bindings of the
+     * same buttons without a layer stop counting while any modifier is held.
+     *
+     * @param action the action id
+     * @param modifiers the buttons that select the layer
+     * @param buttons the button or buttons
+     */
+    public void bindButtonsOnLayer(int action, ControllerButton[] modifiers, ControllerButton... buttons) {
+        if (buttons.length == 0) {
+            throw new IllegalArgumentException("A button binding needs at least one button");
+        }
+        add(new Binding(action, mask(buttons), mask(modifiers), -1, 1, false));
+    }
+
+    /**
+     * Binds an axis for an analog action. The value is the axis times the scale, so a scale of
+     * -1 flips it; within the deadzone it is 0.
+     *
+     * @param action the action id
+     * @param axis the axis
+     * @param scale what to multiply the axis by
+     */
+    public void bindAxis(int action, ControllerAxis axis, float scale) {
+        bindAxisOnLayer(action, new ControllerButton[0], axis, scale);
+    }
+
+    /**
+     * Binds an axis on a modifier layer, see {@link #bindButtonsOnLayer}.
+     *
+     * @param action the action id
+     * @param modifiers the buttons that select the layer
+     * @param axis the axis
+     * @param scale what to multiply the axis by
+     */
+    public void bindAxisOnLayer(int action, ControllerButton[] modifiers, ControllerAxis axis, float scale) {
+        add(new Binding(action, 0, mask(modifiers), axis.getSdlValue(), scale, false));
+    }
+
+    /**
+     * Binds one direction of an axis, such as a stick pushed left, for a digital action or a
+     * one-sided analog one. The value is the distance the axis moved in that direction, from
+     * 0 to 1.
+     *
+     * @param action the action id
+     * @param axis the axis
+     * @param positive true for the positive direction, false for the negative one
+     */
+    public void bindHalfAxis(int action, ControllerAxis axis, boolean positive) {
+        add(new Binding(action, 0, 0, axis.getSdlValue(), positive ? 1 : -1, true));
+    }
+
+    /**
+     * Removes every binding of an action, so it can be bound anew.
+     *
+     * @param action the action id
+     */
+    public void clearBindings(int action) {
+        bindings.removeIf(binding -> binding.action == action);
+        dirty = true;
+    }
+
+    /**
+     * @param threshold the value at which an action counts as pressed, 0.5 by default
+     */
+    public void setPressThreshold(float threshold) {
+        this.pressThreshold = threshold;
+    }
+
+    /**
+     * @param deadzone how far an axis must move before an axis binding reports anything,
+     *                 0.15 by default
+     */
+    public void setDeadzone(float deadzone) {
+        this.deadzone = deadzone;
+    }
+
+    /**
+     * Evaluates every action against what the last {@link ControllerIndex#poll()} read.
+     *
+     * @param controller the controller to read
+     * @throws ControllerUnpluggedException If the controller is not connected
+     */
+    public void update(ControllerIndex controller) throws ControllerUnpluggedException {
+        update(controller.readInputState(axes), axes);
+    }
+
+    /**
+     * Evaluates every action against a snapshot. A disconnected snapshot releases everything.
+     *
+     * @param snapshot the snapshot to read
+     */
+    public void update(ControllerSnapshot snapshot) {
+        update(snapshot.buttons, snapshot.axes);
+    }
+
+    /**
+     * Evaluates every action against a state. A disconnected state releases everything.
+     *
+     * @param state the state to read
+     */
+    public void update(ControllerState state) {
+        state.copyAxes(axes);
+        update(state.getButtonBits(), axes);
+    }
+
+    /**
+     * Evaluates every action.
+     *
+     * @param buttons the held buttons, bit i for the button with SDL value i
+     * @param axisValues the axis values, indexed by SDL value
+     */
+    public void update(int buttons, float[] axisValues) {
+        if (dirty) {
+            compile();
+        }
+
+        boolean[] previous = wasPressed;
+        wasPressed = pressed;
+        pressed = previous;
+        Arrays.fill(values, 0);
+
+        int[] table = this.table;
+        int modifiers = buttons & modifierMask;
+        for (int i = 0, entry = 0; i < bindingCount; i++, entry += STRIDE) {
+            int mask = table[entry + BUTTONS];
+            if ((buttons & mask) != mask
+                    || (modifiers & table[entry + CHECKED_MODIFIERS] & ~mask) != table[entry + LAYER]) {
+                continue;
+            }
+
+            float value = 1;
+            int axis = table[entry + AXIS];
+            if (axis >= 0) {
+                value = axisValues[axis] * scales[i];
+                if ((halfAxis[i] && value < 0) || Math.abs(value) < deadzone) {
+                    continue;
+                }
+            }
+
+            int action = table[entry + ACTION];
+            if (Math.abs(value) > Math.abs(values[action])) {
+                values[action] = value;
+            }
+        }
+
+        for (int action = 0; action < values.length; action++) {
+            pressed[action] = Math.abs(values[action]) >= pressThreshold;
+        }
+    }
+
+    /**
+     * @param action the action id
+     * @return the value of the action at the last update, see the class description
+     */
+    public float getValue(int action) {
+        return values[action];
+    }
+
+    /**
+     * @param action the action id
+     * @return whether the action was pressed at the last update
+     */
+    public boolean isPressed(int action) {
+        return pressed[action];
+    }
+
+    /**
+     * @param action the action id
+     * @return whether the action became pressed at the last update
+     */
+    public boolean isJustPressed(int action) {
+        return pressed[action] && !wasPressed[action];
+    }
+
+    /**
+     * @param action the action id
+     * @return whether the action stopped being pressed at the last update
+     */
+    public boolean isJustReleased(int action) {
+        return !pressed[action] && wasPressed[action];
+    }
+
+    private void add(Binding binding) {
+        if (binding.action < 0 || binding.action >= names.size()) {
+            throw new IllegalArgumentException("No action with id " + binding.action);
+        }
+        bindings.add(binding);
+        dirty = true;
+    }
+
+    private void compile() {
+        bindingCount = bindings.size();
+        table = new int[bindingCount * STRIDE];
+        scales = new float[bindingCount];
+        halfAxis = new boolean[bindingCount];
+        modifierMask = 0;
+        for (Binding binding : bindings) {
+            modifierMask |= binding.layer;
+        }
+        for (int i = 0; i < bindingCount; i++) {
+            Binding binding = bindings.get(i);
+            table[i * STRIDE + ACTION] = binding.action;
+            table[i * STRIDE + BUTTONS] = binding.buttons;
+            table[i * STRIDE + LAYER] = binding.layer;
+            table[i * STRIDE + AXIS] = binding.axis;
+            table[i * STRIDE + CHECKED_MODIFIERS] =
+                    binding.layer != 0 || sharesInputWithLayer(binding) ? modifierMask : 0;
+            scales[i] = binding.scale;
+            halfAxis[i] = binding.halfAxis;
+        }
+
+        // Keep what was pressed across a rebind, so actions do not all fire again
+        int actions = names.size();
+        values = Arrays.copyOf(values, actions);
+        pressed = Arrays.copyOf(pressed, actions);
+        wasPressed = Arrays.copyOf(wasPressed, actions);
+        dirty = false;
+    }
+
+    private boolean sharesInputWithLayer(Binding binding) {
+        for (Binding other : bindings) {
+            if (other.layer != 0 && ((binding.buttons & other.buttons) != 0
+                    || (binding.axis >= 0 && binding.axis == other.axis))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int mask(ControllerButton[] buttons) {
+        int mask = 0;
+        for (ControllerButton button : buttons) {
+            mask |= 1 << button.getSdlValue();
+        }
+        return mask;
+    }
+
+    private static final class Binding {
+        final int action;
+        final int buttons;
+        final int layer;
+        final int axis;
+        final float scale;
+        final boolean halfAxis;
+
+        Binding(int action, int buttons, int layer, int axis, float scale, boolean halfAxis) {
+            this.action = action;
+            this.buttons = buttons;
+            this.layer = layer;
+            this.axis = axis;
+            this.scale = scale;
+            this.halfAxis = halfAxis;
+        }
+    }
+}
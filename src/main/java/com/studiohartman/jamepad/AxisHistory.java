@@ -0,0 +1,116 @@
+package com.studiohartman.jamepad;
+
+/**
+ * The last few changes of each axis of one controller, with the times SDL received them, so an
+ * axis can be read at any instant instead of at whenever the controller was last polled.
+ *
+ * <p>SDL only sends an axis event when the value changes, so between two samples the stick is
+ * taken to move in a straight line, and after the newest one it is known to have stayed put
+ * until the poll that delivered it. Past that poll the value is extrapolated along the last
+ * movement, but only while the stick was still moving and only for a limited time, so a
+ * released stick never drifts on.
+ */
+final class AxisHistory {
+    /** Samples kept per axis; must match JAMEPAD_AXIS_HISTORY on the native side. */
+    static final int CAPACITY = 16;
+
+    static final int AXES = ControllerAxis.values().length;
+
+    // Per axis, CAPACITY entries from oldest to newest, on the System.nanoTime() clock
+    final long[] times = new long[AXES * CAPACITY];
+
+    final short[] values = new short[AXES * CAPACITY];
+
+    final int[] counts = new int[AXES];
+
+    private final long maxExtrapolationNanos;
+
+    // When the poll that filled the history ran; no change happened between the newest
+    // sample and this
+    private long updateTime;
+
+    AxisHistory(long maxExtrapolationNanos) {
+        this.maxExtrapolationNanos = maxExtrapolationNanos;
+    }
+
+    /**
+     * Turns the SDL timestamps just copied in into {@link System#nanoTime()} ones.
+     *
+     * @param updateTime when the poll the samples came from ran
+     */
+    void filled(long updateTime) {
+        this.updateTime = updateTime;
+        for (int axis = 0; axis < AXES; axis++) {
+            int base = axis * CAPACITY;
+            for (int i = 0; i < counts[axis]; i++) {
+                times[base + i] = SdlClock.toNanoTime(times[base + i]);
+            }
+        }
+    }
+
+    void clear() {
+        for (int axis = 0; axis < AXES; axis++) {
+            counts[axis] = 0;
+        }
+        updateTime = 0;
+    }
+
+    /**
+     * @param axis the SDL value of the axis, which must have at least one sample
+     * @param nanoTime the instant to read, on the {@link System#nanoTime()} clock
+     * @return the axis value at that instant, -1 to 1 for sticks and 0 to 1 for triggers
+     */
+    float sample(int axis, long nanoTime) {
+        int count = counts[axis];
+        int base = axis * CAPACITY;
+        int newest = base + count - 1;
+        if (nanoTime - times[base] <= 0) {
+            return value(base);
+        }
+        if (nanoTime - times[newest] >= 0) {
+            return clamp(axis, extrapolate(base, newest, nanoTime));
+        }
+
+        // Samples are sorted by time and there are at most CAPACITY of them
+        int next = base + 1;
+        while (nanoTime - times[next] > 0) {
+            next++;
+        }
+        int previous = next - 1;
+        return lerp(value(previous), value(next),
+                (float) (nanoTime - times[previous]) / (times[next] - times[previous]));
+    }
+
+    private float extrapolate(int base, int newest, long nanoTime) {
+        float value = value(newest);
+        if (nanoTime - updateTime <= 0 || newest == base) {
+            return value;
+        }
+
+        // A stick at rest sends nothing, so it only counts as moving if the poll came soon
+        // enough after its last change that no further report would have been due yet
+        long interval = times[newest] - times[newest - 1];
+        if (interval <= 0 || interval > maxExtrapolationNanos || updateTime - times[newest] > interval) {
+            return value;
+        }
+
+        // The stick held still up to the poll, so the movement picks up from there and the
+        // value does not jump when a read crosses it
+        long ahead = Math.min(nanoTime - updateTime, maxExtrapolationNanos);
+        float velocity = (value - value(newest - 1)) / interval;
+        return value + velocity * ahead;
+    }
+
+    private float value(int entry) {
+        return values[entry] / 32767f;
+    }
+
+    private static float lerp(float from, float to, float fraction) {
+        return from + (to - from) * fraction;
+    }
+
+    private static float clamp(int axis, float value) {
+        float min = axis >= ControllerAxis.TRIGGERLEFT.getSdlValue() ? 0 : -1;
+        return Math.max(min, Math.min(1, value));
+    }
+}
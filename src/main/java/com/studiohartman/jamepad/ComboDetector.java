@@ -0,0 +1,333 @@
+package com.studiohartman.jamepad;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Recognizes input sequences such as a quarter circle forward and punch, matched against the
+ * button and stick events of one controller at the times SDL received them.
+ *
+ * <p>Reading sequences off polled state loses inputs that begin and end between two frames and
+ * blurs how far apart they were. The detector instead replays every button press and every
+ * change of stick or D-pad direction since the last poll, in order, with its own timestamp, so
+ * a sequence entered within one frame still matches and the time limit is measured between the
+ * actual inputs.
+ *
+ * <p>Sequences are written in numpad notation, steps separated by spaces:
+ * <ul>
+ *     <li>a digit from 1 to 9 is a direction, 5 being neutral, 2 down and 6 forward; the step
+ *     matches when the stick or D-pad moves into that direction,</li>
+ *     <li>a {@link ControllerButton} name, such as {@code X}, matches a press of that button,</li>
+ *     <li>a direction and a button joined by {@code +}, such as {@code 6+X}, matches a press of
+ *     the button while holding the direction.</li>
+ * </ul>
+ * So a fireball is {@code "2 3 6+X"} and a dash {@code "6 5 6"}. Other inputs may come in between
+ * the steps. The whole sequence must fit in its time limit, counted from the first step.
+ *
+ * <p>Forward is to the right unless {@link #setFacingLeft(boolean)} says otherwise. The D-pad
+ * takes precedence over the left stick while any of its buttons is held.
+ *
+ * <p>Sequences compile into flat tables. Each one keeps, per step, only the start time of the
+ * most recent partial match that got that far, which is the one with the most time left, so a
+ * detector uses the same memory however long it runs and however much input arrives. Get the
+ * detector of a controller with {@link ControllerIndex#getComboDetector()}; like the rest of
+ * {@link ControllerIndex} it is meant to be used from the thread that drives the controller.
+ */
+public final class ComboDetector {
+    /** Entries taken from the native log per poll; must match JAMEPAD_INPUT_LOG. */
+    static final int LOG_CAPACITY = 256;
+
+    // Log entries at or above this are axes, below it buttons
+    private static final int LOG_AXIS = 0x100;
+
+    private static final int STICK_THRESHOLD = 16384;
+
+    private static final int NEUTRAL = 5;
+
+    private static final long NONE = Long.MIN_VALUE;
+
+    // Filled by the native side on each poll
+    final long[] logTimes = new long[LOG_CAPACITY];
+
+    final int[] logInputs = new int[LOG_CAPACITY];
+
+    final short[] logValues = new short[LOG_CAPACITY];
+
+    private final ControllerIndex controller;
+
+    private ComboListener listener;
+
+    private final List<String> sequences = new ArrayList<>();
+
+    private final List<int[]> parsed = new ArrayList<>();
+
+    private final List<Long> windows = new ArrayList<>();
+
+    // Compiled: per combo its first step and step count, per step the direction (0 for any)
+    // and the button (-1 for none), and per step the start time of the newest partial match
+    // that completed the steps before it
+    private int[] first = new int[0];
+
+    private int[] length = new int[0];
+
+    private long[] windowNanos = new long[0];
+
+    private int[] stepDirection = new int[0];
+
+    private int[] stepButton = new int[0];
+
+    private long[] progress = new long[0];
+
+    private boolean facingLeft;
+
+    private int dpad;
+
+    private int stickX;
+
+    private int stickY;
+
+    private int direction = NEUTRAL;
+
+    ComboDetector(ControllerIndex controller) {
+        this.controller = controller;
+    }
+
+    /**
+     * Registers a sequence.
+     *
+     * @param sequence the steps, in the notation described on the class
+     * @param windowMillis the most time from the first step to the last one
+     * @return the id the listener will report the sequence with
+     * @throws IllegalArgumentException if the sequence is not valid notation
+     */
+    public int addCombo(String sequence, long windowMillis) {
+        String[] tokens = sequence.trim().split("\\s+");
+        if (tokens.length == 0 || tokens[0].isEmpty()) {
+            throw new IllegalArgumentException("Empty sequence");
+        }
+        int[] steps = new int[tokens.length * 2];
+        for (int i = 0; i < tokens.length; i++) {
+            parseStep(tokens[i], steps, i * 2);
+        }
+
+        sequences.add(sequence);
+        parsed.add(steps);
+        windows.add(windowMillis * 1_000_000L);
+        compile();
+        return sequences.size() - 1;
+    }
+
+    /**
+     * @param combo a combo id
+     * @return the sequence it was registered with
+     */
+    public String getSequence(int combo) {
+        return sequences.get(combo);
+    }
+
+    /**
+     * Removes every sequence. Ids start from 0 again.
+     */
+    public void clearCombos() {
+        sequences.clear();
+        parsed.clear();
+        windows.clear();
+        compile();
+    }
+
+    /**
+     * @param listener the listener to report completed sequences to, or null for none
+     */
+    public void setListener(ComboListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param facingLeft whether forward is to the left, for a character facing left
+     */
+    public void setFacingLeft(boolean facingLeft) {
+        if (this.facingLeft != facingLeft) {
+            this.facingLeft = facingLeft;
+            direction = currentDirection();
+        }
+    }
+
+    /**
+     * Forgets every sequence in progress.
+     */
+    public void reset() {
+        Arrays.fill(progress, NONE);
+    }
+
+    /**
+     * Forgets everything about the old connection.
+     */
+    void disconnected() {
+        reset();
+        dpad = 0;
+        stickX = 0;
+        stickY = 0;
+        direction = NEUTRAL;
+    }
+
+    /**
+     * Replays the inputs the native side logged since the last poll.
+     *
+     * @param count how many entries of the log arrays are filled
+     */
+    void consume(int count) {
+        for (int i = 0; i < count; i++) {
+            int input = logInputs[i];
+            long time = logTimes[i];
+            if (input >= LOG_AXIS) {
+                int value = logValues[i];
+                int position = value >= STICK_THRESHOLD ? 1 : value <= -STICK_THRESHOLD ? -1 : 0;
+                if (input - LOG_AXIS == ControllerAxis.LEFTX.getSdlValue()) {
+                    stickX = position;
+                } else {
+                    stickY = position;
+                }
+                directionChanged(time);
+                continue;
+            }
+
+            int bit = 1 << input;
+            if (logValues[i] == 0) {
+                dpad &= ~bit;
+                if (isDpad(input)) {
+                    directionChanged(time);
+                }
+                continue;
+            }
+            if (isDpad(input)) {
+                dpad |= bit;
+                directionChanged(time);
+            }
+            step(0, input, time);
+        }
+    }
+
+    private void directionChanged(long time) {
+        int newDirection = currentDirection();
+        if (newDirection != direction) {
+            direction = newDirection;
+            step(newDirection, -1, time);
+        }
+    }
+
+    /**
+     * Advances every sequence by one input: a new direction, or a button press while holding
+     * the current one.
+     */
+    private void step(int enteredDirection, int button, long time) {
+        for (int combo = 0; combo < first.length; combo++) {
+            int base = first[combo];
+            int last = length[combo] - 1;
+            // Backwards, so one input never completes two steps of the same sequence
+            for (int j = last; j >= 0; j--) {
+                int s = base + j;
+                boolean matches = button < 0
+                        ? stepButton[s] < 0 && stepDirection[s] == enteredDirection
+                        : stepButton[s] == button && (stepDirection[s] == 0 || stepDirection[s] == direction);
+                if (!matches) {
+                    continue;
+                }
+
+                long start = j == 0 ? time : progress[s];
+                if (start == NONE || time - start > windowNanos[combo]) {
+                    continue;
+                }
+                if (j == last) {
+                    Arrays.fill(progress, base, base + length[combo], NONE);
+                    if (listener != null) {
+                        listener.onCombo(controller, combo, SdlClock.toNanoTime(time));
+                    }
+                    break;
+                }
+                if (progress[s + 1] == NONE || start - progress[s + 1] > 0) {
+                    progress[s + 1] = start;
+                }
+            }
+        }
+    }
+
+    private int currentDirection() {
+        int x;
+        int y;
+        if (dpad != 0) {
+            x = (isHeld(ControllerButton.DPAD_RIGHT) ? 1 : 0) - (isHeld(ControllerButton.DPAD_LEFT) ? 1 : 0);
+            y = (isHeld(ControllerButton.DPAD_UP) ? 1 : 0) - (isHeld(ControllerButton.DPAD_DOWN) ? 1 : 0);
+        } else {
+            // SDL's Y axis points down
+            x = stickX;
+            y = -stickY;
+        }
+        if (facingLeft) {
+            x = -x;
+        }
+        return NEUTRAL + x + 3 * y;
+    }
+
+    private boolean isHeld(ControllerButton button) {
+        return (dpad & (1 << button.getSdlValue())) != 0;
+    }
+
+    private static boolean isDpad(int button) {
+        return button >= ControllerButton.DPAD_UP.getSdlValue() && button <= ControllerButton.DPAD_RIGHT.getSdlValue();
+    }
+
+    private static void parseStep(String token, int[] steps, int at) {
+        int plus = token.indexOf('+');
+        String directionPart = plus >= 0 ? token.substring(0, plus) : token;
+        String buttonPart = plus >= 0 ? token.substring(plus + 1) : null;
+
+        int stepDirection = 0;
+        int button = -1;
+        if (directionPart.length() == 1 && directionPart.charAt(0) >= '1' && directionPart.charAt(0) <= '9') {
+            stepDirection = directionPart.charAt(0) - '0';
+        } else if (plus < 0) {
+            buttonPart = token;
+        } else {
+            throw new IllegalArgumentException("Not a direction: " + directionPart);
+        }
+        if (buttonPart != null) {
+            try {
+                button = ControllerButton.valueOf(buttonPart.toUpperCase(Locale.ROOT)).getSdlValue();
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Not a button: " + buttonPart);
+            }
+        }
+        steps[at] = stepDirection;
+        steps[at + 1] = button;
+    }
+
+    private void compile() {
+        int combos = parsed.size();
+        int total = 0;
+        for (int[] steps : parsed) {
+            total += steps.length / 2;
+        }
+
+        first = new int[combos];
+        length = new int[combos];
+        windowNanos = new long[combos];
+        stepDirection = new int[total];
+        stepButton = new int[total];
+        progress = new long[total];
+        Arrays.fill(progress, NONE);
+
+        int next = 0;
+        for (int combo = 0; combo < combos; combo++) {
+            int[] steps = parsed.get(combo);
+            first[combo] = next;
+            length[combo] = steps.length / 2;
+            windowNanos[combo] = windows.get(combo);
+            for (int i = 0; i < steps.length; i += 2, next++) {
+                stepDirection[next] = steps[i];
+                stepButton[next] = steps[i + 1];
+            }
+        }
+    }
+}
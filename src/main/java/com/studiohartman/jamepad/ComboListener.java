@@ -0,0 +1,16 @@
+package com.studiohartman.jamepad;
+
+/**
+ * Receives the input sequences recognized by a {@link ComboDetector}. The callback runs on the
+ * thread that polls the controller, during {@link ControllerIndex#poll()}.
+ */
+public interface ComboListener {
+    /**
+     * A registered sequence was completed.
+     *
+     * @param controller the controller it was performed on
+     * @param combo the id {@link ComboDetector#addCombo} returned for it
+     * @param timestampNanos when its last input happened, on the {@link System#nanoTime()} clock
+     */
+    void onCombo(ControllerIndex controller, int combo, long timestampNanos);
+}
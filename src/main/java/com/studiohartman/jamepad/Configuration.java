@@ -11,6 +11,13 @@ public class Configuration {
      */
     public int maxNumControllers = 4;
 
+    /**
+     * The max number of joysticks without a gamepad mapping, such as wheels and flight sticks,
+     * the ControllerManager should deal with. See {@link JoystickIndex}. Set this to 0 to leave
+     * such devices closed.
+     */
+    public int maxNumJoysticks = 4;
+
     /**
      * Use RawInput implementation instead of XInput on Windows, if applicable. Enable this if you
      * need to use more than four XInput controllers at once. Comes with drawbacks.
@@ -72,6 +79,86 @@ public class Configuration {
      */
     public boolean useSystemMotionSensors = false;
 
+    /**
+     * The most DualSense haptic audio, in milliseconds, that may sit in a controller's queue.
+     * Once a packet would push the queue past this, {@link #hapticsOverflowPolicy} decides
+     * what happens to it. 100 by default. 0 queues without limit, which lets the haptics fall
+     * further and further behind whenever the producer runs ahead of playback.
+     *
+     * <p>Can be changed per controller with {@link ControllerIndex#setHapticFeedbackLatency}.
+     */
+    public int hapticsMaxLatencyMillis = 100;
+
+    /**
+     * How much haptic audio, in milliseconds, is left queued, the newest packet included, when
+     * {@link HapticsOverflowPolicy#TRIM_OLDEST} trims a backlog.
+     */
+    public int hapticsTargetLatencyMillis = 30;
+
+    /**
+     * What to do with haptic audio that would exceed {@link #hapticsMaxLatencyMillis}.
+     */
+    public HapticsOverflowPolicy hapticsOverflowPolicy = HapticsOverflowPolicy.TRIM_OLDEST;
+
+    /**
+     * The shortest time, in milliseconds, between two output writes to one controller. Rumble,
+     * LED colour and adaptive trigger requests only record what the controller should be
+     * doing; changes are sent at most this often, merged into as few reports as the device
+     * allows, and requests that change nothing are not sent at all. Pending changes go out
+     * from {@link ControllerManager#update()} and {@link ControllerIndex#poll()}.
+     *
+     * <p>0 sends every change right away, which still skips requests that change nothing.
+     */
+    public int outputFlushIntervalMillis = 8;
+
+    /**
+     * How far, in milliseconds, {@link ControllerIndex#sampleAxisAt(ControllerAxis, long)} may
+     * extrapolate a moving stick past its newest change. Beyond that the stick is held where
+     * the extrapolation ended. Keep it near the time between two polls; 0 never extrapolates.
+     */
+    public int maxAxisExtrapolationMillis = 8;
+
+    /**
+     * Axis events that move an axis less than this, as a fraction of its full range, are
+     * dropped before they reach anything that listens to events, unless
+     * {@link #axisEventMinIntervalMillis} has passed since the last one that got through. Worn
+     * sticks and triggers otherwise send a steady stream of tiny changes from pads that sit
+     * idle. A return to exactly 0 always gets through, and polled values are never affected.
+     * Something like 0.01 fits most pads.
+     *
+     * <p>0 lets every event through. Coalescing needs both this and the interval.
+     */
+    public float axisEventThreshold = 0;
+
+    /**
+     * The longest time, in milliseconds, that small axis changes are held back by
+     * {@link #axisEventThreshold}. Keeps a slowly drifting axis reported at this rate.
+     */
+    public int axisEventMinIntervalMillis = 0;
+
+    /**
+     * How often, in milliseconds, {@link ControllerManager#update()} asks each controller for
+     * its power state. SDL also reports battery changes as events, which are applied right
+     * away, so this only catches devices that report changes late or not at all.
+     * {@link ControllerIndex#getPowerLevel()} and {@link ControllerIndex#getBatteryPercentage()}
+     * return what was last seen and cost nothing to call every frame.
+     */
+    public int powerSampleIntervalMillis = 10_000;
+
+    /**
+     * The battery percentage at or below which {@link ControllerPowerListener#onBatteryLow} is
+     * called for a controller running on battery.
+     */
+    public int lowBatteryPercent = 20;
+
+    /**
+     * Register the {@link JamepadMetrics} of the manager with the platform MBean server while it
+     * is initialized, as {@code com.studiohartman.jamepad:type=JamepadMetrics,id=<n>}. The
+     * metrics are collected either way and are always available from
+     * {@link ControllerManager#getMetrics()}.
+     */
+    public boolean registerMetricsMBean = false;
+
     public enum SonyControllerFeature {
         /**
          * Do not use any advanced Sony controller features
@@ -102,4 +189,18 @@ public class Configuration {
         }
 
     }
+
+    public enum HapticsOverflowPolicy {
+        /**
+         * Keep what is already queued and drop the packet that does not fit
+         */
+        DROP_NEWEST,
+
+        /**
+         * Drop the oldest queued audio, just enough that what is left and the new packet fit
+         * in {@link Configuration#hapticsTargetLatencyMillis}. Playback carries on without a
+         * gap; it skips ahead once, at the point where the dropped audio was.
+         */
+        TRIM_OLDEST
+    }
 }
@@ -1,6 +1,13 @@
 package com.studiohartman.jamepad;
 
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
 import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
 
 /**
  * This class is the main thing you're gonna need to deal with if you want lots of
@@ -12,6 +19,17 @@ import java.util.*;
  * A ControllerIndex represents the controller at a given index. There may or may not actually
  * be a controller at that index. Exceptions are thrown if the controller is not connected.
  *
+ * <h2>Threads</h2>
+ * One thread owns the controller: the thread that drives the {@link ControllerManager} calls
+ * {@link #poll()}, the getters and the output methods. The native gamepad behind this object
+ * is closed and reopened on that thread during {@link ControllerManager#update()}, so calling
+ * any of these from another thread can touch a gamepad that was just freed.
+ *
+ * <p>Other threads use {@link #readSnapshot(ControllerSnapshot)}, which copies what the owner
+ * published on its last poll without going near SDL. The haptic audio methods, such as
+ * {@link #sendHapticFeedbackAudio(ByteBuffer)}, may also be called from any thread; they only
+ * use the haptics channel, which is closed under a lock.
+ *
  * @author William Hartman
  */
 public final class ControllerIndex {
@@ -30,39 +48,193 @@ public final class ControllerIndex {
         return SDL_GetGamepadJoystick(jamepad_pad(controllerPtr));
     }
 
-    // SDL reports the hardware sample time on sensor events only; SDL_GetGamepadSensorData
-    // hands back values without one. Keep the newest timestamp per device so the polling
-    // API can still report when a sample was actually taken.
-    #define JAMEPAD_MAX_SENSOR_DEVICES 16
+    // Reads the raw buttons, axes and hats of any joystick into jnigen's array pointers.
+    // Not static: JoystickIndex reads its devices with it too, and every class ends up in
+    // the same library.
+    void jamepad_read_joystick_state(SDL_Joystick *joystick, long long *buttonBits, int buttonWords,
+                                     short *axes, int axisCount, char *hats, int hatCount) {
+        int buttons = SDL_GetNumJoystickButtons(joystick);
+        for (int word = 0; word < buttonWords; word++) {
+            Uint64 bits = 0;
+            for (int bit = 0; bit < 64; bit++) {
+                int button = word * 64 + bit;
+                if (button >= buttons) {
+                    break;
+                }
+                if (SDL_GetJoystickButton(joystick, button)) {
+                    bits |= (Uint64) 1 << bit;
+                }
+            }
+            buttonBits[word] = (jlong) bits;
+        }
+
+        int axisTotal = SDL_GetNumJoystickAxes(joystick);
+        for (int i = 0; i < axisCount; i++) {
+            axes[i] = i < axisTotal ? SDL_GetJoystickAxis(joystick, i) : 0;
+        }
+
+        int hatTotal = SDL_GetNumJoystickHats(joystick);
+        for (int i = 0; i < hatCount; i++) {
+            hats[i] = (char) (i < hatTotal ? SDL_GetJoystickHat(joystick, i) : SDL_HAT_CENTERED);
+        }
+    }
+
+    // Per-device clocks. SDL reports the hardware sample time on sensor events only;
+    // SDL_GetGamepadSensorData hands back values without one, so keep the newest timestamp
+    // per device for the polling API. The time of the newest button or axis change is kept
+    // here too, see jamepad_input_watch.
+    //
+    // Keyed by instance id in an open addressing table that grows with the number of
+    // devices, so a lookup costs the same with 4 controllers as with 64. Instance ids count
+    // up from 1, so their low bits are a good enough hash, and 0 marks a free entry.
+    //
+    // Each axis also keeps its last changes in a ring for AxisHistory, and while a
+    // SensorResampler or ComboDetector is attached, the events it needs are logged for it.
+    #define JAMEPAD_AXIS_HISTORY 16
+    #define JAMEPAD_SENSOR_LOG 512
+    #define JAMEPAD_INPUT_LOG 256
+
+    typedef struct {
+        Uint64 times[JAMEPAD_AXIS_HISTORY];
+        Sint16 values[JAMEPAD_AXIS_HISTORY];
+        Uint32 written;
+    } JamepadAxisHistory;
+
+    typedef struct {
+        Uint64 times[JAMEPAD_SENSOR_LOG];
+        Sint32 sensors[JAMEPAD_SENSOR_LOG];
+        float data[JAMEPAD_SENSOR_LOG * 3];
+        Uint32 first;
+        Uint32 count;
+    } JamepadSensorLog;
+
+    // Button presses and releases, and left stick motion, in the order SDL saw them
+    typedef struct {
+        Uint64 times[JAMEPAD_INPUT_LOG];
+        Sint32 inputs[JAMEPAD_INPUT_LOG]; // button, or JAMEPAD_INPUT_LOG_AXIS + axis
+        Sint16 values[JAMEPAD_INPUT_LOG]; // 1 or 0 for buttons
+        Uint32 first;
+        Uint32 count;
+    } JamepadInputLog;
+
+    #define JAMEPAD_INPUT_LOG_AXIS 0x100
 
     typedef struct {
         SDL_JoystickID id;
+        Uint64 inputTimestamp;
         Uint64 accelTimestamp;
         Uint64 gyroTimestamp;
-    } JamepadSensorClock;
-
-    static JamepadSensorClock jamepad_sensor_clocks[JAMEPAD_MAX_SENSOR_DEVICES];
+        JamepadAxisHistory axes[SDL_GAMEPAD_AXIS_COUNT];
+        // What jamepad_axis_filter last let through, per axis
+        Sint16 deliveredAxis[SDL_GAMEPAD_AXIS_COUNT];
+        Uint64 deliveredAxisTime[SDL_GAMEPAD_AXIS_COUNT];
+        Uint64 axisEventsSuppressed;
+        JamepadSensorLog *sensorLog;
+        JamepadInputLog *inputLog;
+    } JamepadDeviceClock;
+
+    static JamepadDeviceClock *jamepad_clocks = NULL;
+    static Uint32 jamepad_clock_capacity = 0; // a power of two
+    static Uint32 jamepad_clock_count = 0;
+
+    // Every sensor event taken off the queue, for JamepadMetrics
+    static Uint64 jamepad_sensor_events_received = 0;
+
+    // Axis event coalescing, see jamepad_axis_filter
+    static int jamepad_axis_threshold = 0;
+    static Uint64 jamepad_axis_interval = 0;
+    static bool jamepad_axis_filter_installed = false;
+    static SDL_EventFilter jamepad_previous_filter = NULL;
+    static void *jamepad_previous_filter_data = NULL;
+    static Uint64 jamepad_axis_events_suppressed = 0;
+
+    static JamepadDeviceClock *jamepad_clock_probe(JamepadDeviceClock *table, Uint32 capacity, SDL_JoystickID id) {
+        Uint32 mask = capacity - 1;
+        Uint32 i = id & mask;
+        while (table[i].id != 0 && table[i].id != id) {
+            i = (i + 1) & mask;
+        }
+        return &table[i];
+    }
 
-    static JamepadSensorClock *jamepad_sensor_clock(SDL_JoystickID id, bool create) {
-        JamepadSensorClock *slot = NULL;
+    static bool jamepad_clock_grow() {
+        Uint32 capacity = jamepad_clock_capacity == 0 ? 16 : jamepad_clock_capacity * 2;
+        JamepadDeviceClock *table = (JamepadDeviceClock *) SDL_calloc(capacity, sizeof(JamepadDeviceClock));
+        if (table == NULL) {
+            return false;
+        }
 
-        for (int i = 0; i < JAMEPAD_MAX_SENSOR_DEVICES; i++) {
-            if (jamepad_sensor_clocks[i].id == id) {
-                return &jamepad_sensor_clocks[i];
+        for (Uint32 i = 0; i < jamepad_clock_capacity; i++) {
+            if (jamepad_clocks[i].id != 0) {
+                *jamepad_clock_probe(table, capacity, jamepad_clocks[i].id) = jamepad_clocks[i];
             }
-            if (slot == NULL && jamepad_sensor_clocks[i].id == 0) {
-                slot = &jamepad_sensor_clocks[i];
+        }
+        SDL_free(jamepad_clocks);
+        jamepad_clocks = table;
+        jamepad_clock_capacity = capacity;
+        return true;
+    }
+
+    static JamepadDeviceClock *jamepad_device_clock(SDL_JoystickID id, bool create) {
+        if (jamepad_clock_capacity > 0) {
+            JamepadDeviceClock *clock = jamepad_clock_probe(jamepad_clocks, jamepad_clock_capacity, id);
+            if (clock->id == id) {
+                return clock;
             }
         }
+        if (!create) {
+            return NULL;
+        }
 
-        if (!create || slot == NULL) {
+        // Keep the table at most half full so probe runs stay short
+        if ((jamepad_clock_count + 1) * 2 > jamepad_clock_capacity && !jamepad_clock_grow()) {
             return NULL;
         }
+        JamepadDeviceClock *clock = jamepad_clock_probe(jamepad_clocks, jamepad_clock_capacity, id);
+        SDL_zerop(clock);
+        clock->id = id;
+        jamepad_clock_count++;
+        return clock;
+    }
 
-        slot->id = id;
-        slot->accelTimestamp = 0;
-        slot->gyroTimestamp = 0;
-        return slot;
+    // Removal shifts later entries of the probe run back into the hole instead of leaving a
+    // tombstone, so lookups never slow down however often devices come and go.
+    static void jamepad_forget_device_clock(SDL_JoystickID id) {
+        if (jamepad_clock_capacity == 0) {
+            return;
+        }
+        JamepadDeviceClock *clock = jamepad_clock_probe(jamepad_clocks, jamepad_clock_capacity, id);
+        if (clock->id != id) {
+            return;
+        }
+
+        SDL_free(clock->sensorLog);
+        clock->sensorLog = NULL;
+        SDL_free(clock->inputLog);
+        clock->inputLog = NULL;
+
+        Uint32 mask = jamepad_clock_capacity - 1;
+        Uint32 hole = (Uint32) (clock - jamepad_clocks);
+        for (Uint32 i = (hole + 1) & mask; jamepad_clocks[i].id != 0; i = (i + 1) & mask) {
+            Uint32 home = jamepad_clocks[i].id & mask;
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                jamepad_clocks[hole] = jamepad_clocks[i];
+                hole = i;
+            }
+        }
+        jamepad_clocks[hole].id = 0;
+        jamepad_clock_count--;
+    }
+
+    static void jamepad_clear_device_clocks() {
+        for (Uint32 i = 0; i < jamepad_clock_capacity; i++) {
+            SDL_free(jamepad_clocks[i].sensorLog);
+            SDL_free(jamepad_clocks[i].inputLog);
+        }
+        SDL_free(jamepad_clocks);
+        jamepad_clocks = NULL;
+        jamepad_clock_capacity = 0;
+        jamepad_clock_count = 0;
     }
 
     // Records every pending sensor event regardless of which device it belongs to, so it
@@ -74,9 +246,10 @@ public final class ControllerIndex {
         while ((count = SDL_PeepEvents(events, 32, SDL_GETEVENT,
                                        SDL_EVENT_GAMEPAD_SENSOR_UPDATE,
                                        SDL_EVENT_GAMEPAD_SENSOR_UPDATE)) > 0) {
+            jamepad_sensor_events_received += (Uint64) count;
             for (int i = 0; i < count; i++) {
                 const SDL_GamepadSensorEvent *event = &events[i].gsensor;
-                JamepadSensorClock *clock = jamepad_sensor_clock(event->which, true);
+                JamepadDeviceClock *clock = jamepad_device_clock(event->which, true);
                 if (clock == NULL) {
                     continue;
                 }
@@ -90,6 +263,108 @@ public final class ControllerIndex {
         }
     }
 
+    // Worn sticks and triggers jitter around their rest position and send a steady stream of
+    // tiny axis events. The filter runs before any event watch and before the queue, so it
+    // drops a change smaller than the threshold unless the interval has passed since the last
+    // one it let through; a return to exactly 0 always gets through. SDL updates the axis
+    // state before it sends the event, so polled values stay exact. Any filter the
+    // application set before is chained behind this one.
+    static bool SDLCALL jamepad_axis_filter(void *userdata, SDL_Event *event) {
+        if (event->type == SDL_EVENT_GAMEPAD_AXIS_MOTION && event->gaxis.axis < SDL_GAMEPAD_AXIS_COUNT) {
+            JamepadDeviceClock *clock = jamepad_device_clock(event->gaxis.which, true);
+            if (clock != NULL) {
+                Uint8 axis = event->gaxis.axis;
+                Sint16 value = event->gaxis.value;
+                Sint16 delivered = clock->deliveredAxis[axis];
+                if (SDL_abs(value - delivered) < jamepad_axis_threshold && !(value == 0 && delivered != 0) &&
+                        event->gaxis.timestamp - clock->deliveredAxisTime[axis] < jamepad_axis_interval) {
+                    clock->axisEventsSuppressed++;
+                    jamepad_axis_events_suppressed++;
+                    return false;
+                }
+                clock->deliveredAxis[axis] = value;
+                clock->deliveredAxisTime[axis] = event->gaxis.timestamp;
+            }
+        }
+        return jamepad_previous_filter == NULL || jamepad_previous_filter(jamepad_previous_filter_data, event);
+    }
+
+    // An event watch sees every gamepad event as SDL creates it, without taking it off the
+    // queue, so the events stay there for any other SDL user in the process.
+    static void jamepad_log_sensor_event(const SDL_GamepadSensorEvent *event) {
+        JamepadDeviceClock *clock = jamepad_device_clock(event->which, false);
+        if (clock == NULL || clock->sensorLog == NULL) {
+            return;
+        }
+
+        // A full log drops its oldest entry; the resampler holds its value over the gap
+        JamepadSensorLog *log = clock->sensorLog;
+        if (log->count == JAMEPAD_SENSOR_LOG) {
+            log->first = (log->first + 1) % JAMEPAD_SENSOR_LOG;
+            log->count--;
+        }
+        Uint32 slot = (log->first + log->count) % JAMEPAD_SENSOR_LOG;
+        // Drivers without sample times get the time SDL received the report instead
+        log->times[slot] = event->sensor_timestamp != 0 ? event->sensor_timestamp : event->timestamp;
+        log->sensors[slot] = event->sensor;
+        SDL_memcpy(&log->data[slot * 3], event->data, 3 * sizeof(float));
+        log->count++;
+    }
+
+    static void jamepad_log_input(JamepadDeviceClock *clock, Uint64 time, Sint32 input, Sint16 value) {
+        JamepadInputLog *log = clock->inputLog;
+        if (log->count == JAMEPAD_INPUT_LOG) {
+            log->first = (log->first + 1) % JAMEPAD_INPUT_LOG;
+            log->count--;
+        }
+        Uint32 slot = (log->first + log->count) % JAMEPAD_INPUT_LOG;
+        log->times[slot] = time;
+        log->inputs[slot] = input;
+        log->values[slot] = value;
+        log->count++;
+    }
+
+    static bool SDLCALL jamepad_input_watch(void *userdata, SDL_Event *event) {
+        SDL_JoystickID id;
+        if (event->type == SDL_EVENT_GAMEPAD_SENSOR_UPDATE) {
+            jamepad_log_sensor_event(&event->gsensor);
+            return true;
+        } else if (event->type == SDL_EVENT_GAMEPAD_AXIS_MOTION) {
+            id = event->gaxis.which;
+        } else if (event->type == SDL_EVENT_GAMEPAD_BUTTON_DOWN || event->type == SDL_EVENT_GAMEPAD_BUTTON_UP) {
+            id = event->gbutton.which;
+        } else {
+            return true;
+        }
+
+        JamepadDeviceClock *clock = jamepad_device_clock(id, true);
+        if (clock == NULL) {
+            return true;
+        }
+        clock->inputTimestamp = event->common.timestamp;
+
+        if (event->type == SDL_EVENT_GAMEPAD_AXIS_MOTION && event->gaxis.axis < SDL_GAMEPAD_AXIS_COUNT) {
+            JamepadAxisHistory *history = &clock->axes[event->gaxis.axis];
+            Uint32 slot = history->written % JAMEPAD_AXIS_HISTORY;
+            history->times[slot] = event->gaxis.timestamp;
+            history->values[slot] = event->gaxis.value;
+            history->written++;
+        }
+
+        if (clock->inputLog != NULL) {
+            if (event->type == SDL_EVENT_GAMEPAD_AXIS_MOTION) {
+                if (event->gaxis.axis == SDL_GAMEPAD_AXIS_LEFTX || event->gaxis.axis == SDL_GAMEPAD_AXIS_LEFTY) {
+                    jamepad_log_input(clock, event->gaxis.timestamp,
+                                      JAMEPAD_INPUT_LOG_AXIS + event->gaxis.axis, event->gaxis.value);
+                }
+            } else {
+                jamepad_log_input(clock, event->gbutton.timestamp, event->gbutton.button,
+                                  event->gbutton.down ? 1 : 0);
+            }
+        }
+        return true;
+    }
+
     static void jamepad_read_sensor_state(JNIEnv *env, SDL_Gamepad *pad, jobject sensorState) {
         float accel[3] = { 0.0f, 0.0f, 0.0f };
         float gyro[3] = { 0.0f, 0.0f, 0.0f };
@@ -101,8 +376,8 @@ public final class ControllerIndex {
 
         Uint64 accelTimestamp = 0;
         Uint64 gyroTimestamp = 0;
-        JamepadSensorClock *clock =
-            jamepad_sensor_clock(SDL_GetJoystickID(SDL_GetGamepadJoystick(pad)), false);
+        JamepadDeviceClock *clock =
+            jamepad_device_clock(SDL_GetJoystickID(SDL_GetGamepadJoystick(pad)), false);
         if (clock != NULL) {
             accelTimestamp = clock->accelTimestamp;
             gyroTimestamp = clock->gyroTimestamp;
@@ -123,9 +398,15 @@ public final class ControllerIndex {
             || System.getProperty("os.name", "").toLowerCase().contains("darwin");
 
     private static final float AXIS_MAX_VAL = 32767;
+
+    // 3kHz, 4 channels, 16 bit: the stream side of a haptics channel
+    private static final int HAPTICS_BYTES_PER_MS = 24;
     private final int index;
     private long controllerPtr;
 
+    // The device the manager put in this slot; it stays here until it is unplugged
+    private int assignedInstanceId;
+
     private final boolean[] heldDownButtons;
     private final boolean[] justPressedButtons;
 
@@ -133,7 +414,8 @@ public final class ControllerIndex {
 
     private final boolean motionSensorsRequested;
 
-    private String controllerGuid = "";
+    // Volatile for the haptics methods, which may run on any thread
+    private volatile ControllerInfo controllerInfo = ControllerInfo.DISCONNECTED;
 
     private boolean supportsTouchpad = false;
 
@@ -143,34 +425,148 @@ public final class ControllerIndex {
 
     private boolean hasGyroscope = false;
 
-    private boolean supportsHaptic = false;
+    private volatile boolean supportsHaptic = false;
+
+    // Raw joystick layout, read once per connection
+    private int numRawButtons;
+
+    private int numRawAxes;
+
+    private int numRawHats;
+
+    private volatile long hapticsPtr;
+
+    private int hapticsMaxLatencyMillis;
+
+    private int hapticsTargetLatencyMillis;
+
+    private Configuration.HapticsOverflowPolicy hapticsOverflowPolicy;
 
     private boolean needToClearTriggerEffect = false;
 
+    private boolean supportsRumble = false;
+
+    private boolean supportsTriggerRumble = false;
+
+    private RumbleMixer rumbleMixer;
+
+    private boolean supportsLed = false;
+
+    private final ControllerOutput output;
+
+    // Scratch for building trigger blocks, so repeated requests allocate nothing
+    private final byte[] leftTriggerBlock = new byte[ControllerOutput.TRIGGER_EFFECT_SIZE];
+
+    private final byte[] rightTriggerBlock = new byte[ControllerOutput.TRIGGER_EFFECT_SIZE];
+
     private final SensorState sensorState = new SensorState();
 
-    private final Map<Integer, TouchState> touchStates = new HashMap<>();
+    private final TouchpadState touchpadState = new TouchpadState();
+
+    // Views of the fingers of the first touchpad for getTouchpadFinger
+    private TouchState[] fingerStates = new TouchState[0];
+
+    private final TouchState noFinger = new TouchState();
+
+    private TouchpadGestures touchpadGestures;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final ScheduledExecutorService renderScheduler;
+
+    private final JamepadMetrics metrics;
+
+    // SDL time of the newest button or axis change seen by poll(), 0 if none yet
+    private long inputTimestamp;
+
+    // The input timestamp the latency histogram last counted, so each change counts once
+    private long measuredInputTimestamp;
+
+    private final LatencyHistogram inputLatency = new LatencyHistogram();
+
+    private final AxisHistory axisHistory;
+
+    // When the last poll ran, and whether axisHistory has been copied since
+    private long lastUpdateTime;
+
+    private boolean axisHistoryCurrent;
+
+    private SensorResampler sensorResampler;
+
+    // Power state as of the last battery event or sample, see updatePower
+    private ControllerPowerLevel powerLevel = ControllerPowerLevel.POWER_UNKNOWN;
+
+    private int batteryPercent = -1;
+
+    private boolean batteryLow;
+
+    private long nextPowerSample;
+
+    private final long powerSampleIntervalNanos;
+
+    private final int lowBatteryPercent;
+
+    private ComboDetector comboDetector;
 
-    private Timer hapticsTimer;
+    // What poll() last published for readSnapshot. Written by the owner under the write lock,
+    // copied by readers with an optimistic read that is retried under the read lock if a poll
+    // got in between.
+    private final StampedLock publishLock = new StampedLock();
 
-    private static final String EMPTY_GUID = "00000000000000000000000000000000";
+    // Publishing costs a JNI call per poll, so it only starts once someone reads a snapshot
+    private volatile boolean publishing;
+
+    private final float[] publishedAxes = new float[ControllerAxis.values().length];
+
+    private int publishedButtons;
+
+    private boolean publishedConnected;
+
+    private long publishedInputTimestamp;
+
+    private long publishedSequence;
+
+    private final Object hapticsLock = new Object();
+
+    // Bumped whenever the controller connects or closes, so delayed work for an old
+    // connection can tell it is stale.
+    private volatile int connectionGeneration;
+
+    private volatile ScheduledFuture<?> hapticsTask;
 
     /**
-     * Constructor. Builds a controller at the given index and attempts to connect to it.
+     * Constructor. Builds an empty controller slot at the given index; the manager assigns
+     * devices to it with {@link #open(int)}.
      * This is only accessible in the Jamepad package, so people can't go trying to make controllers
      * before the native library is loaded or initialized.
      *
      * @param index The index of the controller
+     * @param configuration The configuration of the owning manager
      * @param sonyControllerFeature The indication for the controller if it should use Sony controller
-     *                                  features like the touchpad and adaptive triggers
-     * @param motionSensorsRequested Whether to turn on the gyroscope and accelerometer if the
-     *                                  controller has them
+     *                                  features like the touchpad and adaptive triggers. This can be
+     *                                  lower than the configured one if haptics failed to come up.
+     * @param scheduler The manager's scheduler for delayed work such as haptics discovery
+     * @param renderScheduler The manager's scheduler for haptics rendering, which must never
+     *                        wait on device I/O
+     * @param metrics The manager's metrics
      */
-    ControllerIndex(int index, Configuration.SonyControllerFeature sonyControllerFeature,
-                    boolean motionSensorsRequested) {
+    ControllerIndex(int index, Configuration configuration,
+                    Configuration.SonyControllerFeature sonyControllerFeature,
+                    ScheduledExecutorService scheduler, ScheduledExecutorService renderScheduler,
+                    JamepadMetrics metrics) {
         this.index = index;
+        this.scheduler = scheduler;
+        this.renderScheduler = renderScheduler;
+        this.metrics = metrics;
         this.sonyControllerFeature = sonyControllerFeature;
-        this.motionSensorsRequested = motionSensorsRequested;
+        this.motionSensorsRequested = configuration.useControllerMotionSensors;
+        this.hapticsMaxLatencyMillis = configuration.hapticsMaxLatencyMillis;
+        this.hapticsTargetLatencyMillis = configuration.hapticsTargetLatencyMillis;
+        this.hapticsOverflowPolicy = configuration.hapticsOverflowPolicy;
+        this.output = new ControllerOutput(configuration.outputFlushIntervalMillis);
+        this.axisHistory = new AxisHistory(TimeUnit.MILLISECONDS.toNanos(configuration.maxAxisExtrapolationMillis));
+        this.powerSampleIntervalNanos = TimeUnit.MILLISECONDS.toNanos(configuration.powerSampleIntervalMillis);
+        this.lowBatteryPercent = configuration.lowBatteryPercent;
 
         heldDownButtons = new boolean[ControllerButton.values().length];
         justPressedButtons = new boolean[ControllerButton.values().length];
@@ -178,31 +574,90 @@ public final class ControllerIndex {
             heldDownButtons[i] = false;
             justPressedButtons[i] = false;
         }
+    }
+
+    /**
+     * Assigns a device to this slot and connects to it, closing whatever was here before.
+     *
+     * @param instanceId the SDL instance id of the gamepad, or 0 to leave the slot empty
+     * @return whether the device could be opened
+     */
+    boolean open(int instanceId) {
+        close();
+        assignedInstanceId = instanceId;
         connectController();
+        return controllerPtr != 0;
+    }
+
+    /**
+     * @return the SDL instance id of the device assigned to this slot, or 0 if it is empty.
+     * Unlike {@link #getInstanceIdOrZero()} this stays set while a reconnect fails, until
+     * the manager sees the device go away.
+     */
+    int getAssignedInstanceId() {
+        return assignedInstanceId;
     }
 
     private void connectController() {
-        controllerPtr = nativeConnectController(index);
+        connectionGeneration++;
+        controllerPtr = nativeConnectController(assignedInstanceId);
+        output.reset();
+        inputTimestamp = 0;
+        measuredInputTimestamp = 0;
+        axisHistory.clear();
+        axisHistoryCurrent = false;
+        if (sensorResampler != null) {
+            sensorResampler.reset();
+        }
+        if (comboDetector != null) {
+            comboDetector.disconnected();
+        }
         if (controllerPtr == 0) {
-            controllerGuid = EMPTY_GUID;
+            controllerInfo = ControllerInfo.DISCONNECTED;
             supportsTouchpad = false;
             supportsSensors = false;
             hasAccelerometer = false;
             hasGyroscope = false;
             supportsHaptic = false;
+            supportsRumble = false;
+            supportsTriggerRumble = false;
+            supportsLed = false;
+            numRawButtons = 0;
+            numRawAxes = 0;
+            numRawHats = 0;
+            powerLevel = ControllerPowerLevel.POWER_UNKNOWN;
+            batteryPercent = -1;
+            batteryLow = false;
             return;
         }
-        controllerGuid = nativeGetDeviceGuid(controllerPtr);
+        controllerInfo = readControllerInfo();
+        int power = nativeGetPowerInfo(controllerPtr);
+        powerLevel = ControllerPowerLevel.fromSdlValue(power >> 8);
+        batteryPercent = (byte) (power & 0xFF);
+        batteryLow = isBatteryLow(powerLevel, batteryPercent);
+        nextPowerSample = System.nanoTime() + powerSampleIntervalNanos;
+        if (comboDetector != null) {
+            nativeSetInputLog(controllerInfo.getInstanceId());
+        }
+        numRawButtons = nativeGetNumRawButtons(controllerPtr);
+        numRawAxes = nativeGetNumRawAxes(controllerPtr);
+        numRawHats = nativeGetNumRawHats(controllerPtr);
+        supportsRumble = nativeCanVibrate(controllerPtr);
+        supportsTriggerRumble = nativeCanVibrateTriggers(controllerPtr);
+        supportsLed = nativeIsSupportingLedColor(controllerPtr);
         if(!Objects.equals(Configuration.SonyControllerFeature.NONE, sonyControllerFeature)) {
-            supportsTouchpad = nativeIsTouchpadSupported(controllerPtr);
+            connectTouchpads();
         }
         if(motionSensorsRequested) {
             int enabledSensors = nativeEnableSensors(controllerPtr);
             hasAccelerometer = (enabledSensors & SENSOR_ACCEL) != 0;
             hasGyroscope = (enabledSensors & SENSOR_GYRO) != 0;
             supportsSensors = enabledSensors != 0;
+            if (sensorResampler != null) {
+                nativeSetSensorLog(controllerInfo.getInstanceId(), supportsSensors);
+            }
         }
-        if(nativeIsDualSenseController(controllerPtr) &&
+        if(controllerInfo.isDualSense() &&
                 Objects.equals(Configuration.SonyControllerFeature.DUALSENSE_FEATURES_AND_HAPTICS, sonyControllerFeature)){
             boolean result = nativeEnableHaptics();
             if(result) {
@@ -213,71 +668,488 @@ public final class ControllerIndex {
         }
     }
 
-    private void connectHaptics(final int timeout, final int count) {
-        final Timer oldTimer = hapticsTimer;
-        if (oldTimer != null) {
+    private ControllerInfo readControllerInfo() {
+        String name = nativeGetName(controllerPtr);
+        String deviceName = nativeGetDeviceName(controllerPtr);
+        return new ControllerInfo(
+                //Keep a descriptive string instead of null if the attached controller does not have a name
+                name == null ? "Unnamed Controller" : name,
+                deviceName,
+                nativeGetDeviceGuid(controllerPtr),
+                nativeGetVendorId(controllerPtr),
+                nativeGetProductId(controllerPtr),
+                nativeGetDeviceInstanceID(controllerPtr),
+                nativeIsDualSenseController(controllerPtr));
+    }
+
+    /**
+     * Haptics show up as an audio device some time after the controller itself, so device
+     * discovery runs delayed on the manager's scheduler and retries once. A task only acts if
+     * the connection it was scheduled for is still the current one.
+     */
+    private void connectHaptics(final int delayMillis, final int attempt) {
+        final int generation = connectionGeneration;
+        hapticsTask = scheduler.schedule(() -> {
+            if (generation != connectionGeneration) {
+                return;
+            }
+
+            long channel = nativeConnectHaptics(IS_WINDOWS || IS_MAC);
+            synchronized (hapticsLock) {
+                if (generation != connectionGeneration) {
+                    // The controller was closed while we were opening the device
+                    nativeCloseHaptics(channel);
+                    return;
+                }
+                hapticsPtr = channel;
+                supportsHaptic = channel != 0;
+            }
+
+            if (channel == 0) {
+                if (attempt == 0) {
+                    connectHaptics(10_000, attempt + 1);
+                } else {
+                    System.out.println("Connect haptics failed: " + getLastNativeError());
+                }
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the scheduler the manager that owns this controller renders haptics on, apart
+     * from the one that opens haptics devices
+     */
+    ScheduledExecutorService getRenderScheduler() {
+        return renderScheduler;
+    }
+
+    /**
+     * Polls SDL manually.
+     * If you use the *Fast* getters below, you MUST call poll() first.
+     * This also sends rumble, LED and trigger changes that were waiting for
+     * {@link Configuration#outputFlushIntervalMillis}.
+     *
+     * SDL refreshes every gamepad at once here. With many controllers, use
+     * {@link ControllerManager#getStates(ControllerState[])}, which does that only once.
+     */
+    public void poll() throws ControllerUnpluggedException {
+        ensureConnected();
+        JamepadEvents.Poll event = new JamepadEvents.Poll();
+        event.begin();
+        long start = System.nanoTime();
+        nativeUpdateGamepads();
+        long now = afterUpdate();
+        metrics.recordPoll(now - start);
+        event.controllerIndex = index;
+        event.commit();
+        serviceOutput(now);
+    }
+
+    /**
+     * The part of {@link #poll()} that follows SDL's gamepad update, for the manager when it
+     * already updated every gamepad at once. SDL_UpdateGamepads refreshes all of them, so
+     * calling it once per controller would make a frame cost grow with the square of the
+     * number of controllers.
+     *
+     * @throws ControllerUnpluggedException If the controller is not connected
+     */
+    void refresh() throws ControllerUnpluggedException {
+        ensureConnected();
+        serviceOutput(afterUpdate());
+    }
+
+    private long afterUpdate() {
+        inputTimestamp = nativeGetInputTimestamp(controllerInfo.getInstanceId());
+        axisHistoryCurrent = false;
+        SensorResampler resampler = sensorResampler;
+        if (resampler != null && supportsSensors) {
+            resampler.consume(nativeTakeSensorLog(controllerInfo.getInstanceId(), resampler.logTimes,
+                    resampler.logSensors, resampler.logData));
+        }
+        ComboDetector combos = comboDetector;
+        if (combos != null) {
+            combos.consume(nativeTakeInputLog(controllerInfo.getInstanceId(), combos.logTimes,
+                    combos.logInputs, combos.logValues));
+        }
+        if (publishing) {
+            publishState(true);
+        }
+        lastUpdateTime = System.nanoTime();
+        return lastUpdateTime;
+    }
+
+    private void publishState(boolean connected) {
+        long stamp = publishLock.writeLock();
+        try {
+            publishedConnected = connected;
+            if (connected) {
+                publishedButtons = nativeReadState(controllerPtr, publishedAxes);
+                publishedInputTimestamp = SdlClock.toNanoTime(inputTimestamp);
+            } else {
+                publishedButtons = 0;
+                Arrays.fill(publishedAxes, 0);
+                publishedInputTimestamp = 0;
+            }
+            publishedSequence++;
+        } finally {
+            publishLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Reads every button and axis as of the last poll in one native call.
+     *
+     * @param axes where to write the axis values, indexed by SDL value
+     * @return the held buttons, bit i for the button with SDL value i
+     * @throws ControllerUnpluggedException If the controller is not connected
+     */
+    int readInputState(float[] axes) throws ControllerUnpluggedException {
+        ensureConnected();
+        noteInputRead();
+        return nativeReadState(controllerPtr, axes);
+    }
+
+    private native int nativeReadState(long controllerPtr, float[] axes); /*
+        SDL_Gamepad *pad = jamepad_pad(controllerPtr);
+        for (int i = 0; i < SDL_GAMEPAD_AXIS_COUNT; i++) {
+            axes[i] = SDL_GetGamepadAxis(pad, (SDL_GamepadAxis) i) / 32767.0f;
+        }
+
+        jint buttons = 0;
+        for (int i = 0; i < SDL_GAMEPAD_BUTTON_COUNT; i++) {
+            if (SDL_GetGamepadButton(pad, (SDL_GamepadButton) i)) {
+                buttons |= 1 << i;
+            }
+        }
+        return buttons;
+    */
+
+    /**
+     * Copies the state published by the last {@link #poll()} into a snapshot. Safe to call from
+     * any thread, and never waits on SDL; it only retries if a poll is publishing right then.
+     *
+     * <p>Publishing starts with the first call, so the very first snapshot is empty and
+     * disconnected, and the next poll fills it in.
+     *
+     * @param snapshot the snapshot to fill, usually one kept per reader thread
+     * @return the snapshot passed in
+     */
+    public ControllerSnapshot readSnapshot(ControllerSnapshot snapshot) {
+        publishing = true;
+        snapshot.beginRead();
+
+        long stamp = publishLock.tryOptimisticRead();
+        copyPublished(snapshot);
+        if (!publishLock.validate(stamp)) {
+            stamp = publishLock.readLock();
             try {
-                oldTimer.cancel();
-            } catch (Throwable ignored) {
-                // ignore
+                copyPublished(snapshot);
+            } finally {
+                publishLock.unlockRead(stamp);
             }
-            hapticsTimer = null;
         }
+        return snapshot;
+    }
+
+    private void copyPublished(ControllerSnapshot snapshot) {
+        System.arraycopy(publishedAxes, 0, snapshot.axes, 0, publishedAxes.length);
+        snapshot.buttons = publishedButtons;
+        snapshot.connected = publishedConnected;
+        snapshot.inputTimestamp = publishedInputTimestamp;
+        snapshot.sequence = publishedSequence;
+    }
 
-        if (!isConnected()) {
+    /**
+     * Sends pending output changes if the flush interval has passed. Called on the thread that
+     * drives the controller, from {@link #poll()} and {@link ControllerManager#update()}.
+     */
+    void serviceOutput(long now) {
+        if (controllerPtr == 0) {
             return;
         }
+        if (rumbleMixer != null) {
+            rumbleMixer.tick(now);
+        }
+        if (output.isFlushDue(now) && output.hasPendingWrites(now)) {
+            flushOutput(now);
+        }
+    }
+
+    private boolean flushOutputIfDue(long now) {
+        if (!output.isFlushDue(now)) {
+            return true; // goes out with the next poll or update
+        }
+        return flushOutput(now);
+    }
+
+    /**
+     * Writes whatever differs from what the controller was last sent. On a DualSense the LED and
+     * both triggers share one effect report. Rumble always goes through SDL, which keeps track
+     * of its duration and skips the HID write when only the duration changes. A write that
+     * fails stays pending, so the next flush tries it again.
+     */
+    private boolean flushOutput(long now) {
+        boolean sent = false;
+        boolean rumble = false;
+        boolean success = true;
+
+        if (output.isRumbleDirty(ControllerOutput.MOTORS, now)) {
+            if (nativeDoVibration(controllerPtr, output.rumbleLow[ControllerOutput.MOTORS],
+                    output.rumbleHigh[ControllerOutput.MOTORS],
+                    output.rumbleDurationMillis(ControllerOutput.MOTORS, now))) {
+                output.rumbleSent(ControllerOutput.MOTORS);
+            } else {
+                success = false;
+            }
+            sent = rumble = true;
+        }
+        if (output.isRumbleDirty(ControllerOutput.TRIGGERS, now)) {
+            if (nativeDoTriggerVibration(controllerPtr, output.rumbleLow[ControllerOutput.TRIGGERS],
+                    output.rumbleHigh[ControllerOutput.TRIGGERS],
+                    output.rumbleDurationMillis(ControllerOutput.TRIGGERS, now))) {
+                output.rumbleSent(ControllerOutput.TRIGGERS);
+            } else {
+                success = false;
+            }
+            sent = rumble = true;
+        }
 
-        final Timer localTimer = new Timer(true); // daemon
-        hapticsTimer = localTimer;
-
-        localTimer.schedule(new TimerTask() {
-            @Override public void run() {
-                try {
-                    if (!isConnected()) {
-                        return; // If not connected anymore skip connect haptics
-                    }
-
-                    supportsHaptic = nativeConnectHaptics(IS_WINDOWS || IS_MAC, ControllerIndex.this);
-
-                    if (!supportsHaptic) {
-                        if (count == 0) {
-                            connectHaptics(10_000, count + 1);
-                        } else {
-                            System.out.println("Connect haptics failed: " + getLastNativeError());
-                        }
-                    }
-                } finally {
-                    // Always cancel our own timer
-                    try {
-                        localTimer.cancel();
-                    } catch (Throwable ignored) {
-                        // ignore
-                    }
-
-                    // Only clear the field if nobody replaced it in the meantime
-                    if (hapticsTimer == localTimer) {
-                        hapticsTimer = null;
-                    }
+        boolean triggers = output.areTriggersDirty();
+        boolean led = output.isLedDirty();
+        if (controllerInfo.isDualSense() && hasBasicDualSenseFeatures() && (triggers || led)) {
+            if (nativeSendEffects(controllerPtr, triggers, output.leftTrigger, output.rightTrigger,
+                    led, output.ledRed, output.ledGreen, output.ledBlue)) {
+                if (triggers) {
+                    output.triggersSent();
+                }
+                if (led) {
+                    output.ledSent(!triggers);
                 }
+            } else {
+                success = false;
+            }
+            sent = true;
+        } else if (led) {
+            if (nativeSetLedColor(controllerPtr, (byte) output.ledRed, (byte) output.ledGreen,
+                    (byte) output.ledBlue)) {
+                output.ledSent(true);
+            } else {
+                success = false;
             }
-        }, timeout);
+            sent = true;
+        }
+
+        if (!success) {
+            output.writeFailed();
+        }
+        if (sent) {
+            // Failed writes count too, so a retry waits out the flush interval
+            output.flushed(now);
+
+            JamepadEvents.OutputFlush event = new JamepadEvents.OutputFlush();
+            if (event.shouldCommit()) {
+                event.controllerIndex = index;
+                event.rumble = rumble;
+                event.led = led;
+                event.triggers = triggers;
+                event.commit();
+            }
+        }
+        return success;
     }
 
+    /**
+     * When the newest button or axis change that {@link #poll()} picked up happened, on the
+     * {@link System#nanoTime()} clock. This is when SDL received the report from the device,
+     * so {@code System.nanoTime() - getInputTimestampNanos()} is the age of the input. A
+     * {@link ControllerState} carries the same value in {@link ControllerState#inputTimestamp}.
+     *
+     * @return the time of the newest input change, or 0 if there was none since the
+     * controller connected
+     */
+    public long getInputTimestampNanos() {
+        return SdlClock.toNanoTime(inputTimestamp);
+    }
 
     /**
-     * Polls SDL manually.
-     * If you use the *Fast* getters below, you MUST call poll() first.
+     * Reads an axis as it was, or is expected to be, at a given instant rather than at the last
+     * {@link #poll()}. Use it to feed a fixed-step simulation or a frame with the stick position
+     * at its own tick time, which moves smoothly however irregularly the reports arrive.
+     *
+     * <p>Between the last few changes of the axis, the value is interpolated using the times
+     * SDL received them. After the newest change it stays put until the last poll, since SDL
+     * reports every change. Past the last poll, a stick that was still moving is extrapolated
+     * along its last movement for at most {@link Configuration#maxAxisExtrapolationMillis};
+     * one that had stopped keeps its value.
+     *
+     * <p>This reads what the last poll received, like the *Fast* getters.
+     *
+     * @param toCheck the axis to read
+     * @param nanoTime the instant to read the axis at, on the {@link System#nanoTime()} clock
+     * @return the axis value at that instant, -1 to 1 for sticks and 0 to 1 for triggers
+     * @throws ControllerUnpluggedException If the controller is not connected
      */
-    public void poll() throws ControllerUnpluggedException {
+    public float sampleAxisAt(ControllerAxis toCheck, long nanoTime) throws ControllerUnpluggedException {
         ensureConnected();
-        nativePoll(controllerPtr);
+        noteInputRead();
+        if (!axisHistoryCurrent) {
+            nativeReadAxisHistory(controllerInfo.getInstanceId(), axisHistory.times, axisHistory.values,
+                    axisHistory.counts);
+            axisHistory.filled(lastUpdateTime);
+            axisHistoryCurrent = true;
+        }
+        int axis = toCheck.getSdlValue();
+        if (axisHistory.counts[axis] == 0) {
+            // Not moved since connecting, so the current value holds at any time
+            return nativeCheckAxisNoUpdate(controllerPtr, axis) / AXIS_MAX_VAL;
+        }
+        return axisHistory.sample(axis, nanoTime);
     }
 
-    private native void nativePoll(long controllerPtr); /*
+    // Copies each axis ring oldest first into slices of AxisHistory.CAPACITY entries
+    private native void nativeReadAxisHistory(int instanceId, long[] times, short[] values, int[] counts); /*
+        JamepadDeviceClock *clock = jamepad_device_clock((SDL_JoystickID) instanceId, false);
+        for (int axis = 0; axis < SDL_GAMEPAD_AXIS_COUNT; axis++) {
+            if (clock == NULL) {
+                counts[axis] = 0;
+                continue;
+            }
+
+            const JamepadAxisHistory *history = &clock->axes[axis];
+            Uint32 count = history->written < JAMEPAD_AXIS_HISTORY ? history->written : JAMEPAD_AXIS_HISTORY;
+            Uint32 first = history->written - count;
+            for (Uint32 i = 0; i < count; i++) {
+                Uint32 slot = (first + i) % JAMEPAD_AXIS_HISTORY;
+                times[axis * JAMEPAD_AXIS_HISTORY + i] = (jlong) history->times[slot];
+                values[axis * JAMEPAD_AXIS_HISTORY + i] = history->values[slot];
+            }
+            counts[axis] = (jint) count;
+        }
+    */
+
+    /**
+     * The age of each input change at the moment the game first read it through a fast
+     * getter or a {@link ControllerState}. Use it to place {@link #poll()} within the frame.
+     *
+     * @return the input latency histogram of this controller
+     */
+    public LatencyHistogram getInputLatencyHistogram() {
+        return inputLatency;
+    }
+
+    /**
+     * Counts the current input change in the latency histogram, once.
+     */
+    void noteInputRead() {
+        if (inputTimestamp != measuredInputTimestamp) {
+            measuredInputTimestamp = inputTimestamp;
+            inputLatency.record(System.nanoTime() - SdlClock.toNanoTime(inputTimestamp));
+        }
+    }
+
+    /**
+     * @return how many output writes (rumble, LED or trigger reports) were sent to this
+     * controller
+     */
+    public long getOutputReportsSent() {
+        return output.getReportsSent();
+    }
+
+    /**
+     * @return how many rumble, LED and trigger requests were not sent, either because they
+     * changed nothing or because a newer request replaced them within one flush interval
+     */
+    public long getOutputWritesSuppressed() {
+        return output.getWritesSuppressed();
+    }
+
+    /**
+     * @return how many output flushes SDL reported a failed write for, including the ones
+     * sent later by {@link #poll()} or {@link ControllerManager#update()}, whose failure no
+     * caller gets to see
+     */
+    public long getOutputWriteFailures() {
+        return output.getWriteFailures();
+    }
+
+    private native void nativeUpdateGamepads(); /*
         SDL_UpdateGamepads();
     */
 
+    private native long nativeGetInputTimestamp(int instanceId); /*
+        JamepadDeviceClock *clock = jamepad_device_clock((SDL_JoystickID) instanceId, false);
+        return clock == NULL ? 0 : (jlong) clock->inputTimestamp;
+    */
+
+    /**
+     * Starts recording input event times, and coalescing axis events if the configuration
+     * asks for it. Called by the manager once SDL is up.
+     */
+    static void installInputClock(Configuration configuration) {
+        int threshold = Math.round(Math.max(0, Math.min(1, configuration.axisEventThreshold)) * AXIS_MAX_VAL);
+        long interval = TimeUnit.MILLISECONDS.toNanos(Math.max(0, configuration.axisEventMinIntervalMillis));
+        nativeInstallInputClock(true, threshold, interval);
+    }
+
+    /**
+     * Stops recording input event times. Called by the manager before SDL goes away.
+     */
+    static void removeInputClock() {
+        nativeInstallInputClock(false, 0, 0);
+    }
+
+    private static native void nativeInstallInputClock(boolean install, int axisThreshold, long axisInterval); /*
+        if (install) {
+            SDL_AddEventWatch(jamepad_input_watch, NULL);
+            jamepad_axis_threshold = axisThreshold;
+            jamepad_axis_interval = (Uint64) axisInterval;
+            if (axisThreshold > 0 && axisInterval > 0 && !jamepad_axis_filter_installed) {
+                if (!SDL_GetEventFilter(&jamepad_previous_filter, &jamepad_previous_filter_data)) {
+                    jamepad_previous_filter = NULL;
+                    jamepad_previous_filter_data = NULL;
+                }
+                SDL_SetEventFilter(jamepad_axis_filter, NULL);
+                jamepad_axis_filter_installed = true;
+            }
+        } else {
+            if (jamepad_axis_filter_installed) {
+                SDL_SetEventFilter(jamepad_previous_filter, jamepad_previous_filter_data);
+                jamepad_previous_filter = NULL;
+                jamepad_previous_filter_data = NULL;
+                jamepad_axis_filter_installed = false;
+            }
+            SDL_RemoveEventWatch(jamepad_input_watch, NULL);
+            jamepad_clear_device_clocks();
+        }
+    */
+
+    /**
+     * How many axis events of this controller were dropped since it connected, because they
+     * moved the axis less than {@link Configuration#axisEventThreshold}. Polled values are not
+     * affected; only event consumers such as {@link #sampleAxisAt} and the
+     * {@link ComboDetector} see fewer updates.
+     *
+     * @return the number of suppressed axis events
+     * @throws ControllerUnpluggedException If the controller is not connected
+     */
+    public long getSuppressedAxisEvents() throws ControllerUnpluggedException {
+        ensureConnected();
+        return nativeGetSuppressedAxisEvents(controllerInfo.getInstanceId());
+    }
+
+    private native long nativeGetSuppressedAxisEvents(int instanceId); /*
+        JamepadDeviceClock *clock = jamepad_device_clock((SDL_JoystickID) instanceId, false);
+        return clock == NULL ? 0 : (jlong) clock->axisEventsSuppressed;
+    */
+
+    static long getAxisEventsSuppressed() {
+        return nativeGetAxisEventsSuppressed();
+    }
+
+    private static native long nativeGetAxisEventsSuppressed(); /*
+        return (jlong) jamepad_axis_events_suppressed;
+    */
+
     /**
      * @return last error message logged by the native lib. Use this for debugging purposes.
      */
@@ -285,26 +1157,59 @@ public final class ControllerIndex {
         return env->NewStringUTF(SDL_GetError());
     */
 
-    private native long nativeConnectController(int index); /*
-        //SDL 3 opens gamepads by instance id, so map our slot onto the current device list.
-        int count = 0;
-        SDL_JoystickID *ids = SDL_GetGamepads(&count);
-        if (ids == NULL) {
+    private native long nativeConnectController(int instanceId); /*
+        if (instanceId == 0) {
             return 0;
         }
+        return (jlong)(intptr_t) SDL_OpenGamepad((SDL_JoystickID) instanceId);
+    */
 
-        jlong result = 0;
-        if (index >= 0 && index < count) {
-            result = (jlong)(intptr_t) SDL_OpenGamepad(ids[index]);
+    /**
+     * Recognizes taps, double taps, swipes, pinches and two-finger scrolls on the touchpad and
+     * reports them to the listener during {@link ControllerManager#update()}. Requires Sony
+     * controller features in the {@link Configuration}. The listener stays registered across
+     * reconnects.
+     *
+     * @param listener the listener, or null to stop recognizing gestures
+     */
+    public void setTouchpadGestureListener(TouchpadGestureListener listener) {
+        touchpadGestures = listener == null ? null : new TouchpadGestures(this, listener);
+    }
+
+    /**
+     * Takes one touchpad event drained by {@link ControllerManager#update()}.
+     */
+    void onTouchpadEvent(int type, int touchpad, int finger, float x, float y, long nanos) {
+        TouchpadGestures gestures = touchpadGestures;
+        if (gestures != null) {
+            gestures.onEvent(type, touchpad, finger, x, y, nanos);
+        }
+    }
+
+    private void connectTouchpads() {
+        int[] fingersPerTouchpad = new int[nativeGetNumTouchpads(controllerPtr)];
+        for (int i = 0; i < fingersPerTouchpad.length; i++) {
+            fingersPerTouchpad[i] = nativeGetNumTouchpadFingers(controllerPtr, i);
         }
+        touchpadState.reshape(fingersPerTouchpad);
+        supportsTouchpad = fingersPerTouchpad.length > 0;
+        if (touchpadGestures != null) {
+            touchpadGestures.reset();
+        }
+
+        fingerStates = new TouchState[supportsTouchpad ? fingersPerTouchpad[0] : 0];
+        for (int i = 0; i < fingerStates.length; i++) {
+            fingerStates[i] = new TouchState();
+        }
+    }
 
-        SDL_free(ids);
-        return result;
+    private native int nativeGetNumTouchpads(long controllerPtr); /*
+        return SDL_GetNumGamepadTouchpads(jamepad_pad(controllerPtr));
     */
 
-    private native boolean nativeIsTouchpadSupported(long controllerPtr); /*{
-        return SDL_GetNumGamepadTouchpads(jamepad_pad(controllerPtr)) > 0 ? JNI_TRUE : JNI_FALSE;
-    }*/
+    private native int nativeGetNumTouchpadFingers(long controllerPtr, int touchpad); /*
+        return SDL_GetNumGamepadTouchpadFingers(jamepad_pad(controllerPtr), touchpad);
+    */
 
     private static final int SENSOR_ACCEL = 1;
 
@@ -332,46 +1237,69 @@ public final class ControllerIndex {
     // The DualSense exposes its haptic motors as channels 3 and 4 of a 4-channel
     // 48kHz playback device. Callers hand us 3kHz stereo, and SDL 3's audio stream
     // does the resampling that SDL_AudioCVT used to do by hand.
-    static SDL_AudioDeviceID haptics_output = 0;
-    static SDL_AudioStream *haptics_stream = NULL;
-    static Uint8 *haptics_remix_buf = NULL;
-    static int haptics_remix_capacity = 0;
+    //
+    // Every controller gets its own channel, so several DualSense pads can play
+    // haptics at once. Nothing in SDL ties an audio endpoint to a joystick, and all
+    // DualSense endpoints carry the same name and no serial, so the only endpoint a
+    // channel can be sure of is the one no other channel holds. A channel is opened
+    // only while exactly one such endpoint is left: a pad plugged in after the others
+    // gets its own, and pads that show up together get none rather than each other's.
+    typedef struct JamepadHaptics {
+        SDL_AudioDeviceID device;   // the physical endpoint this channel claimed
+        SDL_AudioDeviceID output;   // the logical device opened on it
+        SDL_AudioStream *stream;
+        Uint8 *remixBuf;
+        int remixCapacity;
+        Uint64 drainsAt;            // SDL_GetTicksNS() when the queued audio runs out; 0 while idle
+        Uint32 underruns;           // packets that came after a still running stream played out
+        Uint32 overflows;           // packets dropped or trimmed by the latency bound
+        struct JamepadHaptics *next;
+    } JamepadHaptics;
+
+    // Haptics are connected from a timer thread, so the claim list is locked.
+    static JamepadHaptics *jamepad_haptics_channels = NULL;
+    static SDL_SpinLock jamepad_haptics_lock = 0;
+
+    static JamepadHaptics *jamepad_haptics(jlong hapticsPtr) {
+        return (JamepadHaptics *)(intptr_t) hapticsPtr;
+    }
 
-    static void jamepad_close_haptics() {
-        if (haptics_stream != NULL) {
-            SDL_DestroyAudioStream(haptics_stream);
-            haptics_stream = NULL;
-        }
-        if (haptics_output != 0) {
-            SDL_CloseAudioDevice(haptics_output);
-            haptics_output = 0;
-        }
-        if (haptics_remix_buf != NULL) {
-            SDL_free(haptics_remix_buf);
-            haptics_remix_buf = NULL;
-            haptics_remix_capacity = 0;
+    // Must be called with jamepad_haptics_lock held.
+    static bool jamepad_haptics_claimed(SDL_AudioDeviceID device) {
+        for (JamepadHaptics *it = jamepad_haptics_channels; it != NULL; it = it->next) {
+            if (it->device == device) {
+                return true;
+            }
         }
+        return false;
     }
-    */
 
-    private native boolean nativeEnableHaptics(); /*
-        //Nothing to preallocate any more; just make sure the audio subsystem came up.
-        return SDL_WasInit(SDL_INIT_AUDIO) != 0 ? JNI_TRUE : JNI_FALSE;
-    */
-
-    private native boolean nativeConnectHaptics(boolean isWindowsOrMac, Object instance); /*
-        if(haptics_output != 0) {
-            return JNI_TRUE; // already initialized
+    static void jamepad_close_haptics(JamepadHaptics *channel) {
+        if (channel == NULL) {
+            return;
         }
 
-        int count = 0;
-        SDL_AudioDeviceID *devices = SDL_GetAudioPlaybackDevices(&count);
-        if (devices == NULL) {
-            return JNI_FALSE;
+        SDL_LockSpinlock(&jamepad_haptics_lock);
+        for (JamepadHaptics **it = &jamepad_haptics_channels; *it != NULL; it = &(*it)->next) {
+            if (*it == channel) {
+                *it = channel->next;
+                break;
+            }
         }
+        SDL_UnlockSpinlock(&jamepad_haptics_lock);
 
-        const char* wanted = isWindowsOrMac ? "Wireless Controller" : "DualSense";
+        if (channel->stream != NULL) {
+            SDL_DestroyAudioStream(channel->stream);
+        }
+        if (channel->output != 0) {
+            SDL_CloseAudioDevice(channel->output);
+        }
+        SDL_free(channel->remixBuf);
+        SDL_free(channel);
+    }
 
+    // Opens the 4-channel device and binds a 3kHz stream to it.
+    static bool jamepad_open_haptics(JamepadHaptics *channel, const char *device_name) {
         SDL_AudioSpec deviceSpec;
         SDL_zero(deviceSpec);
         deviceSpec.format = SDL_AUDIO_S16LE;
@@ -384,80 +1312,241 @@ public final class ControllerIndex {
         sourceSpec.channels = 4;
         sourceSpec.freq = 3000;
 
-        jboolean result = JNI_FALSE;
+        SDL_AudioDeviceID opened = SDL_OpenAudioDevice(channel->device, &deviceSpec);
+        if (opened == 0) {
+            return false;
+        }
+
+        //If the device did not really open with four channels, SDL will downmix and
+        //the two haptic channels disappear into the speaker mix.
+        SDL_AudioSpec actual;
+        SDL_zero(actual);
+        if (SDL_GetAudioDeviceFormat(opened, &actual, NULL) && actual.channels != 4) {
+            printf("NATIVE METHOD: DualSense haptics device \"%s\" opened with %d channels "
+                   "instead of 4, haptic channels will be lost\n", device_name, actual.channels);
+        }
 
-        for (int i = 0; i < count; i++) {
-            const char* device_name = SDL_GetAudioDeviceName(devices[i]);
-            if (device_name == NULL || !strstr(device_name, wanted)) {
-                continue;
+        SDL_AudioStream *stream = SDL_CreateAudioStream(&sourceSpec, &deviceSpec);
+        if (stream == NULL) {
+            SDL_CloseAudioDevice(opened);
+            return false;
+        }
+
+        if (!SDL_BindAudioStream(opened, stream)) {
+            SDL_DestroyAudioStream(stream);
+            SDL_CloseAudioDevice(opened);
+            return false;
+        }
+
+        channel->output = opened;
+        channel->stream = stream;
+        return true;
+    }
+
+    // Bytes per millisecond of the 3kHz 4-channel 16-bit stream side.
+    #define JAMEPAD_HAPTICS_BYTES_PER_MS 24
+
+    // A producer that comes back this long after its audio ran out had paused, rather than
+    // fallen behind, so its next packet is no underrun.
+    #define JAMEPAD_HAPTICS_IDLE_NS 100000000
+
+    // The stream converts 3kHz to 48kHz, so every queued byte comes out as this many.
+    #define JAMEPAD_HAPTICS_RESAMPLE 16
+
+    // Reads and discards the oldest excess stream bytes. The stream is bound to the device,
+    // but SDL locks it, so pulling from the front here only races playback for who gets the
+    // next bytes. Stops early if the resampler holds back the tail it still needs.
+    static void jamepad_drop_haptics(JamepadHaptics *channel, int excess) {
+        Uint8 scratch[4096];
+        while (excess > 0) {
+            int wanted = excess * JAMEPAD_HAPTICS_RESAMPLE;
+            if (wanted > (int) sizeof(scratch)) {
+                wanted = (int) sizeof(scratch);
+            }
+            int got = SDL_GetAudioStreamData(channel->stream, scratch, wanted & ~7);
+            if (got <= 0) {
+                break;
             }
+            excess -= got / JAMEPAD_HAPTICS_RESAMPLE;
+        }
+    }
 
-            SDL_AudioDeviceID opened = SDL_OpenAudioDevice(devices[i], &deviceSpec);
-            if (opened == 0) {
-                continue;
+    // Queues 3kHz stereo S16LE, which the DualSense wants on channels 3 and 4 of a 4-channel
+    // stream, so every 4-byte stereo frame becomes an 8-byte frame with the speaker pair
+    // silenced. On the little-endian targets we build for that is one 64-bit store per frame.
+    //
+    // maxQueued and targetQueued are in stream bytes; maxQueued <= 0 means no limit.
+    // Returns the number of stereo bytes queued, 0 if the packet was dropped, -1 on error.
+    static int jamepad_queue_haptics(JamepadHaptics *channel, const Uint8 *pcm, int size,
+                                     int maxQueued, int targetQueued, bool trim) {
+        if (channel == NULL || channel->stream == NULL || pcm == NULL) {
+            return -1;
+        }
+
+        int frames = size / 4;
+        if (frames <= 0) {
+            return 0;
+        }
+
+        int queued = SDL_GetAudioStreamQueued(channel->stream);
+        if (queued < 0) {
+            return -1;
+        }
+        //Only a stream that was still going and ran out before the next packet came underran.
+        Uint64 now = SDL_GetTicksNS();
+        if (queued == 0 && channel->drainsAt != 0 && now - channel->drainsAt < JAMEPAD_HAPTICS_IDLE_NS) {
+            channel->underruns++;
+        }
+
+        if (maxQueued > 0) {
+            if (queued + frames * 8 > maxQueued) {
+                channel->overflows++;
+                if (!trim) {
+                    return 0;
+                }
+
+                //Play the newest audio sooner rather than after a backlog nobody asked for:
+                //drop just enough of the oldest queued audio that the backlog and this
+                //packet fit in the target, so what keeps playing stays continuous.
+                int keep = (targetQueued > 0 && targetQueued < maxQueued ? targetQueued : maxQueued) / 8;
+                if (keep <= 0) {
+                    return 0;
+                }
+                if (frames > keep) {
+                    pcm += (frames - keep) * 4;
+                    frames = keep;
+                }
+                jamepad_drop_haptics(channel, queued + frames * 8 - keep * 8);
             }
+        }
 
-            //If the device did not really open with four channels, SDL will downmix and
-            //the two haptic channels disappear into the speaker mix.
-            SDL_AudioSpec actual;
-            SDL_zero(actual);
-            if (SDL_GetAudioDeviceFormat(opened, &actual, NULL) && actual.channels != 4) {
-                printf("NATIVE METHOD: DualSense haptics device \"%s\" opened with %d channels "
-                       "instead of 4, haptic channels will be lost\n", device_name, actual.channels);
+        int remixed = frames * 8;
+        if (remixed > channel->remixCapacity) {
+            Uint8 *grown = (Uint8 *) SDL_realloc(channel->remixBuf, remixed);
+            if (grown == NULL) {
+                return -1;
             }
+            channel->remixBuf = grown;
+            channel->remixCapacity = remixed;
+        }
 
-            SDL_AudioStream *stream = SDL_CreateAudioStream(&sourceSpec, &deviceSpec);
-            if (stream == NULL) {
-                SDL_CloseAudioDevice(opened);
-                continue;
+        Uint8 *out = channel->remixBuf;
+        for (int i = 0; i < frames; i++) {
+            Uint32 frame;
+            SDL_memcpy(&frame, pcm + i * 4, 4);
+            Uint64 wide = ((Uint64) frame) << 32;
+            SDL_memcpy(out + i * 8, &wide, 8);
+        }
+
+        //SDL 3 resamples 3kHz -> 48kHz inside the stream.
+        if (!SDL_PutAudioStreamData(channel->stream, out, remixed)) {
+            return -1;
+        }
+        queued = SDL_GetAudioStreamQueued(channel->stream);
+        channel->drainsAt = now + (Uint64) (queued > 0 ? queued : remixed) * 1000000 / JAMEPAD_HAPTICS_BYTES_PER_MS;
+        return frames * 4;
+    }
+    */
+
+    private native boolean nativeEnableHaptics(); /*
+        //Nothing to preallocate any more; just make sure the audio subsystem came up.
+        return SDL_WasInit(SDL_INIT_AUDIO) != 0 ? JNI_TRUE : JNI_FALSE;
+    */
+
+    private native long nativeConnectHaptics(boolean isWindowsOrMac); /*
+        int count = 0;
+        SDL_AudioDeviceID *devices = SDL_GetAudioPlaybackDevices(&count);
+        if (devices == NULL) {
+            return 0;
+        }
+
+        const char* wanted = isWindowsOrMac ? "Wireless Controller" : "DualSense";
+        JamepadHaptics *channel = (JamepadHaptics *) SDL_calloc(1, sizeof(JamepadHaptics));
+        if (channel == NULL) {
+            SDL_free(devices);
+            return 0;
+        }
+
+        //Look for the endpoint and claim it in one go, so a second pad connecting at the
+        //same moment counts it as taken.
+        int unclaimed = 0;
+        SDL_LockSpinlock(&jamepad_haptics_lock);
+        for (int i = 0; i < count; i++) {
+            const char* device_name = SDL_GetAudioDeviceName(devices[i]);
+            if (device_name != NULL && strstr(device_name, wanted) && !jamepad_haptics_claimed(devices[i])) {
+                channel->device = devices[i];
+                unclaimed++;
             }
+        }
+        if (unclaimed == 1) {
+            channel->next = jamepad_haptics_channels;
+            jamepad_haptics_channels = channel;
+        }
+        SDL_UnlockSpinlock(&jamepad_haptics_lock);
+        SDL_free(devices);
 
-            if (!SDL_BindAudioStream(opened, stream)) {
-                SDL_DestroyAudioStream(stream);
-                SDL_CloseAudioDevice(opened);
-                continue;
+        if (unclaimed != 1) {
+            SDL_free(channel);
+            if (unclaimed == 0) {
+                SDL_SetError("No free DualSense audio endpoint");
+            } else {
+                SDL_SetError("%d free DualSense audio endpoints, cannot tell which one is this pad's", unclaimed);
             }
+            return 0;
+        }
 
-            haptics_output = opened;
-            haptics_stream = stream;
-            result = JNI_TRUE;
-            break;
+        if (!jamepad_open_haptics(channel, SDL_GetAudioDeviceName(channel->device))) {
+            jamepad_close_haptics(channel);
+            return 0;
         }
+        return (jlong)(intptr_t) channel;
+    */
 
-        SDL_free(devices);
-        return result;
+    private native void nativeCloseHaptics(long hapticsPtr); /*
+        jamepad_close_haptics(jamepad_haptics(hapticsPtr));
     */
 
     /**
      * Close the connection to this controller.
      */
     public void close() {
-        final Timer timer = hapticsTimer;
-        if (timer != null) {
-            try {
-                timer.cancel();
-            } catch (Throwable ignored) {
-                // ignore
+        final ScheduledFuture<?> task = hapticsTask;
+        if (task != null) {
+            task.cancel(false);
+            hapticsTask = null;
+        }
+        synchronized (hapticsLock) {
+            connectionGeneration++;
+            final long channel = hapticsPtr;
+            hapticsPtr = 0;
+            supportsHaptic = false;
+            // Closed under the lock, so readHapticsCounter never sees a freed channel
+            if (channel != 0) {
+                nativeCloseHaptics(channel);
             }
-            hapticsTimer = null;
         }
         if(controllerPtr != 0) {
             if(needToClearTriggerEffect){
                 // clear trigger effects
-                nativeSendAdaptiveTriggerEffects(controllerPtr, (byte) 0x05, new byte[10], 10, (byte) 0x05, new byte[10], 10);
+                nativeSendEffects(controllerPtr, true, TriggerEffect.OFF.block, TriggerEffect.OFF.block, false, 0, 0, 0);
             }
             nativeClose(controllerPtr);
             controllerPtr = 0;
         }
-        touchStates.clear();
+        touchpadState.reshape(new int[0]);
+        fingerStates = new TouchState[0];
+        controllerInfo = ControllerInfo.DISCONNECTED;
+        if (publishing) {
+            publishState(false);
+        }
     }
 
     private native void nativeClose(long controllerPtr); /*
         SDL_Gamepad* pad = jamepad_pad(controllerPtr);
         if(pad) {
+            jamepad_forget_device_clock(SDL_GetGamepadID(pad));
             SDL_CloseGamepad(pad);
         }
-        jamepad_close_haptics();
     */
 
     boolean isUsingSonyControllerFeatures() {
@@ -465,7 +1554,27 @@ public final class ControllerIndex {
     }
 
     public String getControllerGuid() {
-        return controllerGuid;
+        return controllerInfo.getGuid();
+    }
+
+    /**
+     * Returns the names, GUID and USB ids of the connected controller. They are read once
+     * when the controller connects, so the same instance comes back until the next hotplug.
+     *
+     * @return the device description of this controller
+     * @throws ControllerUnpluggedException If the controller is not connected
+     */
+    public ControllerInfo getControllerInfo() throws ControllerUnpluggedException {
+        ensureConnected();
+        return controllerInfo;
+    }
+
+    /**
+     * @return the SDL instance id of the connected device, or 0 while nothing is connected;
+     * SDL never hands out 0
+     */
+    int getInstanceIdOrZero() {
+        return controllerInfo.getInstanceId();
     }
 
     public boolean isSupportingTouchpadData() {
@@ -516,6 +1625,117 @@ public final class ControllerIndex {
                                             sensor == 2 ? SDL_SENSOR_GYRO : SDL_SENSOR_ACCEL);
     */
 
+    /**
+     * Returns the resampler that turns this controller's motion samples into a stream at a fixed
+     * rate, creating it on first use. There is one per controller; asking for a different rate
+     * changes it and drops the frames not read yet. It keeps working across reconnects, but
+     * only while {@link Configuration#useControllerMotionSensors} is set and the controller has
+     * motion sensors.
+     *
+     * @param rate the output rate in frames per second, such as 500
+     * @return the resampler of this controller
+     */
+    public SensorResampler getSensorResampler(float rate) {
+        if (sensorResampler == null) {
+            sensorResampler = new SensorResampler(rate);
+            if (supportsSensors) {
+                nativeSetSensorLog(controllerInfo.getInstanceId(), true);
+            }
+        } else if (rate != sensorResampler.getRate()) {
+            sensorResampler.setRate(rate);
+        }
+        return sensorResampler;
+    }
+
+    private native void nativeSetSensorLog(int instanceId, boolean enabled); /*
+        JamepadDeviceClock *clock = jamepad_device_clock((SDL_JoystickID) instanceId, enabled);
+        if (clock == NULL) {
+            return;
+        }
+        if (enabled && clock->sensorLog == NULL) {
+            clock->sensorLog = (JamepadSensorLog *) SDL_calloc(1, sizeof(JamepadSensorLog));
+        } else if (!enabled) {
+            SDL_free(clock->sensorLog);
+            clock->sensorLog = NULL;
+        }
+    */
+
+    // Moves everything logged since the last call into the arrays, which hold the whole log
+    private native int nativeTakeSensorLog(int instanceId, long[] times, int[] sensors, float[] data); /*
+        JamepadDeviceClock *clock = jamepad_device_clock((SDL_JoystickID) instanceId, false);
+        if (clock == NULL || clock->sensorLog == NULL) {
+            return 0;
+        }
+
+        JamepadSensorLog *log = clock->sensorLog;
+        Uint32 count = log->count;
+        for (Uint32 i = 0; i < count; i++) {
+            Uint32 slot = (log->first + i) % JAMEPAD_SENSOR_LOG;
+            times[i] = (jlong) log->times[slot];
+            sensors[i] = log->sensors[slot];
+            data[i * 3] = log->data[slot * 3];
+            data[i * 3 + 1] = log->data[slot * 3 + 1];
+            data[i * 3 + 2] = log->data[slot * 3 + 2];
+        }
+        log->first = 0;
+        log->count = 0;
+        return (jint) count;
+    */
+
+    /**
+     * Returns the detector that recognizes input sequences such as fighting game motions on
+     * this controller, creating it on first use. It keeps its sequences across reconnects.
+     *
+     * @return the combo detector of this controller
+     */
+    public ComboDetector getComboDetector() {
+        if (comboDetector == null) {
+            comboDetector = new ComboDetector(this);
+            if (controllerPtr != 0) {
+                nativeSetInputLog(controllerInfo.getInstanceId());
+            }
+        }
+        return comboDetector;
+    }
+
+    private native void nativeSetInputLog(int instanceId); /*
+        JamepadDeviceClock *clock = jamepad_device_clock((SDL_JoystickID) instanceId, true);
+        if (clock != NULL && clock->inputLog == NULL) {
+            clock->inputLog = (JamepadInputLog *) SDL_calloc(1, sizeof(JamepadInputLog));
+        }
+    */
+
+    // Moves everything logged since the last call into the arrays, which hold the whole log
+    private native int nativeTakeInputLog(int instanceId, long[] times, int[] inputs, short[] values); /*
+        JamepadDeviceClock *clock = jamepad_device_clock((SDL_JoystickID) instanceId, false);
+        if (clock == NULL || clock->inputLog == NULL) {
+            return 0;
+        }
+
+        JamepadInputLog *log = clock->inputLog;
+        Uint32 count = log->count;
+        for (Uint32 i = 0; i < count; i++) {
+            Uint32 slot = (log->first + i) % JAMEPAD_INPUT_LOG;
+            times[i] = (jlong) log->times[slot];
+            inputs[i] = log->inputs[slot];
+            values[i] = log->values[slot];
+        }
+        log->first = 0;
+        log->count = 0;
+        return (jint) count;
+    */
+
+    /**
+     * Whether this controller has its own haptics channel, the DualSense audio endpoint that
+     * {@link #sendHapticFeedbackAudio(ByteBuffer)} and friends play on.
+     * <p>
+     * SDL cannot tell which DualSense an audio endpoint belongs to, so the channel is only
+     * opened when there is no doubt: when the endpoint appears, every other DualSense already
+     * holds its own. DualSense pads that are plugged in together, or that were all connected
+     * when the manager started, get no haptics; plug them in one after the other instead.
+     *
+     * @return true if haptic feedback audio reaches this controller
+     */
     public boolean isSupportingHaptics() { return supportsHaptic; }
 
     /**
@@ -528,9 +1748,10 @@ public final class ControllerIndex {
     }
 
     /**
-     * Close and reconnect to the native gamepad at the index associated with this ControllerIndex object.
-     * This will refresh the gamepad represented here. This should be called if something is plugged
-     * in or unplugged.
+     * Close and reconnect to the native gamepad held in this slot. This will refresh the gamepad
+     * represented here. There is no need to call this on hotplug: {@link ControllerManager#update()}
+     * opens new devices in free slots and empties the slots of devices that went away, leaving
+     * every other slot alone.
      *
      * @return whether or not the controller could successfully reconnect.
      */
@@ -573,7 +1794,7 @@ public final class ControllerIndex {
      */
     public boolean canVibrate() throws ControllerUnpluggedException {
         ensureConnected();
-        return nativeCanVibrate(controllerPtr);
+        return supportsRumble;
     }
 
     private native boolean nativeCanVibrate(long controllerPtr); /*
@@ -590,12 +1811,20 @@ public final class ControllerIndex {
 
     /**
      * Vibrate the controller using the new rumble API
-     * Each call to this function cancels any previous rumble effect, and calling it with 0 intensity stops any rumbling.
+     * Each call to this function replaces any previous rumble effect, including when it ends, and calling it with 0
+     * intensity stops any rumbling.
      *
      * This will return false if the controller doesn't support vibration or if SDL was unable to start
      * vibration (maybe the controller doesn't support left/right vibration, maybe it was unplugged in the
      * middle of trying, etc...)
      *
+     * A call that repeats the current rumble exactly is skipped, one that only moves its end
+     * later is sent shortly before the old end, and a change within
+     * {@link Configuration#outputFlushIntervalMillis} of the previous write is sent by the next
+     * {@link #poll()} or {@link ControllerManager#update()}. In those cases this returns true,
+     * which only says the controller can rumble; failures of the later write are counted by
+     * {@link #getOutputWriteFailures()}.
+     *
      * @param leftMagnitude The intensity of the left rumble motor (this should be between 0 and 1)
      * @param rightMagnitude The intensity of the right rumble motor (this should be between 0 and 1)
      * @return Whether or not the controller was able to be vibrated (i.e. if haptics are supported)
@@ -611,7 +1840,90 @@ public final class ControllerIndex {
             throw new IllegalArgumentException("The passed values are not in the range 0 to 1!");
         }
 
-        return nativeDoVibration(controllerPtr, (int) (65535 * leftMagnitude), (int) (65535 * rightMagnitude), duration_ms);
+        if (!supportsRumble) {
+            return false;
+        }
+
+        long now = System.nanoTime();
+        output.requestRumble(ControllerOutput.MOTORS, (int) (65535 * leftMagnitude), (int) (65535 * rightMagnitude),
+                duration_ms == 0 ? Long.MAX_VALUE : now + duration_ms * 1_000_000L, now);
+        return flushOutputIfDue(now);
+    }
+
+    /**
+     * @return true if the controller has rumble motors in its triggers, such as Xbox One and
+     * Series controllers
+     * @throws ControllerUnpluggedException If the controller is not connected
+     */
+    public boolean canVibrateTriggers() throws ControllerUnpluggedException {
+        ensureConnected();
+        return supportsTriggerRumble;
+    }
+
+    private native boolean nativeCanVibrateTriggers(long controllerPtr); /*
+        SDL_PropertiesID props = SDL_GetGamepadProperties(jamepad_pad(controllerPtr));
+        return SDL_GetBooleanProperty(props, SDL_PROP_GAMEPAD_CAP_TRIGGER_RUMBLE_BOOLEAN, false) ? JNI_TRUE : JNI_FALSE;
+    */
+
+    private native boolean nativeDoTriggerVibration(long controllerPtr, int leftMagnitude, int rightMagnitude, int duration_ms); /*
+        return SDL_RumbleGamepadTriggers(jamepad_pad(controllerPtr),
+                                         (Uint16) leftMagnitude, (Uint16) rightMagnitude,
+                                         (Uint32) duration_ms) ? JNI_TRUE : JNI_FALSE;
+    */
+
+    /**
+     * Vibrate the motors in the triggers. Works like {@link #doVibration}, including the
+     * coalescing of repeated calls, and replaces the previous trigger rumble.
+     *
+     * @param leftMagnitude The intensity of the left trigger motor (this should be between 0 and 1)
+     * @param rightMagnitude The intensity of the right trigger motor (this should be between 0 and 1)
+     * @param duration_ms How long to rumble, 0 meaning until stopped
+     * @return false if the controller has no trigger motors or SDL could not start them
+     * @throws ControllerUnpluggedException If the controller is not connected
+     */
+    public boolean doTriggerVibration(float leftMagnitude, float rightMagnitude, int duration_ms) throws ControllerUnpluggedException {
+        ensureConnected();
+
+        boolean leftInRange = leftMagnitude >= 0 && leftMagnitude <= 1;
+        boolean rightInRange = rightMagnitude >= 0 && rightMagnitude <= 1;
+        if(!(leftInRange && rightInRange)) {
+            throw new IllegalArgumentException("The passed values are not in the range 0 to 1!");
+        }
+
+        if (!supportsTriggerRumble) {
+            return false;
+        }
+
+        long now = System.nanoTime();
+        output.requestRumble(ControllerOutput.TRIGGERS, (int) (65535 * leftMagnitude), (int) (65535 * rightMagnitude),
+                duration_ms == 0 ? Long.MAX_VALUE : now + duration_ms * 1_000_000L, now);
+        return flushOutputIfDue(now);
+    }
+
+    /**
+     * Returns the rumble mixer of this controller, creating it on first use. The mixer stays
+     * with this index across reconnects.
+     *
+     * @return the rumble mixer of this controller
+     */
+    public RumbleMixer getRumbleMixer() {
+        if (rumbleMixer == null) {
+            rumbleMixer = new RumbleMixer(this);
+        }
+        return rumbleMixer;
+    }
+
+    /**
+     * Takes one tick of {@link RumbleMixer} output. Magnitudes are 0 to 65535; the flush that
+     * follows in {@link #serviceOutput} sends whatever changed.
+     */
+    void mixRumble(int low, int high, int leftTrigger, int rightTrigger, long untilNanos, long now) {
+        if (supportsRumble) {
+            output.requestRumble(ControllerOutput.MOTORS, low, high, untilNanos, now);
+        }
+        if (supportsTriggerRumble) {
+            output.requestRumble(ControllerOutput.TRIGGERS, leftTrigger, rightTrigger, untilNanos, now);
+        }
     }
 
     /**
@@ -621,7 +1933,7 @@ public final class ControllerIndex {
      */
     public boolean isSupportingLedColor() throws ControllerUnpluggedException {
         ensureConnected();
-        return nativeIsSupportingLedColor(controllerPtr);
+        return supportsLed;
     }
 
     private native boolean nativeIsSupportingLedColor(long controllerPtr); /*
@@ -632,6 +1944,9 @@ public final class ControllerIndex {
     /**
      * Sets the color of the controller RGB LED (e.g. the light bar of a DualSense or DualShock 4).
      * Calling this on a controller without an RGB LED has no effect and returns false.
+     * Setting the colour the LED already has sends nothing, and a change within
+     * {@link Configuration#outputFlushIntervalMillis} of the previous write is sent by the next
+     * {@link #poll()} or {@link ControllerManager#update()}.
      *
      * @param red   the red intensity (0 to 255, passed as an unsigned byte)
      * @param green the green intensity (0 to 255, passed as an unsigned byte)
@@ -641,7 +1956,12 @@ public final class ControllerIndex {
      */
     public boolean setLedColor(byte red, byte green, byte blue) throws ControllerUnpluggedException {
         ensureConnected();
-        return nativeSetLedColor(controllerPtr, red, green, blue);
+        if (!supportsLed) {
+            return false;
+        }
+
+        output.requestLed(red & 0xFF, green & 0xFF, blue & 0xFF);
+        return flushOutputIfDue(System.nanoTime());
     }
 
     private native boolean nativeSetLedColor(long controllerPtr, byte red, byte green, byte blue); /*
@@ -745,14 +2065,7 @@ public final class ControllerIndex {
      */
     public String getName() throws ControllerUnpluggedException {
         ensureConnected();
-
-        String controllerName = nativeGetName(controllerPtr);
-
-        //Return a descriptive string instead of null if the attached controller does not have a name
-        if(controllerName == null) {
-            return "Unnamed Controller";
-        }
-        return controllerName;
+        return controllerInfo.getName();
     }
 
     private native String nativeGetName(long controllerPtr); /*
@@ -769,7 +2082,7 @@ public final class ControllerIndex {
      */
     public int getDeviceInstanceID() throws ControllerUnpluggedException {
         ensureConnected();
-        return nativeGetDeviceInstanceID(controllerPtr);
+        return controllerInfo.getInstanceId();
     }
 
     private native int nativeGetDeviceInstanceID(long controllerPtr); /*
@@ -803,23 +2116,80 @@ public final class ControllerIndex {
     */
 
     /**
+     * Returns the power state as last reported, without asking the device. It is read when the
+     * controller connects and kept up to date by {@link ControllerManager#update()}, see
+     * {@link Configuration#powerSampleIntervalMillis}, so it is cheap enough for every frame.
+     * To be told about changes instead, use {@link ControllerManager#setPowerListener}.
+     *
      * @return current power state of the game controller, see {@link ControllerPowerLevel} enum values
      * @throws ControllerUnpluggedException If the controller is not connected
      */
     public ControllerPowerLevel getPowerLevel() throws ControllerUnpluggedException {
         ensureConnected();
-        return ControllerPowerLevel.fromSdlValue(nativeGetPowerInfo(controllerPtr) >> 8);
+        return powerLevel;
     }
 
     /**
-     * Returns the remaining battery charge as a percentage.
+     * Returns the remaining battery charge as a percentage, as last reported; see
+     * {@link #getPowerLevel()}.
      *
      * @return the battery charge between 0 and 100, or -1 if the controller cannot report it
      * @throws ControllerUnpluggedException If the controller is not connected
      */
     public int getBatteryPercentage() throws ControllerUnpluggedException {
         ensureConnected();
-        return (byte) (nativeGetPowerInfo(controllerPtr) & 0xFF);
+        return batteryPercent;
+    }
+
+    /**
+     * @return whether the periodic power check of this controller is due
+     */
+    boolean isPowerSampleDue(long now) {
+        return controllerPtr != 0 && now - nextPowerSample >= 0;
+    }
+
+    /**
+     * Asks the device for its power state. Called by the manager.
+     */
+    void samplePower(long now, ControllerPowerListener listener) {
+        int power = nativeGetPowerInfo(controllerPtr);
+        updatePower(power >> 8, (byte) (power & 0xFF), now, listener);
+    }
+
+    /**
+     * Takes a power state from a battery event or a sample, and tells the listener what
+     * changed.
+     */
+    void updatePower(int state, int percent, long now, ControllerPowerListener listener) {
+        nextPowerSample = now + powerSampleIntervalNanos;
+        ControllerPowerLevel level = ControllerPowerLevel.fromSdlValue(state);
+        if (percent < 0 || percent > 100) {
+            percent = -1;
+        }
+        if (level == powerLevel && percent == batteryPercent) {
+            return;
+        }
+
+        ControllerPowerLevel previous = powerLevel;
+        boolean low = isBatteryLow(level, percent);
+        boolean becameLow = low && !batteryLow;
+        powerLevel = level;
+        batteryPercent = percent;
+        batteryLow = low;
+        if (listener != null) {
+            listener.onPowerChanged(this, level, percent);
+            boolean charging = level == ControllerPowerLevel.POWER_CHARGING;
+            if (charging != (previous == ControllerPowerLevel.POWER_CHARGING)) {
+                listener.onChargingChanged(this, charging);
+            }
+            if (becameLow) {
+                listener.onBatteryLow(this, percent);
+            }
+        }
+    }
+
+    private boolean isBatteryLow(ControllerPowerLevel level, int percent) {
+        return level == ControllerPowerLevel.POWER_ON_BATTERY && percent >= 0 && percent <= lowBatteryPercent;
     }
 
     /**
@@ -840,40 +2210,67 @@ public final class ControllerIndex {
     /**
      * To use this function Sony controller features must be enabled in configuration of the
      * {@link com.studiohartman.jamepad.ControllerManager}.
-     * @param finger the index of the finger of interest
+     * Like {@link #getTouchpadState()}, this reads what the last {@link #poll()} or
+     * {@link ControllerManager#update()} picked up.
+     * @param finger the index of the finger of interest on the first touchpad
      * @return a TouchState object containing the touch information of the finger.
      * If the operation was not successful e.g. because the controller doesn't have
      * a touchpad then a default TouchState object is returned.
      * @throws ControllerUnpluggedException If the controller is not connected
      */
     public TouchState getTouchpadFinger(int finger) throws ControllerUnpluggedException {
-        ensureConnected();
+        getTouchpadState();
+        return fingerState(finger);
+    }
 
-        TouchState touchState = touchStates.get(finger);
-        if(touchState == null){
-            touchState = new TouchState();
-            touchStates.put(finger, touchState);
-        }
-        if(!supportsTouchpad){
-            return touchState;
+    /**
+     * Reads every finger of every touchpad in one go. To use this function Sony controller
+     * features must be enabled in configuration of the
+     * {@link com.studiohartman.jamepad.ControllerManager}.
+     * <p>
+     * Unlike most getters without the <i>Fast</i> suffix, this does not update SDL first: it
+     * reads what the last {@link #poll()} or {@link ControllerManager#update()} picked up, so
+     * reading the touchpad costs no extra device update per call. It is the same as
+     * {@link #getTouchpadStateFast()}.
+     * @return the touchpad state of this controller, which is the same instance every time; it
+     * has no touchpads if the controller doesn't have one
+     * @throws ControllerUnpluggedException If the controller is not connected
+     */
+    public TouchpadState getTouchpadState() throws ControllerUnpluggedException {
+        ensureConnected();
+        if (supportsTouchpad) {
+            nativeReadTouchpads(controllerPtr, touchpadState.fingers, touchpadState.fingers.length);
         }
-        nativeGetTouchpadFinger(controllerPtr, finger, touchState);
+        return touchpadState;
+    }
 
+    private TouchState fingerState(int finger) {
+        if (finger < 0 || finger >= fingerStates.length) {
+            return noFinger;
+        }
+        TouchState touchState = fingerStates[finger];
+        touchpadState.copyTo(0, finger, touchState);
         return touchState;
     }
 
-    private native void nativeGetTouchpadFinger(long controllerPtr, int finger, Object touchState); /*
-        SDL_UpdateGamepads();
-
-        bool down = false;
-        float x, y, pressure;
-        if(SDL_GetGamepadTouchpadFinger(jamepad_pad(controllerPtr), 0, finger, &down, &x, &y, &pressure)) {
-            jclass clazz = env->GetObjectClass(touchState);
-            jmethodID update_method = env->GetMethodID(clazz, "update", "(ZFF)V");
-
-            env->CallVoidMethod(touchState, update_method, down ? JNI_TRUE : JNI_FALSE, x, y);
+    private native void nativeReadTouchpads(long controllerPtr, float[] fingers, int length); /*
+        // Same order as TouchpadState: touchpad after touchpad, down/x/y/pressure per finger
+        SDL_Gamepad *pad = jamepad_pad(controllerPtr);
+        int slot = 0;
+        int touchpads = SDL_GetNumGamepadTouchpads(pad);
+        for (int t = 0; t < touchpads; t++) {
+            int count = SDL_GetNumGamepadTouchpadFingers(pad, t);
+            for (int f = 0; f < count && slot + 4 <= length; f++, slot += 4) {
+                bool down = false;
+                float x = 0.0f, y = 0.0f, pressure = 0.0f;
+                SDL_GetGamepadTouchpadFinger(pad, t, f, &down, &x, &y, &pressure);
+                fingers[slot] = down ? 1.0f : 0.0f;
+                fingers[slot + 1] = x;
+                fingers[slot + 2] = y;
+                fingers[slot + 3] = pressure;
+            }
         }
-     */
+    */
 
     /**
      * To use this function Sony controller features must be enabled in configuration of the
@@ -885,6 +2282,7 @@ public final class ControllerIndex {
      */
     public SensorState getSensorState() throws ControllerUnpluggedException {
         ensureConnected();
+        metrics.sensorReads++;
         if(!supportsSensors) {
             return sensorState;
         }
@@ -901,6 +2299,9 @@ public final class ControllerIndex {
     /**
      * Send adaptive trigger effects to the controller.
      * If the controller is not a DualSense controller calling this function doesn't have any effect.
+     * Sending the effects the triggers already have sends nothing, and a change within
+     * {@link Configuration#outputFlushIntervalMillis} of the previous write is sent by the next
+     * {@link #poll()} or {@link ControllerManager#update()}. Data beyond 10 bytes is ignored.
      * @param leftTriggerEffect the left trigger effect type
      * @param triggerDataLeft the left trigger adaptive data
      * @param rightTriggerEffect the right trigger effect type
@@ -911,12 +2312,45 @@ public final class ControllerIndex {
     public boolean sendAdaptiveTriggerEffects(byte leftTriggerEffect, byte[] triggerDataLeft, byte rightTriggerEffect, byte[] triggerDataRight) throws ControllerUnpluggedException {
         ensureConnected();
 
-        if(!hasBasicDualSenseFeatures() || !nativeIsDualSenseController(controllerPtr)) {
+        if(!hasBasicDualSenseFeatures() || !controllerInfo.isDualSense()) {
+            return false;
+        }
+
+        needToClearTriggerEffect = true;
+        fillTriggerBlock(leftTriggerBlock, leftTriggerEffect, triggerDataLeft);
+        fillTriggerBlock(rightTriggerBlock, rightTriggerEffect, triggerDataRight);
+        output.requestTriggers(leftTriggerBlock, rightTriggerBlock);
+        return flushOutputIfDue(System.nanoTime());
+    }
+
+    /**
+     * Send adaptive trigger effects to the controller.
+     * If the controller is not a DualSense controller calling this function doesn't have any effect.
+     * Sending the effects the triggers already have sends nothing, and a change within
+     * {@link Configuration#outputFlushIntervalMillis} of the previous write is sent by the next
+     * {@link #poll()} or {@link ControllerManager#update()}. This allocates nothing.
+     * @param left the left trigger effect
+     * @param right the right trigger effect
+     * @return true if the effects were sent successfully or are waiting to be sent, false otherwise
+     * @throws ControllerUnpluggedException If the controller is not connected
+     */
+    public boolean sendAdaptiveTriggerEffects(TriggerEffect left, TriggerEffect right) throws ControllerUnpluggedException {
+        ensureConnected();
+
+        if(!hasBasicDualSenseFeatures() || !controllerInfo.isDualSense()) {
             return false;
         }
 
         needToClearTriggerEffect = true;
-        return nativeSendAdaptiveTriggerEffects(controllerPtr, leftTriggerEffect, triggerDataLeft, triggerDataLeft.length, rightTriggerEffect, triggerDataRight, triggerDataRight.length);
+        output.requestTriggers(left.block, right.block);
+        return flushOutputIfDue(System.nanoTime());
+    }
+
+    private static void fillTriggerBlock(byte[] block, byte effect, byte[] data) {
+        block[0] = effect;
+        int length = Math.min(data.length, block.length - 1);
+        System.arraycopy(data, 0, block, 1, length);
+        Arrays.fill(block, 1 + length, block.length, (byte) 0);
     }
 
     private native boolean nativeIsDualSenseController(long controllerPtr); /*
@@ -960,79 +2394,234 @@ public final class ControllerIndex {
     } DS5EffectsState_t;
      */
 
-    private native boolean nativeSendAdaptiveTriggerEffects(long controllerPtr,
-                                                            byte leftTriggerEffect,
-                                                            byte[] triggerDataLeft,
-                                                            int leftTriggerDataSize,
-                                                            byte rightTriggerEffect,
-                                                            byte[] triggerDataRight,
-                                                            int rightTriggerDataSize); /*
-        SDL_Gamepad* pad = jamepad_pad(controllerPtr);
-
+    private native boolean nativeSendEffects(long controllerPtr, boolean triggers, byte[] leftTrigger,
+                                             byte[] rightTrigger, boolean led, int red, int green, int blue); /*
         DS5EffectsState_t state;
         SDL_zero(state);
 
-        state.ucEnableBits1 |= (0x04 | 0x08); // Modify right and left trigger effect respectively
-        state.rgucLeftTriggerEffect[0] = leftTriggerEffect;
-        SDL_memcpy(state.rgucLeftTriggerEffect + 1, triggerDataLeft, leftTriggerDataSize);
-        state.rgucRightTriggerEffect[0] = rightTriggerEffect;
-        SDL_memcpy(state.rgucRightTriggerEffect + 1, triggerDataRight, rightTriggerDataSize);
+        if (triggers) {
+            state.ucEnableBits1 |= (0x04 | 0x08); // Modify right and left trigger effect respectively
+            SDL_memcpy(state.rgucLeftTriggerEffect, leftTrigger, sizeof(state.rgucLeftTriggerEffect));
+            SDL_memcpy(state.rgucRightTriggerEffect, rightTrigger, sizeof(state.rgucRightTriggerEffect));
+        }
+        if (led) {
+            state.ucEnableBits2 |= 0x04; // Modify the light bar colour
+            state.ucLedRed = (Uint8) red;
+            state.ucLedGreen = (Uint8) green;
+            state.ucLedBlue = (Uint8) blue;
+        }
 
-        return SDL_SendGamepadEffect(pad, &state, sizeof(state)) ? JNI_TRUE : JNI_FALSE;
+        return SDL_SendGamepadEffect(jamepad_pad(controllerPtr), &state, sizeof(state)) ? JNI_TRUE : JNI_FALSE;
     */
 
     /**
      * Send haptic feedback audio data to the controller.
      * Audio Data must be in 3KHZ, 2 channel, 16-bit Little-Endian PCM format.
      * If the controller is not a DualSense controller calling this function doesn't have any effect.
+     * The queue limit set with {@link #setHapticFeedbackLatency} applies here too.
      * @param hapticFeedback the haptic feedback audio data
      * @return true if the haptic feedback audio data was sent successfully, false otherwise
      * @throws ControllerUnpluggedException If the controller is not connected
      */
     public boolean sendHapticFeedbackAudioPacket(byte[] hapticFeedback) throws ControllerUnpluggedException {
-        ensureConnected();
+        if(!canQueueHaptics()) {
+            return false;
+        }
+
+        synchronized (hapticsLock) {
+            return nativeSendHapticFeedback(hapticsPtr, hapticFeedback, hapticFeedback.length,
+                    hapticsMaxLatencyMillis, hapticsTargetLatencyMillis,
+                    hapticsOverflowPolicy == Configuration.HapticsOverflowPolicy.TRIM_OLDEST) > 0;
+        }
+    }
+
+    /**
+     * The connection check of the haptic audio methods. Those may run on any thread, so this
+     * goes by the device description published at connect instead of asking SDL.
+     */
+    private boolean canQueueHaptics() throws ControllerUnpluggedException {
+        ControllerInfo info = controllerInfo;
+        if (info == ControllerInfo.DISCONNECTED) {
+            throw new ControllerUnpluggedException("Controller at index " + index + " is not connected!");
+        }
+        return hasBasicDualSenseFeatures() && info.isDualSense();
+    }
+
+    private native int nativeSendHapticFeedback(long hapticsPtr, byte[] hapticFeedback, int hapticFeedbackSize,
+                                                int maxLatencyMillis, int targetLatencyMillis, boolean trim); /*
+        return jamepad_queue_haptics(jamepad_haptics(hapticsPtr), (const Uint8 *) hapticFeedback, hapticFeedbackSize,
+                                     maxLatencyMillis * JAMEPAD_HAPTICS_BYTES_PER_MS,
+                                     targetLatencyMillis * JAMEPAD_HAPTICS_BYTES_PER_MS, trim);
+    */
+
+    /**
+     * Queue haptic feedback audio straight from a direct buffer, without copying it into a
+     * Java array first. The audio must be 3KHZ, 2 channel, 16-bit Little-Endian PCM, read from
+     * the buffer's position to its limit. The position is moved to the limit whether the audio
+     * was queued or dropped, so the buffer can be refilled right away.
+     *
+     * <p>The queue is bounded by {@link #setHapticFeedbackLatency}; use
+     * {@link #getHapticFeedbackQueuedMillis()} to pace a producer.
+     *
+     * @param pcm a direct buffer holding the audio
+     * @return true if the audio, or its newest part, was queued; false if it was dropped or
+     * this controller has no haptics
+     * @throws ControllerUnpluggedException If the controller is not connected
+     * @throws IllegalArgumentException If the buffer is not direct
+     */
+    public boolean sendHapticFeedbackAudio(ByteBuffer pcm) throws ControllerUnpluggedException {
+        return queueHapticFeedback(pcm, pcm.position(), pcm.remaining());
+    }
+
+    /**
+     * Same as {@link #sendHapticFeedbackAudio(ByteBuffer)} for interleaved left/right samples
+     * in a direct {@link ShortBuffer}. The buffer must use native byte order.
+     *
+     * @param pcm a direct buffer holding the samples
+     * @return true if the audio, or its newest part, was queued; false if it was dropped or
+     * this controller has no haptics
+     * @throws ControllerUnpluggedException If the controller is not connected
+     * @throws IllegalArgumentException If the buffer is not direct
+     */
+    public boolean sendHapticFeedbackAudio(ShortBuffer pcm) throws ControllerUnpluggedException {
+        return queueHapticFeedback(pcm, pcm.position() * 2, pcm.remaining() * 2);
+    }
 
-        if(!hasBasicDualSenseFeatures() || !nativeIsDualSenseController(controllerPtr)) {
+    private boolean queueHapticFeedback(Buffer pcm, int byteOffset, int byteLength) throws ControllerUnpluggedException {
+        if (!pcm.isDirect()) {
+            throw new IllegalArgumentException("Haptic feedback audio must be in a direct buffer");
+        }
+
+        if(!canQueueHaptics()) {
             return false;
         }
 
-        return nativeSendHapticFeedback(hapticFeedback, hapticFeedback.length);
+        int queued;
+        synchronized (hapticsLock) {
+            queued = nativeQueueHapticFeedback(hapticsPtr, pcm, byteOffset, byteLength,
+                    hapticsMaxLatencyMillis, hapticsTargetLatencyMillis,
+                    hapticsOverflowPolicy == Configuration.HapticsOverflowPolicy.TRIM_OLDEST);
+        }
+        pcm.position(pcm.limit());
+        return queued > 0;
+    }
+
+    private native int nativeQueueHapticFeedback(long hapticsPtr, Buffer pcm, int byteOffset, int byteLength,
+                                                 int maxLatencyMillis, int targetLatencyMillis, boolean trim); /*
+        return jamepad_queue_haptics(jamepad_haptics(hapticsPtr), pcm == NULL ? NULL : pcm + byteOffset, byteLength,
+                                     maxLatencyMillis * JAMEPAD_HAPTICS_BYTES_PER_MS,
+                                     targetLatencyMillis * JAMEPAD_HAPTICS_BYTES_PER_MS, trim);
+    */
+
+    /**
+     * Tells the haptics channel that its producer stopped on purpose, so the queue running dry
+     * now and the audio that eventually follows are no underrun. Any thread.
+     */
+    void hapticFeedbackIdle() {
+        synchronized (hapticsLock) {
+            if (hapticsPtr != 0) {
+                nativeHapticsIdle(hapticsPtr);
+            }
+        }
     }
 
-    private native boolean nativeSendHapticFeedback(byte[] hapticFeedback, int hapticFeedbackSize); /*
-        if(haptics_stream == NULL) {
-            return JNI_FALSE;
+    private native void nativeHapticsIdle(long hapticsPtr); /*
+        JamepadHaptics *channel = jamepad_haptics(hapticsPtr);
+        if (channel != NULL) {
+            channel->drainsAt = 0;
         }
+    */
 
-        //Input is 3kHz stereo; the DualSense wants the haptics on channels 3 and 4 of a
-        //4-channel stream, so every 4-byte frame becomes 8 bytes with the speaker pair silenced.
-        int remixed = hapticFeedbackSize * 2;
-        if (remixed > haptics_remix_capacity) {
-            Uint8 *grown = (Uint8 *) SDL_realloc(haptics_remix_buf, remixed);
-            if (grown == NULL) {
-                return JNI_FALSE;
+    static final int HAPTICS_QUEUED_MILLIS = 0;
+
+    static final int HAPTICS_UNDERRUNS = 1;
+
+    static final int HAPTICS_OVERFLOWS = 2;
+
+    /**
+     * Reads a haptics counter for {@link JamepadMetrics}, from any thread.
+     *
+     * @param counter {@link #HAPTICS_QUEUED_MILLIS}, {@link #HAPTICS_UNDERRUNS} or
+     *                {@link #HAPTICS_OVERFLOWS}
+     * @return the counter of the open haptics channel, or 0 if there is none
+     */
+    long readHapticsCounter(int counter) {
+        synchronized (hapticsLock) {
+            if (hapticsPtr == 0) {
+                return 0;
+            }
+            if (counter == HAPTICS_QUEUED_MILLIS) {
+                return nativeGetHapticFeedbackQueued(hapticsPtr) / HAPTICS_BYTES_PER_MS;
             }
-            haptics_remix_buf = grown;
-            haptics_remix_capacity = remixed;
+            return nativeGetHapticsCounter(hapticsPtr, counter == HAPTICS_UNDERRUNS);
+        }
+    }
+
+    private native long nativeGetHapticsCounter(long hapticsPtr, boolean underruns); /*
+        JamepadHaptics *channel = jamepad_haptics(hapticsPtr);
+        if (channel == NULL) {
+            return 0;
         }
+        return (jlong) (underruns ? channel->underruns : channel->overflows);
+    */
+
+    /**
+     * @return every motion sensor event SDL delivered since startup, across all controllers
+     */
+    static long getSensorEventsReceived() {
+        return nativeGetSensorEventsReceived();
+    }
+
+    private static native long nativeGetSensorEventsReceived(); /*
+        return (jlong) jamepad_sensor_events_received;
+    */
 
-	    for (int i = 0; i + 4 <= hapticFeedbackSize; i += 4)
-	    {
-		    SDL_memset(haptics_remix_buf + i * 2, 0, 4);
-		    SDL_memcpy(haptics_remix_buf + (i * 2) + 4, hapticFeedback + i, 4);
-	    }
+    /**
+     * @return how much haptic audio is queued and not yet played, in milliseconds, or 0 if
+     * this controller has no haptics
+     */
+    public int getHapticFeedbackQueuedMillis() {
+        return (int) readHapticsCounter(HAPTICS_QUEUED_MILLIS);
+    }
 
-	    //SDL 3 resamples 3kHz -> 48kHz inside the stream.
-	    return SDL_PutAudioStreamData(haptics_stream, haptics_remix_buf, remixed) ? JNI_TRUE : JNI_FALSE;
+    private native int nativeGetHapticFeedbackQueued(long hapticsPtr); /*
+        JamepadHaptics *channel = jamepad_haptics(hapticsPtr);
+        if (channel == NULL || channel->stream == NULL) {
+            return 0;
+        }
+        int queued = SDL_GetAudioStreamQueued(channel->stream);
+        return queued < 0 ? 0 : queued;
     */
 
+    /**
+     * Bounds the haptic audio queue of this controller. Overrides
+     * {@link Configuration#hapticsMaxLatencyMillis}, {@link Configuration#hapticsTargetLatencyMillis}
+     * and {@link Configuration#hapticsOverflowPolicy} for this controller; the setting survives
+     * reconnects.
+     *
+     * @param targetMillis how much audio to leave queued when a backlog is trimmed
+     * @param maxMillis the most audio that may be queued, or 0 for no limit
+     * @param policy what to do with audio that would exceed maxMillis
+     */
+    public void setHapticFeedbackLatency(int targetMillis, int maxMillis, Configuration.HapticsOverflowPolicy policy) {
+        if (targetMillis < 0 || maxMillis < 0) {
+            throw new IllegalArgumentException("Haptic latencies cannot be negative");
+        }
+        Objects.requireNonNull(policy);
+        synchronized (hapticsLock) {
+            this.hapticsTargetLatencyMillis = targetMillis;
+            this.hapticsMaxLatencyMillis = maxMillis;
+            this.hapticsOverflowPolicy = policy;
+        }
+    }
+
     /**
      * @return The number of available raw buttons on this controller.
      * @throws ControllerUnpluggedException If the controller is not connected.
      */
     public int getNumRawButtons() throws ControllerUnpluggedException {
         ensureConnected();
-        return nativeGetNumRawButtons(controllerPtr);
+        return numRawButtons;
     }
 
     private native int nativeGetNumRawButtons(long controllerPtr); /*
@@ -1045,13 +2634,27 @@ public final class ControllerIndex {
      */
     public int getNumRawAxes() throws ControllerUnpluggedException {
         ensureConnected();
-        return nativeGetNumRawAxes(controllerPtr);
+        return numRawAxes;
     }
 
     private native int nativeGetNumRawAxes(long controllerPtr); /*
         return SDL_GetNumJoystickAxes(jamepad_joystick(controllerPtr));
     */
 
+    /**
+     * @return The number of available raw hats (digital direction pads reported as one
+     * input) on this controller.
+     * @throws ControllerUnpluggedException If the controller is not connected.
+     */
+    public int getNumRawHats() throws ControllerUnpluggedException {
+        ensureConnected();
+        return numRawHats;
+    }
+
+    private native int nativeGetNumRawHats(long controllerPtr); /*
+        return SDL_GetNumJoystickHats(jamepad_joystick(controllerPtr));
+    */
+
     /**
      * Returns the raw pressed state of the specified button index.
      * <p>
@@ -1091,13 +2694,68 @@ public final class ControllerIndex {
         return SDL_GetJoystickAxis(jamepad_joystick(controllerPtr), axisIndex);
     */
 
+    /** A raw hat in its resting position. */
+    public static final int HAT_CENTERED = 0x00;
+    /** Bit of a raw hat state that is set while the hat points up. */
+    public static final int HAT_UP = 0x01;
+    /** Bit of a raw hat state that is set while the hat points right. */
+    public static final int HAT_RIGHT = 0x02;
+    /** Bit of a raw hat state that is set while the hat points down. */
+    public static final int HAT_DOWN = 0x04;
+    /** Bit of a raw hat state that is set while the hat points left. */
+    public static final int HAT_LEFT = 0x08;
+
+    /**
+     * Returns the raw state of the specified hat index, independent of any mappings.
+     *
+     * @param hatIndex The raw hat index to read.
+     * @return {@link #HAT_CENTERED}, or a combination of {@link #HAT_UP}, {@link #HAT_RIGHT},
+     * {@link #HAT_DOWN} and {@link #HAT_LEFT}; diagonals set two bits.
+     * @throws ControllerUnpluggedException If the controller is not connected.
+     */
+    public int getRawHatState(int hatIndex) throws ControllerUnpluggedException {
+        ensureConnected();
+        return nativeGetRawHatState(controllerPtr, hatIndex);
+    }
+
+    private native int nativeGetRawHatState(long controllerPtr, int hatIndex); /*
+        return SDL_GetJoystickHat(jamepad_joystick(controllerPtr), hatIndex);
+    */
+
+    /**
+     * Reads every raw button, axis and hat of the controller in one native call, instead of
+     * one call per input with {@link #getRawButtonPressed(int)} and friends. Like the fast
+     * getters, this reads what the last {@link #poll()} fetched.
+     * <p>
+     * Button {@code i} is bit {@code i % 64} of {@code buttonBits[i / 64]}. Axes range from
+     * -32768 to 32767 and hats hold the {@code HAT_*} bits. The arrays may be any size:
+     * inputs the controller has beyond their length are left out, and entries beyond what
+     * the controller has are set to zero. Size them with {@link #getNumRawButtons()},
+     * {@link #getNumRawAxes()} and {@link #getNumRawHats()}, which do not call into SDL.
+     *
+     * @param buttonBits Receives the raw buttons, 64 per element.
+     * @param axes Receives the raw axes.
+     * @param hats Receives the raw hats.
+     * @throws ControllerUnpluggedException If the controller is not connected.
+     */
+    public void readRawState(long[] buttonBits, short[] axes, byte[] hats) throws ControllerUnpluggedException {
+        ensureConnected();
+        nativeReadRawState(controllerPtr, buttonBits, buttonBits.length, axes, axes.length, hats, hats.length);
+    }
+
+    private native void nativeReadRawState(long controllerPtr, long[] buttonBits, int buttonWords,
+                                           short[] axes, int axisCount, byte[] hats, int hatCount); /*
+        jamepad_read_joystick_state(jamepad_joystick(controllerPtr), buttonBits, buttonWords,
+                                    axes, axisCount, hats, hatCount);
+    */
+
     /**
      * @return The USB Vendor ID (VID) of the controller.
      * @throws ControllerUnpluggedException If the controller is not connected.
      */
     public int getVendorId() throws ControllerUnpluggedException {
         ensureConnected();
-        return nativeGetVendorId(controllerPtr);
+        return controllerInfo.getVendorId();
     }
 
     private native int nativeGetVendorId(long controllerPtr); /*
@@ -1110,7 +2768,7 @@ public final class ControllerIndex {
      */
     public int getProductId() throws ControllerUnpluggedException {
         ensureConnected();
-        return nativeGetProductId(controllerPtr);
+        return controllerInfo.getProductId();
     }
 
     private native int nativeGetProductId(long controllerPtr); /*
@@ -1122,12 +2780,12 @@ public final class ControllerIndex {
      * <p>
      * This is usually the device name as reported by the operating system or driver.
      *
-     * @return The device name string.
+     * @return The device name string, or null if the device does not report one.
      * @throws ControllerUnpluggedException If the controller is not connected.
      */
     public String getDeviceName() throws ControllerUnpluggedException {
         ensureConnected();
-        return nativeGetDeviceName(controllerPtr);
+        return controllerInfo.getDeviceName();
     }
 
     private native String nativeGetDeviceName(long controllerPtr); /*
@@ -1146,7 +2804,7 @@ public final class ControllerIndex {
      */
     public String getDeviceGuid() throws ControllerUnpluggedException {
         ensureConnected();
-        return nativeGetDeviceGuid(controllerPtr);
+        return controllerInfo.getGuid();
     }
 
     private native String nativeGetDeviceGuid(long controllerPtr); /*
@@ -1160,6 +2818,7 @@ public final class ControllerIndex {
      * Convenience method to throw an exception if the controller is not connected.
      */
     private void ensureConnected() throws ControllerUnpluggedException {
+        metrics.controllerReads++;
         if(!isConnected()) {
             throw new ControllerUnpluggedException("Controller at index " + index + " is not connected!");
         }
@@ -1180,6 +2839,7 @@ public final class ControllerIndex {
 
     public float getAxisStateFast(ControllerAxis toCheck) throws ControllerUnpluggedException {
         ensureConnected();
+        noteInputRead();
         return nativeCheckAxisNoUpdate(controllerPtr, toCheck.getSdlValue()) / AXIS_MAX_VAL;
     }
 
@@ -1199,6 +2859,7 @@ public final class ControllerIndex {
 
     private void updateButtonFast(ControllerButton button) throws ControllerUnpluggedException {
         ensureConnected();
+        noteInputRead();
         int slot = button.ordinal();
         boolean currButtonIsPressed = nativeCheckButtonNoUpdate(controllerPtr, button.getSdlValue());
         justPressedButtons[slot] = (currButtonIsPressed && !heldDownButtons[slot]);
@@ -1210,33 +2871,21 @@ public final class ControllerIndex {
     */
 
     public TouchState getTouchpadFingerFast(int finger) throws ControllerUnpluggedException {
-        ensureConnected();
-
-        TouchState touchState = touchStates.get(finger);
-        if (touchState == null) {
-            touchState = new TouchState();
-            touchStates.put(finger, touchState);
-        }
-        if (!supportsTouchpad) {
-            return touchState;
-        }
-
-        nativeGetTouchpadFingerNoUpdate(controllerPtr, finger, touchState);
-        return touchState;
+        getTouchpadStateFast();
+        return fingerState(finger);
     }
 
-    private native void nativeGetTouchpadFingerNoUpdate(long controllerPtr, int finger, Object touchState); /*
-        bool down = false;
-        float x, y, pressure;
-        if(SDL_GetGamepadTouchpadFinger(jamepad_pad(controllerPtr), 0, finger, &down, &x, &y, &pressure)) {
-            jclass clazz = env->GetObjectClass(touchState);
-            jmethodID update_method = env->GetMethodID(clazz, "update", "(ZFF)V");
-            env->CallVoidMethod(touchState, update_method, down ? JNI_TRUE : JNI_FALSE, x, y);
+    public TouchpadState getTouchpadStateFast() throws ControllerUnpluggedException {
+        ensureConnected();
+        if (supportsTouchpad) {
+            nativeReadTouchpads(controllerPtr, touchpadState.fingers, touchpadState.fingers.length);
         }
-    */
+        return touchpadState;
+    }
 
     public SensorState getSensorStateFast() throws ControllerUnpluggedException {
         ensureConnected();
+        metrics.sensorReads++;
         if (!supportsSensors) {
             return sensorState;
         }
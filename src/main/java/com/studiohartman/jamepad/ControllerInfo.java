@@ -0,0 +1,101 @@
+package com.studiohartman.jamepad;
+
+/**
+ * Describes the device behind a {@link ControllerIndex} or {@link JoystickIndex}: its names,
+ * GUID and USB ids.
+ *
+ * <p>None of this can change while a device stays plugged in, so it is read from SDL once
+ * when the controller connects and then shared. {@link ControllerIndex#getControllerInfo()}
+ * and {@link ControllerState#controllerType} hand out the same instance until the next
+ * hotplug, which makes the name and GUID getters free to call every frame.
+ *
+ * <p>Instances are immutable.
+ */
+public final class ControllerInfo {
+    static final String EMPTY_GUID = "00000000000000000000000000000000";
+
+    static final ControllerInfo DISCONNECTED =
+            new ControllerInfo("Not Connected", "", EMPTY_GUID, 0, 0, 0, false);
+
+    private final String name;
+
+    private final String deviceName;
+
+    private final String guid;
+
+    private final int vendorId;
+
+    private final int productId;
+
+    private final int instanceId;
+
+    private final boolean dualSense;
+
+    ControllerInfo(String name, String deviceName, String guid, int vendorId, int productId,
+                   int instanceId, boolean dualSense) {
+        this.name = name;
+        this.deviceName = deviceName;
+        this.guid = guid;
+        this.vendorId = vendorId;
+        this.productId = productId;
+        this.instanceId = instanceId;
+        this.dualSense = dualSense;
+    }
+
+    /**
+     * @return the gamepad name SDL resolved through the mappings, or "Unnamed Controller"
+     * if the device did not report one
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the device name as reported by the operating system or driver, or null if the
+     * device does not report one
+     */
+    public String getDeviceName() {
+        return deviceName;
+    }
+
+    /**
+     * @return the joystick GUID as a 32 character hexadecimal string
+     */
+    public String getGuid() {
+        return guid;
+    }
+
+    /**
+     * @return the USB Vendor ID (VID), or 0 if unknown
+     */
+    public int getVendorId() {
+        return vendorId;
+    }
+
+    /**
+     * @return the USB Product ID (PID), or 0 if unknown
+     */
+    public int getProductId() {
+        return productId;
+    }
+
+    /**
+     * @return the SDL instance ID, which identifies the device from the time it is connected
+     * until it is disconnected
+     */
+    public int getInstanceId() {
+        return instanceId;
+    }
+
+    /**
+     * @return true for a DualSense or DualSense Edge controller
+     */
+    public boolean isDualSense() {
+        return dualSense;
+    }
+
+    @Override
+    public String toString() {
+        return name + " [" + guid + "]";
+    }
+}
@@ -7,10 +7,20 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 /**
  * This class handles initializing the native library, connecting to controllers, and managing the
@@ -23,6 +33,10 @@ import java.util.Objects;
  * case, it may make sense to use the getControllerIndex() method to access the objects used
  * internally by  ControllerManager.
  *
+ * Everything here except {@link #readSnapshot(int, ControllerSnapshot)} and
+ * {@link #getMetrics()} belongs to one thread, the one that calls initSDLGamepad() and
+ * update(). Other threads read controllers through snapshots; see {@link ControllerIndex}.
+ *
  * @author William Hartman
  */
 public class ControllerManager {
@@ -31,8 +45,6 @@ public class ControllerManager {
     #include <SDL3/SDL.h>
     #include <stdio.h>
 
-    static int lastGamepadCount = -1;
-
     static int jamepad_count_gamepads() {
         int count = 0;
         SDL_JoystickID *ids = SDL_GetGamepads(&count);
@@ -42,33 +54,92 @@ public class ControllerManager {
         return count;
     }
 
-    // Pulls only device add/remove events off the queue. Draining the whole queue
-    // would eat events belonging to any other SDL user in the process.
-    static bool jamepad_take_device_events() {
-        SDL_Event drained[32];
-        bool sawAny = false;
-
-        while (SDL_PeepEvents(drained, 32, SDL_GETEVENT,
-                              SDL_EVENT_JOYSTICK_ADDED, SDL_EVENT_JOYSTICK_REMOVED) > 0) {
-            sawAny = true;
+    static int jamepad_list_gamepads(jint *out, int capacity) {
+        int count = 0;
+        SDL_JoystickID *ids = SDL_GetGamepads(&count);
+        if (ids == NULL) {
+            return 0;
         }
-        while (SDL_PeepEvents(drained, 32, SDL_GETEVENT,
-                              SDL_EVENT_GAMEPAD_ADDED, SDL_EVENT_GAMEPAD_REMOVED) > 0) {
-            sawAny = true;
+        for (int i = 0; i < count && i < capacity; i++) {
+            out[i] = (jint) ids[i];
         }
-
-        return sawAny;
+        SDL_free(ids);
+        return count;
     }
+
+    // Device add/remove events are handed to Java in batches as pairs of kind and instance
+    // id. Only controller events are taken off the queue, these and the input events that
+    // the pump flushes; draining the whole queue would eat events belonging to any other SDL
+    // user in the process.
+    #define JAMEPAD_DEVICE_BATCH 32
+    #define JAMEPAD_GAMEPAD_ADDED 0
+    #define JAMEPAD_GAMEPAD_REMOVED 1
+    #define JAMEPAD_JOYSTICK_ADDED 2
+    #define JAMEPAD_JOYSTICK_REMOVED 3
+
+    // Touchpad events are drained in batches into flat arrays: four ints (type, instance id,
+    // touchpad, finger), three floats (x, y, pressure) and a timestamp per event.
+    #define JAMEPAD_TOUCH_BATCH 64
+
+    // Battery events: instance id, SDL_PowerState and percentage per event
+    #define JAMEPAD_BATTERY_BATCH 16
     */
 
+    private static final int TOUCH_BATCH = 64;
+
+    private static final int BATTERY_BATCH = 16;
+
+    private static final int DEVICE_BATCH = 32;
+    private static final int GAMEPAD_ADDED = 0;
+    private static final int GAMEPAD_REMOVED = 1;
+    private static final int JOYSTICK_ADDED = 2;
+    private static final int JOYSTICK_REMOVED = 3;
+
+    private final int[] deviceEvents = new int[DEVICE_BATCH * 2];
+
+    // Which slot each connected device sits in, by SDL instance id
+    private final InstanceIdMap controllerSlots = new InstanceIdMap();
+    private final InstanceIdMap joystickSlots = new InstanceIdMap();
+
+    // Set when a device showed up while every slot was taken; it gets the next slot that frees
+    private boolean controllersWaiting;
+    private boolean joysticksWaiting;
+
+    // Scratch for resync()
+    private int[] deviceIds = new int[16];
+    private final InstanceIdMap presentIds = new InstanceIdMap();
+
+    private final int[] touchInts = new int[TOUCH_BATCH * 4];
+    private final float[] touchFloats = new float[TOUCH_BATCH * 3];
+    private final long[] touchNanos = new long[TOUCH_BATCH];
+
+    private final int[] batteryEvents = new int[BATTERY_BATCH * 3];
+
+    private ControllerPowerListener powerListener;
+    private final List<VirtualController> virtualControllers = new ArrayList<>();
+    //Counts update() calls; getState(int) remembers per index which one it last read after
+    private long updateCount;
+    private long[] stateReadAt = new long[0];
+
+    // Where the search for a controller due for a power check starts
+    private int powerSampleCursor;
+
     private static final boolean IS_UNIX = System.getProperty("os.name", "").toLowerCase().contains("nix") ||
             System.getProperty("os.name", "").toLowerCase().contains("nux");
 
     private final Configuration configuration;
     private final String mappingsPath;
     private boolean isInitialized;
-    private ControllerIndex[] controllers;
+    // Replaced, never modified in place once published, so other threads can read it safely
+    private volatile ControllerIndex[] controllers;
+    private JoystickIndex[] joysticks = new JoystickIndex[0];
     private SystemMotionSensors systemMotionSensors;
+    private ScheduledExecutorService scheduler;
+    private ScheduledExecutorService renderScheduler;
+    private final JamepadMetrics metrics = new JamepadMetrics();
+    private ObjectName metricsName;
+
+    private static final AtomicInteger METRICS_IDS = new AtomicInteger();
 
     /**
      * Default constructor. Makes a manager for 4 controllers with the built in mappings from here:
@@ -137,6 +208,8 @@ public class ControllerManager {
         } else {
             isInitialized = true;
         }
+        SdlClock.calibrate();
+        ControllerIndex.installInputClock(configuration);
 
         if (configuration.useSystemMotionSensors) {
             systemMotionSensors = new SystemMotionSensors();
@@ -163,17 +236,65 @@ public class ControllerManager {
         //Set controller mappings. The possible exception is caught, since stuff will still work ok
         //for most people if mapping aren't set.
         try {
+            long start = System.nanoTime();
             addMappingsFromFile(mappingsPath);
+            metrics.recordMappingsLoad(System.nanoTime() - start);
         } catch (IOException | IllegalStateException e) {
             System.err.println("Failed to load mapping with original location \"" + mappingsPath + "\", " +
                     "Falling back of SDL's built in mappings");
             e.printStackTrace();
         }
 
-        //Connect and keep track of the controllers
-        for(int i = 0; i < controllers.length; i++) {
-            controllers[i] = new ControllerIndex(i, sonyControllerFeature, configuration.useControllerMotionSensors);
+        //One thread for all delayed work (haptics discovery and the like), however many
+        //controllers come and go. Rendering gets its own, since opening an audio device can
+        //block for a long time and the haptics of every controller would run dry meanwhile.
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Jamepad scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        renderScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Jamepad haptics renderer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        //Connect and keep track of the controllers. A fresh array every time, since quitting
+        //leaves an empty one behind.
+        ControllerIndex[] connected = new ControllerIndex[configuration.maxNumControllers];
+        for(int i = 0; i < connected.length; i++) {
+            connected[i] = new ControllerIndex(i, configuration, sonyControllerFeature, scheduler,
+                    renderScheduler, metrics);
+        }
+        controllers = connected;
+        stateReadAt = new long[connected.length];
+        Arrays.fill(stateReadAt, updateCount);
+        metrics.attach(connected);
+        joysticks = new JoystickIndex[configuration.maxNumJoysticks];
+        for(int i = 0; i < joysticks.length; i++) {
+            joysticks[i] = new JoystickIndex(i, metrics);
         }
+        controllerSlots.clear();
+        joystickSlots.clear();
+        resync();
+
+        if (configuration.registerMetricsMBean) {
+            try {
+                metricsName = new ObjectName("com.studiohartman.jamepad:type=JamepadMetrics,id="
+                        + METRICS_IDS.incrementAndGet());
+                ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, metricsName);
+            } catch (JMException e) {
+                System.err.println("Failed to register the Jamepad metrics MBean: " + e);
+                metricsName = null;
+            }
+        }
+    }
+
+    /**
+     * @return the counters and timings of this manager; see {@link JamepadMetrics}
+     */
+    public JamepadMetrics getMetrics() {
+        return metrics;
     }
     private native boolean nativeInitSDLGamepad(boolean disableRawInput, int sonyControllerFeature,
                                                 boolean useControllerMotionSensors,
@@ -208,12 +329,16 @@ public class ControllerManager {
         //so keep them off the queue entirely in that case.
         SDL_SetEventEnabled(SDL_EVENT_GAMEPAD_SENSOR_UPDATE, useControllerMotionSensors);
         SDL_SetEventEnabled(SDL_EVENT_SENSOR_UPDATE, useSystemMotionSensors);
+        //The same goes for touchpad events, which only the Sony features drain.
+        SDL_SetEventEnabled(SDL_EVENT_GAMEPAD_TOUCHPAD_DOWN, sonyControllerFeature != 0);
+        SDL_SetEventEnabled(SDL_EVENT_GAMEPAD_TOUCHPAD_MOTION, sonyControllerFeature != 0);
+        SDL_SetEventEnabled(SDL_EVENT_GAMEPAD_TOUCHPAD_UP, sonyControllerFeature != 0);
 
-        //SDL emits a device-added event for every controller that is already plugged in,
-        //which would otherwise look like a hotplug the first time update() runs.
+        //SDL emits a device-added event for every controller that is already plugged in.
+        //Those get their slots from the device lists right after this, so drop the events.
         SDL_PumpEvents();
-        jamepad_take_device_events();
-        lastGamepadCount = jamepad_count_gamepads();
+        SDL_FlushEvents(SDL_EVENT_JOYSTICK_ADDED, SDL_EVENT_JOYSTICK_REMOVED);
+        SDL_FlushEvents(SDL_EVENT_GAMEPAD_ADDED, SDL_EVENT_GAMEPAD_REMOVED);
 
         return JNI_TRUE;
     */
@@ -248,15 +373,50 @@ public class ControllerManager {
      * This method quits all the native stuff. Call it when you're done with Jamepad.
      */
     public void quitSDLGamepad() {
+        //close() takes each one off the list
+        for(VirtualController v: new ArrayList<>(virtualControllers)) {
+            v.close();
+        }
         for(ControllerIndex c: controllers) {
             c.close();
         }
+        for(JoystickIndex j: joysticks) {
+            j.close();
+        }
+        joysticks = new JoystickIndex[0];
+        controllerSlots.clear();
+        joystickSlots.clear();
+        controllersWaiting = false;
+        joysticksWaiting = false;
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            renderScheduler.shutdownNow();
+            try {
+                //A task may be inside SDL right now; let it leave before SDL goes away.
+                scheduler.awaitTermination(1, TimeUnit.SECONDS);
+                renderScheduler.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            scheduler = null;
+            renderScheduler = null;
+        }
         if (systemMotionSensors != null) {
             systemMotionSensors.close();
             systemMotionSensors = null;
         }
+        if (metricsName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+            } catch (JMException e) {
+                System.err.println("Failed to unregister the Jamepad metrics MBean: " + e);
+            }
+            metricsName = null;
+        }
+        ControllerIndex.removeInputClock();
         nativeCloseSDLGamepad();
         controllers = new ControllerIndex[0];
+        metrics.attach(controllers);
         isInitialized = false;
     }
     private native void nativeCloseSDLGamepad(); /*
@@ -291,7 +451,10 @@ public class ControllerManager {
      * GC is tuned well, but if this is a problem for you, you can go directly through the internal
      * ControllerIndex objects using getControllerIndex().
      *
-     * update() is called each time this method is called. Buttons are also queried, so values
+     * update() is called once per frame: by the first call for an index since the previous
+     * update(), so a loop over every index, or a call after your own update(), pays for it at
+     * most once. Every state of a frame is read from that update, like with
+     * {@link #getStates(ControllerState[])}. Buttons are also queried, so values
      * returned from isButtonJustPressed() in ControllerIndex may not be what you expect. Calling
      * this method will have side effects if you are using the ControllerIndex objects yourself.
      * This should be fine unless you are mixing and matching this method with ControllerIndex
@@ -305,13 +468,58 @@ public class ControllerManager {
         verifyInitialized();
 
         if(index < controllers.length && index >= 0) {
-            update();
-            return ControllerState.getInstanceFromController(controllers[index]);
+            //The same index again means a new frame
+            if (stateReadAt[index] == updateCount) {
+                update();
+            }
+            stateReadAt[index] = updateCount;
+            return ControllerState.getInstanceFromUpdatedController(controllers[index]);
         } else {
             return ControllerState.getDisconnectedControllerInstance();
         }
     }
 
+    /**
+     * Return the states of all controllers, with a single update() and a single SDL gamepad
+     * refresh for all of them, and without allocating a new array.
+     *
+     * @param states Receives the state of the controller at each index; indices past the
+     *               number of controllers get the disconnected state. Any length works.
+     * @return the array passed in
+     * @throws IllegalStateException if Jamepad was not initialized
+     */
+    public ControllerState[] getStates(ControllerState[] states) throws IllegalStateException {
+        verifyInitialized();
+        update();
+
+        ControllerIndex[] current = controllers;
+        for (int i = 0; i < states.length; i++) {
+            states[i] = i < current.length
+                    ? ControllerState.getInstanceFromUpdatedController(current[i])
+                    : ControllerState.getDisconnectedControllerInstance();
+        }
+        return states;
+    }
+
+    /**
+     * Copies the state of the controller at the given index, as of its last poll, into a
+     * snapshot. Unlike everything else here this may be called from any thread, and it never
+     * polls or touches SDL; the thread driving the manager keeps the snapshots current by
+     * calling {@link #getState(int)} or {@link ControllerIndex#poll()}.
+     *
+     * @param index The index of the controller to read
+     * @param snapshot The snapshot to fill, usually one kept per reader thread
+     * @return the snapshot passed in, disconnected if there is no controller at that index
+     */
+    public ControllerSnapshot readSnapshot(int index, ControllerSnapshot snapshot) {
+        ControllerIndex[] current = controllers;
+        if (index < 0 || index >= current.length || current[index] == null) {
+            snapshot.clear();
+            return snapshot;
+        }
+        return current[index].readSnapshot(snapshot);
+    }
+
     /**
      * Starts vibrating the controller at this given index. If this fails for one reason or another (e.g.
      * the controller at that index doesn't support haptics, or if there is no controller at that index),
@@ -367,6 +575,30 @@ public class ControllerManager {
         return false;
     }
 
+    /**
+     * Sends adaptive trigger effects to the controller at this given index.
+     * It the controller is not a DualSense controller calling this function doesn't have any effect.
+     *
+     * @param index The index of the controller that will be used to send the adaptive trigger data
+     * @param left The left trigger effect
+     * @param right The right trigger effect
+     * @return true if the effects were sent successfully or are waiting to be sent, false otherwise
+     * @throws IllegalStateException if Jamepad was not initialized
+     */
+    public boolean sendAdaptiveTriggerEffects(int index, TriggerEffect left, TriggerEffect right){
+        verifyInitialized();
+
+        if(index < controllers.length && index >= 0) {
+            try {
+                return controllers[index].sendAdaptiveTriggerEffects(left, right);
+            } catch (ControllerUnpluggedException e) {
+                return false;
+            }
+        }
+
+        return false;
+    }
+
     /**
      * Sends haptic feedback audio data to the controller at this given index.
      * Audio Data must be in 3KHZ, 2 channel, 16-bit Little-Endian PCM format.
@@ -477,42 +709,392 @@ public class ControllerManager {
         return jamepad_count_gamepads();
     */
 
+    /**
+     * Returns the JoystickIndex at the given index. Joysticks are devices without a gamepad
+     * mapping, such as wheels, pedals and flight sticks; gamepads never show up here. There
+     * are {@link Configuration#maxNumJoysticks} of them, connected or not, and update()
+     * reconnects them along with the controllers.
+     *
+     * @param index the index of the JoystickIndex that will be returned
+     * @return The JoystickIndex object for the passed index.
+     * @throws IllegalStateException if Jamepad was not initialized
+     */
+    public JoystickIndex getJoystickIndex(int index) {
+        verifyInitialized();
+        return joysticks[index];
+    }
+
+    /**
+     * Return the number of connected joysticks that are not gamepads. Like
+     * {@link #getNumControllers()}, this may disagree with the JoystickIndex objects until
+     * update() is called.
+     *
+     * @return the number of connected joysticks.
+     * @throws IllegalStateException if Jamepad was not initialized
+     */
+    public int getNumJoysticks() {
+        verifyInitialized();
+        return JoystickIndex.nativeCountJoysticks();
+    }
+
     /**
      * Refresh the connected controllers in the controller list if something has been connected or
      * unplugged.
      *
-     * If there hasn't been a change in whether controller are connected or not, nothing will happen.
+     * A newly connected device takes the first free index and keeps it until it is unplugged;
+     * other controllers never move to a different index. If every index is taken, the device
+     * waits for one to free up. If there hasn't been a change in whether controller are connected
+     * or not, nothing will happen.
+     * Rumble, LED and trigger changes that are still waiting for their flush interval are sent
+     * either way.
+     * <p>
+     * This also drains SDL's event queue of the joystick and gamepad button, axis and sensor
+     * events. Jamepad reads those through the controller state, so nothing else takes them off
+     * the queue, and a full queue loses the hotplug, touchpad and battery events that come
+     * after. Call it every frame, even if you only {@link ControllerIndex#poll()} controllers.
      *
      * @return True if the controller list was refreshed, false otherwise
      * @throws IllegalStateException if Jamepad was not initialized
      */
     public boolean update() {
         verifyInitialized();
-        if (nativeControllerConnectedOrDisconnected()) {
-            for (int i = 0; i < controllers.length; i++) {
-                controllers[i].reconnectController();
+        JamepadEvents.Update event = new JamepadEvents.Update();
+        event.begin();
+        long start = System.nanoTime();
+
+        updateCount++;
+        boolean changed = handleDeviceChanges();
+        dispatchTouchpadEvents();
+        long now = System.nanoTime();
+        updatePower(now);
+        for (int i = 0; i < controllers.length; i++) {
+            controllers[i].serviceOutput(now);
+        }
+
+        metrics.recordUpdate(System.nanoTime() - start);
+        event.hotplug = changed;
+        event.controllerReads = metrics.getControllerReadsLastUpdate();
+        event.commit();
+        return changed;
+    }
+
+    /**
+     * Applies device add and remove events one device at a time: a new device goes into the
+     * first free slot and stays there until it is unplugged, and every other slot is left
+     * alone. Falls back to comparing the slots against SDL's device lists when the number of
+     * devices does not add up, which happens if another SDL user took the events first.
+     */
+    private boolean handleDeviceChanges() {
+        JamepadEvents.Hotplug event = new JamepadEvents.Hotplug();
+        event.begin();
+        long start = System.nanoTime();
+
+        boolean changed = false;
+        boolean slotFreed = false;
+        boolean resynced = false;
+        boolean pump = true;
+        int count;
+        while ((count = nativeTakeDeviceEvents(deviceEvents, pump)) > 0) {
+            pump = false;
+            for (int e = 0; e < count; e++) {
+                int id = deviceEvents[e * 2 + 1];
+                switch (deviceEvents[e * 2]) {
+                    case GAMEPAD_ADDED:
+                        //A joystick that just got a mapping moves over to the controllers
+                        slotFreed |= releaseJoystick(id);
+                        changed |= assignController(id);
+                        break;
+                    case GAMEPAD_REMOVED:
+                        slotFreed |= releaseController(id);
+                        break;
+                    case JOYSTICK_ADDED:
+                        changed |= assignJoystick(id);
+                        break;
+                    case JOYSTICK_REMOVED:
+                        slotFreed |= releaseJoystick(id);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        changed |= slotFreed;
+
+        if ((slotFreed && (controllersWaiting || joysticksWaiting))
+                || (!controllersWaiting && nativeGetNumRollers() != controllerSlots.size())
+                || (!joysticksWaiting && JoystickIndex.nativeCountJoysticks() != joystickSlots.size())) {
+            resync();
+            resynced = true;
+            changed = true;
+        }
+
+        if (changed) {
+            //Hotplug is rare and the clocks may have drifted apart since the last calibration.
+            SdlClock.calibrate();
+            metrics.recordHotplug(System.nanoTime() - start, resynced);
+            event.connected = controllerSlots.size() + joystickSlots.size();
+            event.resync = resynced;
+            event.commit();
+        }
+        return changed;
+    }
+
+    private boolean assignController(int instanceId) {
+        if (controllerSlots.get(instanceId) != InstanceIdMap.MISSING) {
+            return false;
+        }
+        for (int i = 0; i < controllers.length; i++) {
+            if (controllers[i].getAssignedInstanceId() == 0) {
+                controllers[i].open(instanceId);
+                controllerSlots.put(instanceId, i);
+                return true;
             }
-            return true;
         }
+        controllersWaiting = true;
         return false;
     }
 
-    private native boolean nativeControllerConnectedOrDisconnected(); /*
-        SDL_UpdateGamepads();
-        SDL_PumpEvents();
+    private boolean releaseController(int instanceId) {
+        int slot = controllerSlots.get(instanceId);
+        if (slot == InstanceIdMap.MISSING) {
+            return false;
+        }
+        controllers[slot].open(0);
+        controllerSlots.remove(instanceId);
+        return true;
+    }
+
+    private boolean assignJoystick(int instanceId) {
+        if (joystickSlots.get(instanceId) != InstanceIdMap.MISSING) {
+            return false;
+        }
+        for (int i = 0; i < joysticks.length; i++) {
+            if (joysticks[i].getAssignedInstanceId() == 0) {
+                joysticks[i].open(instanceId);
+                joystickSlots.put(instanceId, i);
+                return true;
+            }
+        }
+        joysticksWaiting = true;
+        return false;
+    }
 
-        bool changed = jamepad_take_device_events();
+    private boolean releaseJoystick(int instanceId) {
+        int slot = joystickSlots.get(instanceId);
+        if (slot == InstanceIdMap.MISSING) {
+            return false;
+        }
+        joysticks[slot].open(0);
+        joystickSlots.remove(instanceId);
+        return true;
+    }
 
-        int nowNum = jamepad_count_gamepads();
-        if (lastGamepadCount < 0) {
-            lastGamepadCount = nowNum;
+    /**
+     * Brings the slots in line with SDL's device lists: empties the slots of devices that are
+     * gone and puts devices without a slot into free ones, in the order SDL lists them. Costs
+     * one pass over the devices, and only runs at init and when events were missed or
+     * devices were waiting for a slot.
+     */
+    private void resync() {
+        int count = nativeListGamepads(deviceIds, deviceIds.length);
+        if (count > deviceIds.length) {
+            deviceIds = new int[count * 2];
+            count = nativeListGamepads(deviceIds, deviceIds.length);
         }
-        if (nowNum != lastGamepadCount) {
-            lastGamepadCount = nowNum;
-            changed = true;
+        presentIds.clear();
+        for (int i = 0; i < count; i++) {
+            presentIds.put(deviceIds[i], i);
+        }
+        for (int i = 0; i < controllers.length; i++) {
+            int id = controllers[i].getAssignedInstanceId();
+            if (id != 0 && presentIds.get(id) == InstanceIdMap.MISSING) {
+                releaseController(id);
+            }
+        }
+        controllersWaiting = false;
+        for (int i = 0; i < count; i++) {
+            assignController(deviceIds[i]);
+        }
+
+        count = JoystickIndex.nativeListJoysticks(deviceIds, deviceIds.length);
+        if (count > deviceIds.length) {
+            deviceIds = new int[count * 2];
+            count = JoystickIndex.nativeListJoysticks(deviceIds, deviceIds.length);
+        }
+        presentIds.clear();
+        for (int i = 0; i < count; i++) {
+            presentIds.put(deviceIds[i], i);
+        }
+        for (int i = 0; i < joysticks.length; i++) {
+            int id = joysticks[i].getAssignedInstanceId();
+            if (id != 0 && presentIds.get(id) == InstanceIdMap.MISSING) {
+                releaseJoystick(id);
+            }
+        }
+        joysticksWaiting = false;
+        for (int i = 0; i < count; i++) {
+            assignJoystick(deviceIds[i]);
+        }
+    }
+
+    private void dispatchTouchpadEvents() {
+        int count;
+        do {
+            count = nativeTakeTouchpadEvents(touchInts, touchFloats, touchNanos);
+            for (int e = 0; e < count; e++) {
+                ControllerIndex controller = findByInstanceId(touchInts[e * 4 + 1]);
+                if (controller != null) {
+                    controller.onTouchpadEvent(touchInts[e * 4], touchInts[e * 4 + 2], touchInts[e * 4 + 3],
+                            touchFloats[e * 3], touchFloats[e * 3 + 1], touchNanos[e]);
+                }
+            }
+        } while (count == TOUCH_BATCH);
+    }
+
+    /**
+     * Applies the battery changes SDL reported, then asks at most one controller whose
+     * periodic power check is due, so the native calls spread out over frames.
+     */
+    private void updatePower(long now) {
+        int count;
+        do {
+            count = nativeTakeBatteryEvents(batteryEvents);
+            for (int e = 0; e < count; e++) {
+                ControllerIndex controller = findByInstanceId(batteryEvents[e * 3]);
+                if (controller != null) {
+                    controller.updatePower(batteryEvents[e * 3 + 1], batteryEvents[e * 3 + 2], now, powerListener);
+                }
+            }
+        } while (count == BATTERY_BATCH);
+
+        for (int n = 0; n < controllers.length; n++) {
+            int i = (powerSampleCursor + n) % controllers.length;
+            if (controllers[i].isPowerSampleDue(now)) {
+                controllers[i].samplePower(now, powerListener);
+                powerSampleCursor = i + 1;
+                return;
+            }
+        }
+    }
+
+    private native int nativeTakeBatteryEvents(int[] events); /*
+        SDL_Event taken[JAMEPAD_BATTERY_BATCH];
+        int count = SDL_PeepEvents(taken, JAMEPAD_BATTERY_BATCH, SDL_GETEVENT,
+                                   SDL_EVENT_JOYSTICK_BATTERY_UPDATED, SDL_EVENT_JOYSTICK_BATTERY_UPDATED);
+        for (int i = 0; i < count; i++) {
+            events[i * 3] = (jint) taken[i].jbattery.which;
+            events[i * 3 + 1] = (jint) taken[i].jbattery.state;
+            events[i * 3 + 2] = taken[i].jbattery.percent;
+        }
+        return count < 0 ? 0 : count;
+    */
+
+    /**
+     * Registers a listener for battery and charging changes of every controller of this
+     * manager. It is called from {@link #update()}.
+     *
+     * @param listener the listener, or null for none
+     */
+    public void setPowerListener(ControllerPowerListener listener) {
+        powerListener = listener;
+    }
+
+    /**
+     * Creates a virtual controller, which SDL treats like one that was just plugged in: it is
+     * assigned an index on the next {@link #update()} and read like any other controller from
+     * then on. Use it to test input handling without hardware, or to replay recorded input.
+     *
+     * <p>The controller stays until it is closed, or until {@link #quitSDLGamepad()}.
+     *
+     * @param descriptor what the controller looks like
+     * @return the virtual controller, to feed input to
+     * @throws IllegalStateException If SDL refuses to create it
+     */
+    public VirtualController createVirtualController(VirtualControllerDescriptor descriptor) {
+        verifyInitialized();
+        VirtualController controller = new VirtualController(this, descriptor);
+        virtualControllers.add(controller);
+        return controller;
+    }
+
+    void virtualControllerClosed(VirtualController controller) {
+        virtualControllers.remove(controller);
+    }
+
+    private ControllerIndex findByInstanceId(int instanceId) {
+        int slot = controllerSlots.get(instanceId);
+        return slot == InstanceIdMap.MISSING ? null : controllers[slot];
+    }
+
+    private native int nativeTakeTouchpadEvents(int[] ints, float[] floats, long[] nanos); /*
+        SDL_Event events[JAMEPAD_TOUCH_BATCH];
+        int count = SDL_PeepEvents(events, JAMEPAD_TOUCH_BATCH, SDL_GETEVENT,
+                                   SDL_EVENT_GAMEPAD_TOUCHPAD_DOWN, SDL_EVENT_GAMEPAD_TOUCHPAD_UP);
+        for (int i = 0; i < count; i++) {
+            const SDL_GamepadTouchpadEvent *event = &events[i].gtouchpad;
+            // 0 down, 1 motion, 2 up, matching TouchpadGestures
+            ints[i * 4] = (int) (event->type - SDL_EVENT_GAMEPAD_TOUCHPAD_DOWN);
+            ints[i * 4 + 1] = (int) event->which;
+            ints[i * 4 + 2] = event->touchpad;
+            ints[i * 4 + 3] = event->finger;
+            floats[i * 3] = event->x;
+            floats[i * 3 + 1] = event->y;
+            floats[i * 3 + 2] = event->pressure;
+            nanos[i] = (jlong) event->timestamp;
+        }
+        return count < 0 ? 0 : count;
+    */
+
+    private native int nativeTakeDeviceEvents(int[] events, boolean pump); /*
+        if (pump) {
+            SDL_UpdateGamepads();
+            SDL_PumpEvents();
+            // Button, axis and sensor events are read through the state getters and the input
+            // watch, which sees them as they are queued. Left on the queue they would fill it
+            // within minutes, after which SDL drops the touchpad, battery and device events.
+            SDL_FlushEvents(SDL_EVENT_JOYSTICK_AXIS_MOTION, SDL_EVENT_JOYSTICK_BUTTON_UP);
+            SDL_FlushEvent(SDL_EVENT_JOYSTICK_UPDATE_COMPLETE);
+            SDL_FlushEvents(SDL_EVENT_GAMEPAD_AXIS_MOTION, SDL_EVENT_GAMEPAD_BUTTON_UP);
+            SDL_FlushEvents(SDL_EVENT_GAMEPAD_SENSOR_UPDATE, SDL_EVENT_GAMEPAD_UPDATE_COMPLETE);
+        }
+
+        // Gamepads are joysticks too; their joystick events are left for the gamepad ones,
+        // except removals, which Java matches against the joystick slots by id.
+        SDL_Event taken[JAMEPAD_DEVICE_BATCH];
+        int count = SDL_PeepEvents(taken, JAMEPAD_DEVICE_BATCH, SDL_GETEVENT,
+                                   SDL_EVENT_JOYSTICK_ADDED, SDL_EVENT_JOYSTICK_REMOVED);
+        int found = 0;
+        for (int i = 0; i < count; i++) {
+            if (taken[i].type == SDL_EVENT_JOYSTICK_ADDED && !SDL_IsGamepad(taken[i].jdevice.which)) {
+                events[found * 2] = JAMEPAD_JOYSTICK_ADDED;
+                events[found * 2 + 1] = (jint) taken[i].jdevice.which;
+                found++;
+            } else if (taken[i].type == SDL_EVENT_JOYSTICK_REMOVED) {
+                events[found * 2] = JAMEPAD_JOYSTICK_REMOVED;
+                events[found * 2 + 1] = (jint) taken[i].jdevice.which;
+                found++;
+            }
+        }
+        if (found > 0) {
+            return found;
         }
 
-        return changed ? JNI_TRUE : JNI_FALSE;
+        count = SDL_PeepEvents(taken, JAMEPAD_DEVICE_BATCH, SDL_GETEVENT,
+                               SDL_EVENT_GAMEPAD_ADDED, SDL_EVENT_GAMEPAD_REMOVED);
+        found = 0;
+        for (int i = 0; i < count; i++) {
+            if (taken[i].type == SDL_EVENT_GAMEPAD_ADDED || taken[i].type == SDL_EVENT_GAMEPAD_REMOVED) {
+                events[found * 2] = taken[i].type == SDL_EVENT_GAMEPAD_ADDED
+                        ? JAMEPAD_GAMEPAD_ADDED : JAMEPAD_GAMEPAD_REMOVED;
+                events[found * 2 + 1] = (jint) taken[i].gdevice.which;
+                found++;
+            }
+        }
+        return found;
+    */
+
+    private native int nativeListGamepads(int[] ids, int capacity); /*
+        return jamepad_list_gamepads(ids, capacity);
     */
 
 
@@ -525,6 +1107,19 @@ public class ControllerManager {
      * @throws IllegalStateException if the mappings cannot be applied to SDL
      */
     public void addMappingsFromFile(String path) throws IOException, IllegalStateException {
+        JamepadEvents.MappingsLoad event = new JamepadEvents.MappingsLoad();
+        event.begin();
+        event.path = path;
+        event.inMemory = configuration.loadDatabaseInMemory;
+        try {
+            loadMappings(path);
+            event.success = true;
+        } finally {
+            event.commit();
+        }
+    }
+
+    private void loadMappings(String path) throws IOException, IllegalStateException {
         InputStream source = getClass().getResourceAsStream(path);
         if(source==null) source = ClassLoader.getSystemResourceAsStream(path);
         if(source==null && new File(path).exists()) source = new FileInputStream(path);
@@ -0,0 +1,240 @@
+package com.studiohartman.jamepad;
+
+import java.util.Arrays;
+
+/**
+ * The output side of one controller: the rumble, LED colour and adaptive trigger effects the
+ * game asked for, next to what was last actually sent.
+ *
+ * <p>Requests only update the desired state. {@link ControllerIndex} compares it with the sent
+ * state when it flushes, at most once per flush interval, so a game that sets the same LED
+ * colour or trigger effect every frame produces no traffic after the first write, and several
+ * changes within one interval go out as one.
+ *
+ * <p>Only used from the thread that drives the controller.
+ */
+final class ControllerOutput {
+    /** Effect mode plus ten parameter bytes, the layout of a DualSense trigger block. */
+    static final int TRIGGER_EFFECT_SIZE = 11;
+
+    /** The rumble channel of the two main motors. */
+    static final int MOTORS = 0;
+
+    /** The rumble channel of the trigger motors. */
+    static final int TRIGGERS = 1;
+
+    // A rumble that is only being extended is re-sent once it is this close to running out,
+    // rather than every time the game repeats it.
+    private static final long RUMBLE_EXTEND_AHEAD_NANOS = 100_000_000L;
+
+    private final long flushIntervalNanos;
+
+    private long lastFlushNanos = Long.MIN_VALUE / 2;
+
+    // Rumble state per channel, indexed by MOTORS and TRIGGERS. For the triggers "low" is
+    // the left one and "high" the right one.
+    final int[] rumbleLow = new int[2];
+
+    final int[] rumbleHigh = new int[2];
+
+    private final long[] rumbleUntilNanos = new long[2];
+
+    private final int[] sentRumbleLow = new int[2];
+
+    private final int[] sentRumbleHigh = new int[2];
+
+    private final long[] sentRumbleUntilNanos = new long[2];
+
+    private boolean ledRequested;
+
+    private boolean ledSent;
+
+    int ledRed;
+
+    int ledGreen;
+
+    int ledBlue;
+
+    private int sentLedRed;
+
+    private int sentLedGreen;
+
+    private int sentLedBlue;
+
+    private boolean triggersRequested;
+
+    private boolean triggersSent;
+
+    final byte[] leftTrigger = new byte[TRIGGER_EFFECT_SIZE];
+
+    final byte[] rightTrigger = new byte[TRIGGER_EFFECT_SIZE];
+
+    private final byte[] sentLeftTrigger = new byte[TRIGGER_EFFECT_SIZE];
+
+    private final byte[] sentRightTrigger = new byte[TRIGGER_EFFECT_SIZE];
+
+    private long reportsSent;
+
+    private long writesSuppressed;
+
+    private long writeFailures;
+
+    ControllerOutput(int flushIntervalMillis) {
+        this.flushIntervalNanos = flushIntervalMillis * 1_000_000L;
+    }
+
+    /**
+     * Forget everything; a freshly connected device is in an unknown state.
+     */
+    void reset() {
+        Arrays.fill(rumbleLow, 0);
+        Arrays.fill(rumbleHigh, 0);
+        Arrays.fill(rumbleUntilNanos, 0);
+        Arrays.fill(sentRumbleLow, 0);
+        Arrays.fill(sentRumbleHigh, 0);
+        Arrays.fill(sentRumbleUntilNanos, 0);
+        ledRequested = ledSent = false;
+        triggersRequested = triggersSent = false;
+        Arrays.fill(leftTrigger, (byte) 0);
+        Arrays.fill(rightTrigger, (byte) 0);
+        lastFlushNanos = Long.MIN_VALUE / 2;
+    }
+
+    /**
+     * @param channel {@link #MOTORS} or {@link #TRIGGERS}
+     * @param untilNanos when the rumble should stop, or {@link Long#MAX_VALUE} for never
+     */
+    void requestRumble(int channel, int low, int high, long untilNanos, long now) {
+        if (low == rumbleLow[channel] && high == rumbleHigh[channel] && untilNanos == rumbleUntilNanos[channel]) {
+            writesSuppressed++;
+            return;
+        }
+        if (isRumbleDirty(channel, now)) {
+            writesSuppressed++; // the pending request is overwritten before it went out
+        }
+        // The newest request decides when the rumble ends, even if that is sooner
+        rumbleUntilNanos[channel] = untilNanos;
+        rumbleLow[channel] = low;
+        rumbleHigh[channel] = high;
+    }
+
+    void requestLed(int red, int green, int blue) {
+        if (ledRequested && red == ledRed && green == ledGreen && blue == ledBlue) {
+            writesSuppressed++;
+            return;
+        }
+        if (isLedDirty()) {
+            writesSuppressed++;
+        }
+        ledRequested = true;
+        ledRed = red;
+        ledGreen = green;
+        ledBlue = blue;
+    }
+
+    /**
+     * @param left an 11 byte left trigger block
+     * @param right an 11 byte right trigger block
+     */
+    void requestTriggers(byte[] left, byte[] right) {
+        if (triggersRequested && Arrays.equals(left, leftTrigger) && Arrays.equals(right, rightTrigger)) {
+            writesSuppressed++;
+            return;
+        }
+        if (areTriggersDirty()) {
+            writesSuppressed++;
+        }
+        triggersRequested = true;
+        System.arraycopy(left, 0, leftTrigger, 0, TRIGGER_EFFECT_SIZE);
+        System.arraycopy(right, 0, rightTrigger, 0, TRIGGER_EFFECT_SIZE);
+    }
+
+    boolean isRumbleDirty(int channel, long now) {
+        boolean silent = rumbleLow[channel] == 0 && rumbleHigh[channel] == 0;
+        if (rumbleLow[channel] != sentRumbleLow[channel] || rumbleHigh[channel] != sentRumbleHigh[channel]) {
+            // A rumble that already ran out does not need stopping again
+            return !silent || sentRumbleUntilNanos[channel] > now;
+        }
+        if (silent) {
+            return false;
+        }
+        if (rumbleUntilNanos[channel] < sentRumbleUntilNanos[channel]) {
+            // Shortened; the device has to be told before the old end time
+            return sentRumbleUntilNanos[channel] > now;
+        }
+        return rumbleUntilNanos[channel] > sentRumbleUntilNanos[channel]
+                && sentRumbleUntilNanos[channel] - now < RUMBLE_EXTEND_AHEAD_NANOS;
+    }
+
+    boolean isLedDirty() {
+        return ledRequested && (!ledSent || ledRed != sentLedRed || ledGreen != sentLedGreen || ledBlue != sentLedBlue);
+    }
+
+    boolean areTriggersDirty() {
+        return triggersRequested && (!triggersSent
+                || !Arrays.equals(leftTrigger, sentLeftTrigger) || !Arrays.equals(rightTrigger, sentRightTrigger));
+    }
+
+    boolean hasPendingWrites(long now) {
+        return isRumbleDirty(MOTORS, now) || isRumbleDirty(TRIGGERS, now) || isLedDirty() || areTriggersDirty();
+    }
+
+    boolean isFlushDue(long now) {
+        return now - lastFlushNanos >= flushIntervalNanos;
+    }
+
+    /**
+     * @return the duration to hand to SDL_RumbleGamepad or SDL_RumbleGamepadTriggers, 0
+     * meaning until stopped
+     */
+    int rumbleDurationMillis(int channel, long now) {
+        if (rumbleUntilNanos[channel] == Long.MAX_VALUE) {
+            return 0;
+        }
+        return (int) Math.max(1, (rumbleUntilNanos[channel] - now + 999_999) / 1_000_000);
+    }
+
+    void rumbleSent(int channel) {
+        sentRumbleLow[channel] = rumbleLow[channel];
+        sentRumbleHigh[channel] = rumbleHigh[channel];
+        sentRumbleUntilNanos[channel] = rumbleUntilNanos[channel];
+        reportsSent++;
+    }
+
+    void ledSent(boolean ownReport) {
+        ledSent = true;
+        sentLedRed = ledRed;
+        sentLedGreen = ledGreen;
+        sentLedBlue = ledBlue;
+        if (ownReport) {
+            reportsSent++;
+        }
+    }
+
+    void triggersSent() {
+        triggersSent = true;
+        System.arraycopy(leftTrigger, 0, sentLeftTrigger, 0, TRIGGER_EFFECT_SIZE);
+        System.arraycopy(rightTrigger, 0, sentRightTrigger, 0, TRIGGER_EFFECT_SIZE);
+        reportsSent++;
+    }
+
+    void flushed(long now) {
+        lastFlushNanos = now;
+    }
+
+    void writeFailed() {
+        writeFailures++;
+    }
+
+    long getReportsSent() {
+        return reportsSent;
+    }
+
+    long getWritesSuppressed() {
+        return writesSuppressed;
+    }
+
+    long getWriteFailures() {
+        return writeFailures;
+    }
+}
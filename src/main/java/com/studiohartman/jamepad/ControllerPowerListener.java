@@ -0,0 +1,37 @@
+package com.studiohartman.jamepad;
+
+/**
+ * Receives power changes of the controllers of a {@link ControllerManager}. Register it with
+ * {@link ControllerManager#setPowerListener}.
+ *
+ * <p>The callbacks run on the thread that calls {@link ControllerManager#update()}, when SDL
+ * reports a battery change or when the periodic check of
+ * {@link Configuration#powerSampleIntervalMillis} finds one. Every method does nothing by
+ * default.
+ */
+public interface ControllerPowerListener {
+    /**
+     * The power state or the battery percentage changed. The other callbacks follow this one
+     * when they apply.
+     *
+     * @param percent the battery charge between 0 and 100, or -1 if unknown
+     */
+    default void onPowerChanged(ControllerIndex controller, ControllerPowerLevel level, int percent) {
+    }
+
+    /**
+     * The controller started or stopped charging.
+     */
+    default void onChargingChanged(ControllerIndex controller, boolean charging) {
+    }
+
+    /**
+     * The controller runs on battery and its charge dropped to
+     * {@link Configuration#lowBatteryPercent} or below. Reported once, until the charge goes
+     * back above that or the controller is plugged in.
+     *
+     * @param percent the battery charge between 0 and 100
+     */
+    default void onBatteryLow(ControllerIndex controller, int percent) {
+    }
+}
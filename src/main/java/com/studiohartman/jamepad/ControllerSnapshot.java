@@ -0,0 +1,105 @@
+package com.studiohartman.jamepad;
+
+import java.util.Arrays;
+
+/**
+ * A copy of a controller's sticks, triggers and buttons that any thread can take, filled by
+ * {@link ControllerIndex#readSnapshot(ControllerSnapshot)} or
+ * {@link ControllerManager#readSnapshot(int, ControllerSnapshot)}.
+ *
+ * <p>Only the thread that drives SDL may call into a {@link ControllerIndex}; everyone else
+ * reads what that thread published on its last {@link ControllerIndex#poll()}. A snapshot is
+ * always taken from a single poll, never half from one and half from the next.
+ *
+ * <p>A snapshot is meant to be reused: each read overwrites it, and the buttons that were held
+ * at the previous read are kept to tell which ones were just pressed. Keep one per reader
+ * thread; a snapshot itself is not thread-safe.
+ */
+public final class ControllerSnapshot {
+    private static final int AXES = ControllerAxis.values().length;
+
+    final float[] axes = new float[AXES];
+
+    int buttons;
+
+    private int previousButtons;
+
+    boolean connected;
+
+    long inputTimestamp;
+
+    long sequence;
+
+    /**
+     * Creates an empty, disconnected snapshot.
+     */
+    public ControllerSnapshot() {
+    }
+
+    /**
+     * Remembers the current buttons as the previous ones before a read overwrites them.
+     */
+    void beginRead() {
+        previousButtons = buttons;
+    }
+
+    /**
+     * Turns the snapshot into a disconnected one.
+     */
+    void clear() {
+        beginRead();
+        Arrays.fill(axes, 0);
+        buttons = 0;
+        connected = false;
+        inputTimestamp = 0;
+        sequence = 0;
+    }
+
+    /**
+     * @return whether the controller was connected when the snapshot was published
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * @param axis the axis to read
+     * @return the axis value, -1 to 1 for sticks and 0 to 1 for triggers
+     */
+    public float getAxisState(ControllerAxis axis) {
+        return axes[axis.getSdlValue()];
+    }
+
+    /**
+     * @param button the button to read
+     * @return whether the button was held down
+     */
+    public boolean isButtonPressed(ControllerButton button) {
+        return (buttons & (1 << button.getSdlValue())) != 0;
+    }
+
+    /**
+     * @param button the button to read
+     * @return whether the button is held now but was not at the previous read of this snapshot
+     */
+    public boolean isButtonJustPressed(ControllerButton button) {
+        int bit = 1 << button.getSdlValue();
+        return (buttons & bit) != 0 && (previousButtons & bit) == 0;
+    }
+
+    /**
+     * @return the time of the newest button or axis change, see
+     * {@link ControllerIndex#getInputTimestampNanos()}
+     */
+    public long getInputTimestamp() {
+        return inputTimestamp;
+    }
+
+    /**
+     * @return how many polls the controller had published when this snapshot was taken, or 0
+     * if none yet. Two reads with the same sequence hold the same data.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+}
@@ -267,6 +267,13 @@ public final class ControllerState implements Serializable {
     public final boolean touchpadButton;
     public final boolean touchpadButtonJustPressed;
 
+    /**
+     * When the newest button or axis change in this state happened, on the
+     * {@link System#nanoTime()} clock, or 0 if there was none since the controller connected.
+     * {@code System.nanoTime() - inputTimestamp} is how old the input is.
+     */
+    public final long inputTimestamp;
+
     /**
      * PS4/PS5 touchpad information for the finger with index 0.
      * If enhanced Sony controller features are
@@ -304,12 +311,31 @@ public final class ControllerState implements Serializable {
      */
     static ControllerState getInstanceFromController(ControllerIndex c) {
         try {
-            return new ControllerState(c);
+            return new ControllerState(c, true);
+        } catch (ControllerUnpluggedException e) {
+            return DISCONNECTED_CONTROLLER;
+        }
+    }
+
+    /**
+     * Same as {@link #getInstanceFromController(ControllerIndex)} for a controller whose
+     * gamepad state SDL already updated, so it is not polled again.
+     */
+    static ControllerState getInstanceFromUpdatedController(ControllerIndex c) {
+        try {
+            return new ControllerState(c, false);
         } catch (ControllerUnpluggedException e) {
             return DISCONNECTED_CONTROLLER;
         }
     }
 
+    /**
+     * Return a controller state rebuilt from a frame decoded by {@link ControllerStateCodec}.
+     */
+    static ControllerState getInstanceFromFrame(ControllerStateCodec.Frame frame) {
+        return new ControllerState(frame);
+    }
+
     /**
      * Return a ControllerState that represents a disconnected controller. This object is shared.
      *
@@ -319,10 +345,15 @@ public final class ControllerState implements Serializable {
         return DISCONNECTED_CONTROLLER;
     }
 
-    private ControllerState(ControllerIndex c) throws ControllerUnpluggedException {
+    private ControllerState(ControllerIndex c, boolean poll) throws ControllerUnpluggedException {
         isConnected = true;
-        c.poll();
+        if (poll) {
+            c.poll();
+        } else {
+            c.refresh();
+        }
         controllerType = c.getName();
+        inputTimestamp = c.getInputTimestampNanos();
         leftStickX = c.getAxisStateFast(ControllerAxis.LEFTX);
         leftStickY = c.getAxisStateFast(ControllerAxis.LEFTY);
         rightStickX = c.getAxisStateFast(ControllerAxis.RIGHTX);
@@ -381,10 +412,15 @@ public final class ControllerState implements Serializable {
 
         if(c.isUsingSonyControllerFeatures()) {
             if(c.isSupportingTouchpadData()) {
+                TouchpadState touchpads = c.getTouchpadStateFast();
                 touchStateFinger0 = new TouchState();
-                touchStateFinger0.update(c.getTouchpadFingerFast(0));
                 touchStateFinger1 = new TouchState();
-                touchStateFinger1.update(c.getTouchpadFingerFast(0));
+                if (touchpads.getNumFingers(0) > 0) {
+                    touchpads.copyTo(0, 0, touchStateFinger0);
+                }
+                if (touchpads.getNumFingers(0) > 1) {
+                    touchpads.copyTo(0, 1, touchStateFinger1);
+                }
             }
 
             if(c.isSupportingSensorData()) {
@@ -394,9 +430,168 @@ public final class ControllerState implements Serializable {
         }
     }
 
+    private ControllerState(ControllerStateCodec.Frame f) {
+        isConnected = true;
+        controllerType = ControllerStateCodec.DECODED_CONTROLLER_TYPE;
+        inputTimestamp = 0;
+        leftStickX = f.axes[ControllerAxis.LEFTX.getSdlValue()] / ControllerStateCodec.AXIS_SCALE;
+        leftStickY = f.axes[ControllerAxis.LEFTY.getSdlValue()] / ControllerStateCodec.AXIS_SCALE;
+        rightStickX = f.axes[ControllerAxis.RIGHTX.getSdlValue()] / ControllerStateCodec.AXIS_SCALE;
+        rightStickY = f.axes[ControllerAxis.RIGHTY.getSdlValue()] / ControllerStateCodec.AXIS_SCALE;
+        leftStickAngle = (float) Math.toDegrees(Math.atan2(leftStickY, leftStickX));
+        leftStickMagnitude = (float) Math.sqrt((leftStickX * leftStickX) + (leftStickY * leftStickY));
+        rightStickAngle = (float) Math.toDegrees(Math.atan2(rightStickY, rightStickX));
+        rightStickMagnitude = (float) Math.sqrt((rightStickX * rightStickX) + (rightStickY * rightStickY));
+        leftTrigger = f.axes[ControllerAxis.TRIGGERLEFT.getSdlValue()] / ControllerStateCodec.AXIS_SCALE;
+        rightTrigger = f.axes[ControllerAxis.TRIGGERRIGHT.getSdlValue()] / ControllerStateCodec.AXIS_SCALE;
+
+
+        leftStickJustClicked = isSet(f.justPressed, ControllerButton.LEFTSTICK);
+        rightStickJustClicked = isSet(f.justPressed, ControllerButton.RIGHTSTICK);
+        aJustPressed = isSet(f.justPressed, ControllerButton.A);
+        bJustPressed = isSet(f.justPressed, ControllerButton.B);
+        xJustPressed = isSet(f.justPressed, ControllerButton.X);
+        yJustPressed = isSet(f.justPressed, ControllerButton.Y);
+        lbJustPressed = isSet(f.justPressed, ControllerButton.LEFTBUMPER);
+        rbJustPressed = isSet(f.justPressed, ControllerButton.RIGHTBUMPER);
+        startJustPressed = isSet(f.justPressed, ControllerButton.START);
+        backJustPressed = isSet(f.justPressed, ControllerButton.BACK);
+        guideJustPressed = isSet(f.justPressed, ControllerButton.GUIDE);
+        dpadUpJustPressed = isSet(f.justPressed, ControllerButton.DPAD_UP);
+        dpadDownJustPressed = isSet(f.justPressed, ControllerButton.DPAD_DOWN);
+        dpadLeftJustPressed = isSet(f.justPressed, ControllerButton.DPAD_LEFT);
+        dpadRightJustPressed = isSet(f.justPressed, ControllerButton.DPAD_RIGHT);
+        misc1JustPressed = isSet(f.justPressed, ControllerButton.BUTTON_MISC1);
+        paddle1JustPressed = isSet(f.justPressed, ControllerButton.BUTTON_PADDLE1);
+        paddle2JustPressed = isSet(f.justPressed, ControllerButton.BUTTON_PADDLE2);
+        paddle3JustPressed = isSet(f.justPressed, ControllerButton.BUTTON_PADDLE3);
+        paddle4JustPressed = isSet(f.justPressed, ControllerButton.BUTTON_PADDLE4);
+        touchpadButtonJustPressed = isSet(f.justPressed, ControllerButton.BUTTON_TOUCHPAD);
+
+        leftStickClick = isSet(f.buttons, ControllerButton.LEFTSTICK);
+        rightStickClick = isSet(f.buttons, ControllerButton.RIGHTSTICK);
+        a = isSet(f.buttons, ControllerButton.A);
+        b = isSet(f.buttons, ControllerButton.B);
+        x = isSet(f.buttons, ControllerButton.X);
+        y = isSet(f.buttons, ControllerButton.Y);
+        lb = isSet(f.buttons, ControllerButton.LEFTBUMPER);
+        rb = isSet(f.buttons, ControllerButton.RIGHTBUMPER);
+        start = isSet(f.buttons, ControllerButton.START);
+        back = isSet(f.buttons, ControllerButton.BACK);
+        guide = isSet(f.buttons, ControllerButton.GUIDE);
+        dpadUp = isSet(f.buttons, ControllerButton.DPAD_UP);
+        dpadDown = isSet(f.buttons, ControllerButton.DPAD_DOWN);
+        dpadLeft = isSet(f.buttons, ControllerButton.DPAD_LEFT);
+        dpadRight = isSet(f.buttons, ControllerButton.DPAD_RIGHT);
+        misc1 = isSet(f.buttons, ControllerButton.BUTTON_MISC1);
+        paddle1 = isSet(f.buttons, ControllerButton.BUTTON_PADDLE1);
+        paddle2 = isSet(f.buttons, ControllerButton.BUTTON_PADDLE2);
+        paddle3 = isSet(f.buttons, ControllerButton.BUTTON_PADDLE3);
+        paddle4 = isSet(f.buttons, ControllerButton.BUTTON_PADDLE4);
+        touchpadButton = isSet(f.buttons, ControllerButton.BUTTON_TOUCHPAD);
+
+        if (f.hasTouch) {
+            touchStateFinger0 = decodeFinger(f, 0);
+            touchStateFinger1 = decodeFinger(f, 1);
+        }
+        if (f.hasSensor) {
+            long timestamp = f.sensorMicros * 1000;
+            sensorState = new SensorState(
+                    f.sensor[0] / ControllerStateCodec.ACCEL_SCALE, f.sensor[1] / ControllerStateCodec.ACCEL_SCALE,
+                    f.sensor[2] / ControllerStateCodec.ACCEL_SCALE, f.sensor[3] / ControllerStateCodec.GYRO_SCALE,
+                    f.sensor[4] / ControllerStateCodec.GYRO_SCALE, f.sensor[5] / ControllerStateCodec.GYRO_SCALE,
+                    timestamp, timestamp);
+        }
+    }
+
+    private static boolean isSet(int bits, ControllerButton button) {
+        return (bits & (1 << button.getSdlValue())) != 0;
+    }
+
+    private static TouchState decodeFinger(ControllerStateCodec.Frame f, int finger) {
+        return new TouchState(f.fingerDown[finger], f.fingerX[finger] / ControllerStateCodec.TOUCH_SCALE,
+                f.fingerY[finger] / ControllerStateCodec.TOUCH_SCALE,
+                f.fingerPressure[finger] / ControllerStateCodec.PRESSURE_SCALE);
+    }
+
+    /**
+     * Copies the stick and trigger values into an array indexed by SDL axis value.
+     */
+    void copyAxes(float[] axes) {
+        axes[ControllerAxis.LEFTX.getSdlValue()] = leftStickX;
+        axes[ControllerAxis.LEFTY.getSdlValue()] = leftStickY;
+        axes[ControllerAxis.RIGHTX.getSdlValue()] = rightStickX;
+        axes[ControllerAxis.RIGHTY.getSdlValue()] = rightStickY;
+        axes[ControllerAxis.TRIGGERLEFT.getSdlValue()] = leftTrigger;
+        axes[ControllerAxis.TRIGGERRIGHT.getSdlValue()] = rightTrigger;
+    }
+
+    /**
+     * @return the held buttons as a bit mask, bit i for the button with SDL value i
+     */
+    int getButtonBits() {
+        int bits = 0;
+        bits |= bit(leftStickClick, ControllerButton.LEFTSTICK);
+        bits |= bit(rightStickClick, ControllerButton.RIGHTSTICK);
+        bits |= bit(a, ControllerButton.A);
+        bits |= bit(b, ControllerButton.B);
+        bits |= bit(x, ControllerButton.X);
+        bits |= bit(y, ControllerButton.Y);
+        bits |= bit(lb, ControllerButton.LEFTBUMPER);
+        bits |= bit(rb, ControllerButton.RIGHTBUMPER);
+        bits |= bit(start, ControllerButton.START);
+        bits |= bit(back, ControllerButton.BACK);
+        bits |= bit(guide, ControllerButton.GUIDE);
+        bits |= bit(dpadUp, ControllerButton.DPAD_UP);
+        bits |= bit(dpadDown, ControllerButton.DPAD_DOWN);
+        bits |= bit(dpadLeft, ControllerButton.DPAD_LEFT);
+        bits |= bit(dpadRight, ControllerButton.DPAD_RIGHT);
+        bits |= bit(misc1, ControllerButton.BUTTON_MISC1);
+        bits |= bit(paddle1, ControllerButton.BUTTON_PADDLE1);
+        bits |= bit(paddle2, ControllerButton.BUTTON_PADDLE2);
+        bits |= bit(paddle3, ControllerButton.BUTTON_PADDLE3);
+        bits |= bit(paddle4, ControllerButton.BUTTON_PADDLE4);
+        bits |= bit(touchpadButton, ControllerButton.BUTTON_TOUCHPAD);
+        return bits;
+    }
+
+    /**
+     * @return the just pressed buttons as a bit mask, like {@link #getButtonBits()}
+     */
+    int getJustPressedBits() {
+        int bits = 0;
+        bits |= bit(leftStickJustClicked, ControllerButton.LEFTSTICK);
+        bits |= bit(rightStickJustClicked, ControllerButton.RIGHTSTICK);
+        bits |= bit(aJustPressed, ControllerButton.A);
+        bits |= bit(bJustPressed, ControllerButton.B);
+        bits |= bit(xJustPressed, ControllerButton.X);
+        bits |= bit(yJustPressed, ControllerButton.Y);
+        bits |= bit(lbJustPressed, ControllerButton.LEFTBUMPER);
+        bits |= bit(rbJustPressed, ControllerButton.RIGHTBUMPER);
+        bits |= bit(startJustPressed, ControllerButton.START);
+        bits |= bit(backJustPressed, ControllerButton.BACK);
+        bits |= bit(guideJustPressed, ControllerButton.GUIDE);
+        bits |= bit(dpadUpJustPressed, ControllerButton.DPAD_UP);
+        bits |= bit(dpadDownJustPressed, ControllerButton.DPAD_DOWN);
+        bits |= bit(dpadLeftJustPressed, ControllerButton.DPAD_LEFT);
+        bits |= bit(dpadRightJustPressed, ControllerButton.DPAD_RIGHT);
+        bits |= bit(misc1JustPressed, ControllerButton.BUTTON_MISC1);
+        bits |= bit(paddle1JustPressed, ControllerButton.BUTTON_PADDLE1);
+        bits |= bit(paddle2JustPressed, ControllerButton.BUTTON_PADDLE2);
+        bits |= bit(paddle3JustPressed, ControllerButton.BUTTON_PADDLE3);
+        bits |= bit(paddle4JustPressed, ControllerButton.BUTTON_PADDLE4);
+        bits |= bit(touchpadButtonJustPressed, ControllerButton.BUTTON_TOUCHPAD);
+        return bits;
+    }
+
+    private static int bit(boolean set, ControllerButton button) {
+        return set ? 1 << button.getSdlValue() : 0;
+    }
+
     private ControllerState() {
         isConnected = false;
         controllerType = "Not Connected";
+        inputTimestamp = 0;
         leftStickX = 0;
         leftStickY = 0;
         rightStickX = 0;
@@ -0,0 +1,454 @@
+package com.studiohartman.jamepad;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Packs {@link ControllerState}s into a few bytes each, for sending inputs over the network.
+ *
+ * <p>Buttons go out as bit masks and sticks and triggers as 16 bit integers, which is exactly
+ * the precision SDL reads them with. Touchpad fingers and motion sensors are optional blocks
+ * that are only written when the state has them. After the first frame, each frame only
+ * carries what changed since the one before, so a frame where nothing moved is one byte and
+ * one with a stick moving is typically four or five.
+ *
+ * <p>A codec remembers the previous frame, so use one per stream: one on the sending side
+ * for each controller, and a matching one on the receiving side. Frames must be decoded in
+ * the order they were encoded. When frames can get lost, send a keyframe with
+ * {@link #encodeKeyframe(ControllerState, ByteBuffer)} every so often; it does not depend on
+ * anything before it, and decoding one gets the receiving codec back in step.
+ *
+ * <p>What a decoded state does not carry:
+ * <ul>
+ *     <li>The controller name; {@link ControllerState#controllerType} is
+ *     {@link #DECODED_CONTROLLER_TYPE}</li>
+ *     <li>The position of a finger that is not touching the touchpad; it reads as 0</li>
+ *     <li>Separate accelerometer and gyroscope times; both are the newer of the two, to the
+ *     microsecond</li>
+ *     <li>Motion readings beyond 8 g or 2000 degrees per second, which are clamped</li>
+ * </ul>
+ *
+ * <p>Encoding writes straight into the caller's buffer and allocates nothing. Decoding creates
+ * the returned {@link ControllerState}.
+ */
+public final class ControllerStateCodec {
+    /**
+     * The most bytes one frame can take.
+     */
+    public static final int MAX_ENCODED_SIZE = 64;
+
+    /**
+     * The {@link ControllerState#controllerType} of decoded states.
+     */
+    public static final String DECODED_CONTROLLER_TYPE = "Remote Controller";
+
+    // Header bits
+    private static final int KEYFRAME = 0x01;
+    private static final int CONNECTED = 0x02;
+    private static final int BUTTONS = 0x04;
+    private static final int JUST_PRESSED = 0x08;
+    private static final int AXES = 0x10;
+    private static final int TOUCH = 0x20;
+    private static final int SENSOR = 0x40;
+
+    // Bits of the first byte of a touch block
+    private static final int TOUCH_PRESENT = 0x01;
+    private static final int FINGER_DOWN = 0x02; // shifted left by the finger index
+
+    static final int AXIS_COUNT = 6;
+    static final int FINGER_COUNT = 2;
+    static final int SENSOR_AXES = 6;
+
+    static final float AXIS_SCALE = 32767;
+    static final float TOUCH_SCALE = 65535;
+    static final float PRESSURE_SCALE = 255;
+    // 8 g and 2000 degrees per second fill the 16 bits
+    static final float ACCEL_SCALE = 32767 / (8 * 9.80665f);
+    static final float GYRO_SCALE = 32767 / (float) Math.toRadians(2000);
+
+    private final Frame previous = new Frame();
+
+    private final Frame current = new Frame();
+
+    // Whether previous holds a frame both sides agree on
+    private boolean primed;
+
+    /**
+     * Creates a codec that starts with a keyframe.
+     */
+    public ControllerStateCodec() {
+    }
+
+    /**
+     * Forgets the previous frame. The next frame encoded is a keyframe, and the next frame
+     * decoded must be one.
+     */
+    public void reset() {
+        primed = false;
+    }
+
+    /**
+     * Writes the changes since the previously encoded state, or a keyframe if this is the
+     * first state or the codec was reset.
+     *
+     * @param state the state to encode
+     * @param out the buffer to write to, from its position; needs at most
+     *            {@link #MAX_ENCODED_SIZE} bytes free
+     * @return how many bytes were written
+     * @throws java.nio.BufferOverflowException if the buffer fills up; the codec is then out
+     * of step and must be {@link #reset()}
+     */
+    public int encode(ControllerState state, ByteBuffer out) {
+        return encode(state, out, !primed);
+    }
+
+    /**
+     * Writes the whole state, independent of any earlier frame.
+     *
+     * @param state the state to encode
+     * @param out the buffer to write to, from its position; needs at most
+     *            {@link #MAX_ENCODED_SIZE} bytes free
+     * @return how many bytes were written
+     * @throws java.nio.BufferOverflowException if the buffer fills up; the codec is then out
+     * of step and must be {@link #reset()}
+     */
+    public int encodeKeyframe(ControllerState state, ByteBuffer out) {
+        return encode(state, out, true);
+    }
+
+    private int encode(ControllerState state, ByteBuffer out, boolean keyframe) {
+        int start = out.position();
+        current.quantize(state);
+        if (keyframe) {
+            previous.clear();
+        }
+
+        int header = 0;
+        if (keyframe) {
+            header |= KEYFRAME;
+        }
+        if (current.connected) {
+            header |= CONNECTED;
+        }
+        if (current.buttons != previous.buttons) {
+            header |= BUTTONS;
+        }
+        if (current.justPressed != 0) {
+            header |= JUST_PRESSED;
+        }
+        int changedAxes = 0;
+        for (int i = 0; i < AXIS_COUNT; i++) {
+            if (current.axes[i] != previous.axes[i]) {
+                changedAxes |= 1 << i;
+            }
+        }
+        if (changedAxes != 0) {
+            header |= AXES;
+        }
+        if (!current.touchEquals(previous)) {
+            header |= TOUCH;
+        }
+        if (!current.sensorEquals(previous)) {
+            header |= SENSOR;
+        }
+
+        out.put((byte) header);
+        if ((header & BUTTONS) != 0) {
+            putVarint(out, current.buttons ^ previous.buttons);
+        }
+        if ((header & JUST_PRESSED) != 0) {
+            putVarint(out, current.justPressed);
+        }
+        if (changedAxes != 0) {
+            out.put((byte) changedAxes);
+            for (int i = 0; i < AXIS_COUNT; i++) {
+                if ((changedAxes & (1 << i)) != 0) {
+                    putVarint(out, zigzag(current.axes[i] - previous.axes[i]));
+                }
+            }
+        }
+        if ((header & TOUCH) != 0) {
+            writeTouch(out);
+        }
+        if ((header & SENSOR) != 0) {
+            writeSensor(out);
+        }
+
+        previous.copyFrom(current);
+        primed = true;
+        return out.position() - start;
+    }
+
+    private void writeTouch(ByteBuffer out) {
+        int bits = current.hasTouch ? TOUCH_PRESENT : 0;
+        for (int f = 0; f < FINGER_COUNT; f++) {
+            if (current.fingerDown[f]) {
+                bits |= FINGER_DOWN << f;
+            }
+        }
+        out.put((byte) bits);
+        for (int f = 0; f < FINGER_COUNT; f++) {
+            if (current.fingerDown[f]) {
+                out.putShort((short) current.fingerX[f]);
+                out.putShort((short) current.fingerY[f]);
+                out.put((byte) current.fingerPressure[f]);
+            }
+        }
+    }
+
+    private void writeSensor(ByteBuffer out) {
+        out.put((byte) (current.hasSensor ? 1 : 0));
+        if (current.hasSensor) {
+            for (int i = 0; i < SENSOR_AXES; i++) {
+                out.putShort(current.sensor[i]);
+            }
+            putVarint(out, zigzag(current.sensorMicros - previous.sensorMicros));
+        }
+    }
+
+    /**
+     * Reads one frame and applies it to the previously decoded state.
+     *
+     * @param in the buffer to read from, from its position; the position ends up after the
+     *           frame
+     * @return the decoded state
+     * @throws IllegalStateException if the frame depends on a previous one but no keyframe
+     * was decoded since the codec was created or reset
+     * @throws java.nio.BufferUnderflowException if the frame is cut short; the codec is then
+     * out of step and must be {@link #reset()}
+     */
+    public ControllerState decode(ByteBuffer in) {
+        int header = in.get() & 0xFF;
+        if ((header & KEYFRAME) != 0) {
+            previous.clear();
+        } else if (!primed) {
+            throw new IllegalStateException("Cannot decode a delta frame before a keyframe");
+        }
+
+        current.copyFrom(previous);
+        current.connected = (header & CONNECTED) != 0;
+        if ((header & BUTTONS) != 0) {
+            current.buttons ^= (int) getVarint(in);
+        }
+        current.justPressed = (header & JUST_PRESSED) != 0 ? (int) getVarint(in) : 0;
+        if ((header & AXES) != 0) {
+            int changedAxes = in.get();
+            for (int i = 0; i < AXIS_COUNT; i++) {
+                if ((changedAxes & (1 << i)) != 0) {
+                    current.axes[i] = (short) (current.axes[i] + unzigzag(getVarint(in)));
+                }
+            }
+        }
+        if ((header & TOUCH) != 0) {
+            readTouch(in);
+        }
+        if ((header & SENSOR) != 0) {
+            readSensor(in);
+        }
+
+        previous.copyFrom(current);
+        primed = true;
+        return current.connected ? ControllerState.getInstanceFromFrame(current)
+                : ControllerState.getDisconnectedControllerInstance();
+    }
+
+    private void readTouch(ByteBuffer in) {
+        int bits = in.get();
+        current.hasTouch = (bits & TOUCH_PRESENT) != 0;
+        for (int f = 0; f < FINGER_COUNT; f++) {
+            current.fingerDown[f] = (bits & (FINGER_DOWN << f)) != 0;
+            if (current.fingerDown[f]) {
+                current.fingerX[f] = in.getShort() & 0xFFFF;
+                current.fingerY[f] = in.getShort() & 0xFFFF;
+                current.fingerPressure[f] = in.get() & 0xFF;
+            } else {
+                current.fingerX[f] = 0;
+                current.fingerY[f] = 0;
+                current.fingerPressure[f] = 0;
+            }
+        }
+    }
+
+    private void readSensor(ByteBuffer in) {
+        current.hasSensor = in.get() != 0;
+        if (current.hasSensor) {
+            for (int i = 0; i < SENSOR_AXES; i++) {
+                current.sensor[i] = in.getShort();
+            }
+            current.sensorMicros += unzigzag(getVarint(in));
+        } else {
+            Arrays.fill(current.sensor, (short) 0);
+            current.sensorMicros = 0;
+        }
+    }
+
+    private static void putVarint(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static void putVarint(ByteBuffer out, int value) {
+        putVarint(out, value & 0xFFFFFFFFL);
+    }
+
+    private static long getVarint(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed variable length integer");
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * One controller state in the form it goes over the wire.
+     */
+    static final class Frame {
+        boolean connected;
+
+        // Bit i is the button with SDL value i
+        int buttons;
+
+        int justPressed;
+
+        final short[] axes = new short[AXIS_COUNT];
+
+        boolean hasTouch;
+
+        final boolean[] fingerDown = new boolean[FINGER_COUNT];
+
+        final int[] fingerX = new int[FINGER_COUNT];
+
+        final int[] fingerY = new int[FINGER_COUNT];
+
+        final int[] fingerPressure = new int[FINGER_COUNT];
+
+        boolean hasSensor;
+
+        // Accelerometer x, y, z, then gyroscope x, y, z
+        final short[] sensor = new short[SENSOR_AXES];
+
+        long sensorMicros;
+
+        void clear() {
+            connected = false;
+            buttons = 0;
+            justPressed = 0;
+            Arrays.fill(axes, (short) 0);
+            hasTouch = false;
+            for (int f = 0; f < FINGER_COUNT; f++) {
+                fingerDown[f] = false;
+                fingerX[f] = 0;
+                fingerY[f] = 0;
+                fingerPressure[f] = 0;
+            }
+            hasSensor = false;
+            Arrays.fill(sensor, (short) 0);
+            sensorMicros = 0;
+        }
+
+        void copyFrom(Frame other) {
+            connected = other.connected;
+            buttons = other.buttons;
+            justPressed = other.justPressed;
+            System.arraycopy(other.axes, 0, axes, 0, AXIS_COUNT);
+            hasTouch = other.hasTouch;
+            for (int f = 0; f < FINGER_COUNT; f++) {
+                fingerDown[f] = other.fingerDown[f];
+                fingerX[f] = other.fingerX[f];
+                fingerY[f] = other.fingerY[f];
+                fingerPressure[f] = other.fingerPressure[f];
+            }
+            hasSensor = other.hasSensor;
+            System.arraycopy(other.sensor, 0, sensor, 0, SENSOR_AXES);
+            sensorMicros = other.sensorMicros;
+        }
+
+        boolean touchEquals(Frame other) {
+            if (hasTouch != other.hasTouch) {
+                return false;
+            }
+            for (int f = 0; f < FINGER_COUNT; f++) {
+                if (fingerDown[f] != other.fingerDown[f] || fingerX[f] != other.fingerX[f]
+                        || fingerY[f] != other.fingerY[f] || fingerPressure[f] != other.fingerPressure[f]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean sensorEquals(Frame other) {
+            if (hasSensor != other.hasSensor || sensorMicros != other.sensorMicros) {
+                return false;
+            }
+            for (int i = 0; i < SENSOR_AXES; i++) {
+                if (sensor[i] != other.sensor[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void quantize(ControllerState state) {
+            connected = state.isConnected;
+            buttons = state.getButtonBits();
+            justPressed = state.getJustPressedBits();
+            axes[ControllerAxis.LEFTX.getSdlValue()] = quantize(state.leftStickX, AXIS_SCALE);
+            axes[ControllerAxis.LEFTY.getSdlValue()] = quantize(state.leftStickY, AXIS_SCALE);
+            axes[ControllerAxis.RIGHTX.getSdlValue()] = quantize(state.rightStickX, AXIS_SCALE);
+            axes[ControllerAxis.RIGHTY.getSdlValue()] = quantize(state.rightStickY, AXIS_SCALE);
+            axes[ControllerAxis.TRIGGERLEFT.getSdlValue()] = quantize(state.leftTrigger, AXIS_SCALE);
+            axes[ControllerAxis.TRIGGERRIGHT.getSdlValue()] = quantize(state.rightTrigger, AXIS_SCALE);
+
+            hasTouch = state.touchStateFinger0 != null;
+            quantizeFinger(0, state.touchStateFinger0);
+            quantizeFinger(1, state.touchStateFinger1);
+
+            SensorState sensorState = state.sensorState;
+            hasSensor = sensorState != null;
+            if (hasSensor) {
+                sensor[0] = quantize(sensorState.getAccelX(), ACCEL_SCALE);
+                sensor[1] = quantize(sensorState.getAccelY(), ACCEL_SCALE);
+                sensor[2] = quantize(sensorState.getAccelZ(), ACCEL_SCALE);
+                sensor[3] = quantize(sensorState.getGyroX(), GYRO_SCALE);
+                sensor[4] = quantize(sensorState.getGyroY(), GYRO_SCALE);
+                sensor[5] = quantize(sensorState.getGyroZ(), GYRO_SCALE);
+                sensorMicros = sensorState.getTimestamp() / 1000;
+            } else {
+                Arrays.fill(sensor, (short) 0);
+                sensorMicros = 0;
+            }
+        }
+
+        private void quantizeFinger(int f, TouchState finger) {
+            fingerDown[f] = finger != null && finger.getState();
+            if (fingerDown[f]) {
+                fingerX[f] = Math.round(Math.max(0, Math.min(1, finger.getX())) * TOUCH_SCALE);
+                fingerY[f] = Math.round(Math.max(0, Math.min(1, finger.getY())) * TOUCH_SCALE);
+                fingerPressure[f] = Math.round(Math.max(0, Math.min(1, finger.getPressure())) * PRESSURE_SCALE);
+            } else {
+                fingerX[f] = 0;
+                fingerY[f] = 0;
+                fingerPressure[f] = 0;
+            }
+        }
+
+        static short quantize(float value, float scale) {
+            return (short) Math.max(-32767, Math.min(32767, Math.round(value * scale)));
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.studiohartman.jamepad;
+
+/**
+ * An attack/decay/sustain/release amplitude envelope, used to shape {@link HapticEffect}s.
+ *
+ * <p>The gain rises linearly from 0 to 1 over the attack, falls linearly to the sustain level
+ * over the decay, holds there for the sustain time and then falls linearly back to 0 over the
+ * release. Any stage may be zero length.
+ *
+ * <p>Instances are immutable.
+ */
+public final class Envelope {
+    private final float attackMillis;
+
+    private final float decayMillis;
+
+    private final float sustainLevel;
+
+    private final float sustainMillis;
+
+    private final float releaseMillis;
+
+    private Envelope(float attackMillis, float decayMillis, float sustainLevel, float sustainMillis,
+                     float releaseMillis) {
+        if (attackMillis < 0 || decayMillis < 0 || sustainMillis < 0 || releaseMillis < 0) {
+            throw new IllegalArgumentException("Envelope stages cannot be negative");
+        }
+        if (sustainLevel < 0 || sustainLevel > 1) {
+            throw new IllegalArgumentException("The sustain level must be between 0 and 1");
+        }
+        this.attackMillis = attackMillis;
+        this.decayMillis = decayMillis;
+        this.sustainLevel = sustainLevel;
+        this.sustainMillis = sustainMillis;
+        this.releaseMillis = releaseMillis;
+    }
+
+    /**
+     * @param attackMillis time to rise from silence to full level
+     * @param decayMillis time to fall from full level to the sustain level
+     * @param sustainLevel the level held after the decay, between 0 and 1
+     * @param sustainMillis how long the sustain level is held
+     * @param releaseMillis time to fall from the sustain level to silence
+     * @return the envelope
+     */
+    public static Envelope adsr(float attackMillis, float decayMillis, float sustainLevel,
+                                float sustainMillis, float releaseMillis) {
+        return new Envelope(attackMillis, decayMillis, sustainLevel, sustainMillis, releaseMillis);
+    }
+
+    /**
+     * @param durationMillis how long to stay at full level
+     * @return an envelope that is at full level for the given time and silent afterwards
+     */
+    public static Envelope constant(float durationMillis) {
+        return new Envelope(0, 0, 1, durationMillis, 0);
+    }
+
+    /**
+     * @return the time from the start of the attack to the end of the release
+     */
+    public float getDurationMillis() {
+        return attackMillis + decayMillis + sustainMillis + releaseMillis;
+    }
+
+    /**
+     * @param millis time since the start of the attack
+     * @return the gain at that time, between 0 and 1
+     */
+    public float gainAt(float millis) {
+        if (millis < 0) {
+            return 0;
+        }
+        if (millis < attackMillis) {
+            return millis / attackMillis;
+        }
+        millis -= attackMillis;
+        if (millis < decayMillis) {
+            return 1 - (1 - sustainLevel) * (millis / decayMillis);
+        }
+        millis -= decayMillis;
+        if (millis < sustainMillis) {
+            return sustainLevel;
+        }
+        millis -= sustainMillis;
+        if (millis < releaseMillis) {
+            return sustainLevel * (1 - millis / releaseMillis);
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,212 @@
+package com.studiohartman.jamepad;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A description of a DualSense haptic effect that a {@link HapticsSynthesizer} renders into the
+ * controller's 3kHz haptic audio stream.
+ *
+ * <p>An effect is one or more layers. Each layer is an impulse, a sine burst or a square burst
+ * on the left actuator, the right one or both, shaped by an {@link Envelope} and optionally
+ * delayed. {@link #mix} stacks effects into one; the layers are summed when rendered.
+ *
+ * <p>Effects are immutable and meant to be built once, for example when a level loads, and
+ * then fired as often as needed. Firing one allocates nothing.
+ */
+public final class HapticEffect {
+    /**
+     * Which of the two haptic actuators a layer drives.
+     */
+    public enum Channel {
+        LEFT(1),
+        RIGHT(2),
+        BOTH(3);
+
+        final int mask;
+
+        Channel(int mask) {
+            this.mask = mask;
+        }
+    }
+
+    static final int IMPULSE = 0;
+
+    static final int SINE = 1;
+
+    static final int SQUARE = 2;
+
+    static final int SAMPLE_RATE = 3000;
+
+    // A single cycle at this frequency reads as a crisp click on the DualSense actuators.
+    private static final float DEFAULT_IMPULSE_FREQUENCY = 150;
+
+    final int[] waveform;
+
+    final float[] frequency;
+
+    final float[] amplitude;
+
+    final int[] channels;
+
+    final int[] delayFrames;
+
+    final int[] lengthFrames;
+
+    final Envelope[] envelope;
+
+    private HapticEffect(int[] waveform, float[] frequency, float[] amplitude, int[] channels,
+                         int[] delayFrames, int[] lengthFrames, Envelope[] envelope) {
+        this.waveform = waveform;
+        this.frequency = frequency;
+        this.amplitude = amplitude;
+        this.channels = channels;
+        this.delayFrames = delayFrames;
+        this.lengthFrames = lengthFrames;
+        this.envelope = envelope;
+    }
+
+    private static HapticEffect layer(int waveform, float frequency, float amplitude, Envelope envelope) {
+        if (frequency <= 0 || frequency >= SAMPLE_RATE / 2f) {
+            throw new IllegalArgumentException("The frequency must be between 0 and " + (SAMPLE_RATE / 2) + " Hz");
+        }
+        if (amplitude < 0 || amplitude > 1) {
+            throw new IllegalArgumentException("The amplitude must be between 0 and 1");
+        }
+        Objects.requireNonNull(envelope);
+        return new HapticEffect(new int[] { waveform }, new float[] { frequency }, new float[] { amplitude },
+                new int[] { Channel.BOTH.mask }, new int[] { 0 },
+                new int[] { Math.max(1, Math.round(envelope.getDurationMillis() * SAMPLE_RATE / 1000f)) },
+                new Envelope[] { envelope });
+    }
+
+    /**
+     * @param amplitude the strength between 0 and 1
+     * @return a single click
+     */
+    public static HapticEffect impulse(float amplitude) {
+        return impulse(amplitude, DEFAULT_IMPULSE_FREQUENCY);
+    }
+
+    /**
+     * @param amplitude the strength between 0 and 1
+     * @param frequency the click is one sine cycle at this frequency, so lower is longer and
+     *                  softer
+     * @return a single click
+     */
+    public static HapticEffect impulse(float amplitude, float frequency) {
+        return layer(IMPULSE, frequency, amplitude, Envelope.constant(1000f / frequency));
+    }
+
+    /**
+     * @param frequency the frequency in Hz, below 1500
+     * @param amplitude the peak strength between 0 and 1
+     * @param durationMillis how long the burst lasts
+     * @return a sine burst at constant strength
+     */
+    public static HapticEffect sine(float frequency, float amplitude, float durationMillis) {
+        return sine(frequency, amplitude, Envelope.constant(durationMillis));
+    }
+
+    /**
+     * @param frequency the frequency in Hz, below 1500
+     * @param amplitude the peak strength between 0 and 1
+     * @param envelope the shape and length of the burst
+     * @return a sine burst
+     */
+    public static HapticEffect sine(float frequency, float amplitude, Envelope envelope) {
+        return layer(SINE, frequency, amplitude, envelope);
+    }
+
+    /**
+     * @param frequency the frequency in Hz, below 1500
+     * @param amplitude the peak strength between 0 and 1
+     * @param durationMillis how long the burst lasts
+     * @return a square burst at constant strength
+     */
+    public static HapticEffect square(float frequency, float amplitude, float durationMillis) {
+        return square(frequency, amplitude, Envelope.constant(durationMillis));
+    }
+
+    /**
+     * @param frequency the frequency in Hz, below 1500
+     * @param amplitude the peak strength between 0 and 1
+     * @param envelope the shape and length of the burst
+     * @return a square burst
+     */
+    public static HapticEffect square(float frequency, float amplitude, Envelope envelope) {
+        return layer(SQUARE, frequency, amplitude, envelope);
+    }
+
+    /**
+     * @param effects the effects to play together
+     * @return an effect holding the layers of all the given effects
+     */
+    public static HapticEffect mix(HapticEffect... effects) {
+        int count = 0;
+        for (HapticEffect effect : effects) {
+            count += effect.getLayerCount();
+        }
+
+        HapticEffect mixed = new HapticEffect(new int[count], new float[count], new float[count], new int[count],
+                new int[count], new int[count], new Envelope[count]);
+        int at = 0;
+        for (HapticEffect effect : effects) {
+            int layers = effect.getLayerCount();
+            System.arraycopy(effect.waveform, 0, mixed.waveform, at, layers);
+            System.arraycopy(effect.frequency, 0, mixed.frequency, at, layers);
+            System.arraycopy(effect.amplitude, 0, mixed.amplitude, at, layers);
+            System.arraycopy(effect.channels, 0, mixed.channels, at, layers);
+            System.arraycopy(effect.delayFrames, 0, mixed.delayFrames, at, layers);
+            System.arraycopy(effect.lengthFrames, 0, mixed.lengthFrames, at, layers);
+            System.arraycopy(effect.envelope, 0, mixed.envelope, at, layers);
+            at += layers;
+        }
+        return mixed;
+    }
+
+    /**
+     * @param channel the actuator to drive
+     * @return this effect with every layer moved onto the given actuator
+     */
+    public HapticEffect on(Channel channel) {
+        int[] moved = new int[getLayerCount()];
+        Arrays.fill(moved, channel.mask);
+        return new HapticEffect(waveform, frequency, amplitude, moved, delayFrames, lengthFrames, envelope);
+    }
+
+    /**
+     * @param millis how much later to start
+     * @return this effect with every layer starting the given time later
+     */
+    public HapticEffect delayed(float millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("The delay cannot be negative");
+        }
+        int frames = Math.round(millis * SAMPLE_RATE / 1000f);
+        int[] delays = new int[getLayerCount()];
+        for (int i = 0; i < delays.length; i++) {
+            delays[i] = delayFrames[i] + frames;
+        }
+        return new HapticEffect(waveform, frequency, amplitude, channels, delays, lengthFrames, envelope);
+    }
+
+    /**
+     * @return the number of layers, which is also the number of synthesizer voices the effect
+     * occupies while it plays
+     */
+    public int getLayerCount() {
+        return waveform.length;
+    }
+
+    /**
+     * @return the time from the start of the effect to the end of its last layer
+     */
+    public float getDurationMillis() {
+        int end = 0;
+        for (int i = 0; i < waveform.length; i++) {
+            end = Math.max(end, delayFrames[i] + lengthFrames[i]);
+        }
+        return end * 1000f / SAMPLE_RATE;
+    }
+}
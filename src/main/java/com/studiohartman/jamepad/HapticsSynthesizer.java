@@ -0,0 +1,301 @@
+package com.studiohartman.jamepad;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders {@link HapticEffect}s into the DualSense haptic audio stream of one controller, so
+ * game code can fire effects without ever building PCM itself.
+ *
+ * <p>Audio is rendered in small blocks on the haptics render thread of the
+ * {@link ControllerManager}, which never waits on device discovery, and queued through
+ * {@link ControllerIndex#sendHapticFeedbackAudio(ByteBuffer)}. The
+ * synthesizer only renders while fewer than {@code maxLatencyMillis} of audio are waiting, so
+ * an effect starts playing at most one block plus that much after {@link #play} is called.
+ * Nothing is queued while no effect is playing.
+ *
+ * <p>Every layer of a playing effect occupies one voice out of a fixed pool. {@link #play} and
+ * the rendering itself allocate nothing; the mixing loops work on flat float arrays that the
+ * JIT can vectorize.
+ *
+ * <p>The synthesizer follows its {@link ControllerIndex} across reconnects and is silent while
+ * no DualSense with haptics is connected there. {@link #play} may be called from any thread.
+ */
+public final class HapticsSynthesizer implements AutoCloseable {
+    private static final int SAMPLE_RATE = HapticEffect.SAMPLE_RATE;
+
+    private static final int DEFAULT_BLOCK_MILLIS = 10;
+
+    private static final int DEFAULT_MAX_LATENCY_MILLIS = 30;
+
+    private static final int MAX_VOICES = 32;
+
+    // Bounds how much a late tick may render at once, so a stalled thread does not turn into
+    // a burst of stale audio.
+    private static final int MAX_BLOCKS_PER_TICK = 4;
+
+    private final ControllerIndex controller;
+
+    private final int blockFrames;
+
+    private final int blockMillis;
+
+    private final int maxLatencyMillis;
+
+    private final ScheduledFuture<?> tick;
+
+    // Voice pool, one slot per playing effect layer. Guarded by "this".
+    private final HapticEffect[] voiceEffect = new HapticEffect[MAX_VOICES];
+
+    private final int[] voiceLayer = new int[MAX_VOICES];
+
+    private final int[] voiceFrame = new int[MAX_VOICES];
+
+    private final float[] voiceCos = new float[MAX_VOICES];
+
+    private final float[] voiceSin = new float[MAX_VOICES];
+
+    private final float[] voiceStepCos = new float[MAX_VOICES];
+
+    private final float[] voiceStepSin = new float[MAX_VOICES];
+
+    private int activeVoices;
+
+    // Render scratch, only touched by the render thread.
+    private final float[] wave;
+
+    private final float[] mixLeft;
+
+    private final float[] mixRight;
+
+    private final ByteBuffer pcm;
+
+    private volatile boolean closed;
+
+    // Whether the last tick queued audio, only touched by the render thread
+    private boolean streaming;
+
+    /**
+     * Creates a synthesizer that renders 10ms blocks and keeps at most 30ms queued.
+     *
+     * @param controller the controller to play on
+     * @throws IllegalStateException If the manager of the controller is not initialized
+     */
+    public HapticsSynthesizer(ControllerIndex controller) {
+        this(controller, DEFAULT_BLOCK_MILLIS, DEFAULT_MAX_LATENCY_MILLIS);
+    }
+
+    /**
+     * @param controller the controller to play on
+     * @param blockMillis how much audio to render at a time, and how often to check the queue
+     * @param maxLatencyMillis the most audio to keep queued ahead of playback; this must be at
+     *                         least one block
+     * @throws IllegalStateException If the manager of the controller is not initialized
+     */
+    public HapticsSynthesizer(ControllerIndex controller, int blockMillis, int maxLatencyMillis) {
+        if (blockMillis <= 0 || maxLatencyMillis < blockMillis) {
+            throw new IllegalArgumentException("The block must be positive and fit within the latency");
+        }
+        this.controller = controller;
+        this.blockMillis = blockMillis;
+        this.maxLatencyMillis = maxLatencyMillis;
+        this.blockFrames = blockMillis * SAMPLE_RATE / 1000;
+
+        wave = new float[blockFrames];
+        mixLeft = new float[blockFrames];
+        mixRight = new float[blockFrames];
+        pcm = ByteBuffer.allocateDirect(blockFrames * 4).order(ByteOrder.LITTLE_ENDIAN);
+
+        ScheduledExecutorService renderScheduler = controller.getRenderScheduler();
+        if (renderScheduler == null) {
+            throw new IllegalStateException("The SDL gamepad subsystem is not initialized!");
+        }
+        try {
+            tick = renderScheduler.scheduleAtFixedRate(this::tick, 0, blockMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // The manager quit and shut its render thread down
+            throw new IllegalStateException("The SDL gamepad subsystem is not initialized!", e);
+        }
+    }
+
+    /**
+     * Starts playing an effect. Effects already playing keep playing and are mixed with it.
+     *
+     * @param effect the effect to play
+     * @return false if there were not enough free voices for every layer of the effect, in
+     * which case nothing is played
+     */
+    public boolean play(HapticEffect effect) {
+        int layers = effect.getLayerCount();
+        synchronized (this) {
+            if (closed || activeVoices + layers > MAX_VOICES) {
+                return false;
+            }
+
+            int layer = 0;
+            for (int v = 0; v < MAX_VOICES && layer < layers; v++) {
+                if (voiceEffect[v] != null) {
+                    continue;
+                }
+                double step = 2 * Math.PI * effect.frequency[layer] / SAMPLE_RATE;
+                voiceEffect[v] = effect;
+                voiceLayer[v] = layer;
+                voiceFrame[v] = 0;
+                voiceCos[v] = 1;
+                voiceSin[v] = 0;
+                voiceStepCos[v] = (float) Math.cos(step);
+                voiceStepSin[v] = (float) Math.sin(step);
+                layer++;
+            }
+            activeVoices += layers;
+        }
+        return true;
+    }
+
+    /**
+     * Stops every playing effect. Audio that is already queued still plays out.
+     */
+    public synchronized void stopAll() {
+        Arrays.fill(voiceEffect, null);
+        activeVoices = 0;
+    }
+
+    /**
+     * @return the number of effect layers currently playing
+     */
+    public synchronized int getActiveVoices() {
+        return activeVoices;
+    }
+
+    /**
+     * Stops rendering. {@link ControllerManager#quitSDLGamepad()} stops every synthesizer as
+     * well.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        tick.cancel(false);
+        stopAll();
+    }
+
+    private void tick() {
+        if (closed || !controller.isSupportingHaptics()) {
+            return;
+        }
+
+        try {
+            for (int blocks = 0; blocks < MAX_BLOCKS_PER_TICK; blocks++) {
+                if (controller.getHapticFeedbackQueuedMillis() + blockMillis > maxLatencyMillis) {
+                    return;
+                }
+                synchronized (this) {
+                    if (activeVoices == 0) {
+                        if (streaming) {
+                            streaming = false;
+                            controller.hapticFeedbackIdle();
+                        }
+                        return;
+                    }
+                    renderBlock();
+                }
+                writePcm();
+                controller.sendHapticFeedbackAudio(pcm);
+                streaming = true;
+            }
+        } catch (ControllerUnpluggedException e) {
+            // Stay quiet until a controller shows up at the index again
+        }
+    }
+
+    private void renderBlock() {
+        Arrays.fill(mixLeft, 0);
+        Arrays.fill(mixRight, 0);
+
+        for (int v = 0; v < MAX_VOICES; v++) {
+            HapticEffect effect = voiceEffect[v];
+            if (effect == null) {
+                continue;
+            }
+
+            int layer = voiceLayer[v];
+            int frame = voiceFrame[v];
+            int start = effect.delayFrames[layer];
+            int end = start + effect.lengthFrames[layer];
+
+            // The part of this block the layer actually covers.
+            int from = Math.max(0, start - frame);
+            int to = Math.min(blockFrames, end - frame);
+            if (from < to) {
+                renderVoice(v, effect, layer, frame - start, from, to);
+                int channels = effect.channels[layer];
+                if ((channels & HapticEffect.Channel.LEFT.mask) != 0) {
+                    for (int i = from; i < to; i++) {
+                        mixLeft[i] += wave[i];
+                    }
+                }
+                if ((channels & HapticEffect.Channel.RIGHT.mask) != 0) {
+                    for (int i = from; i < to; i++) {
+                        mixRight[i] += wave[i];
+                    }
+                }
+            }
+
+            voiceFrame[v] = frame + blockFrames;
+            if (frame + blockFrames >= end) {
+                voiceEffect[v] = null;
+                activeVoices--;
+            }
+        }
+    }
+
+    private void renderVoice(int v, HapticEffect effect, int layer, int layerFrame, int from, int to) {
+        float cos = voiceCos[v];
+        float sin = voiceSin[v];
+        float stepCos = voiceStepCos[v];
+        float stepSin = voiceStepSin[v];
+
+        // The oscillator is a rotating phasor, which avoids a Math.sin per sample.
+        for (int i = from; i < to; i++) {
+            wave[i] = sin;
+            float nextCos = cos * stepCos - sin * stepSin;
+            sin = sin * stepCos + cos * stepSin;
+            cos = nextCos;
+        }
+        if (effect.waveform[layer] == HapticEffect.SQUARE) {
+            for (int i = from; i < to; i++) {
+                wave[i] = wave[i] >= 0 ? 1f : -1f;
+            }
+        }
+
+        // Rounding makes the phasor drift off the unit circle; pull it back once per block.
+        float norm = (float) (1 / Math.sqrt(cos * cos + sin * sin));
+        voiceCos[v] = cos * norm;
+        voiceSin[v] = sin * norm;
+
+        Envelope envelope = effect.envelope[layer];
+        float amplitude = effect.amplitude[layer];
+        float millisPerFrame = 1000f / SAMPLE_RATE;
+        // Sample i of the block is frame layerFrame + i of the layer
+        for (int i = from; i < to; i++) {
+            wave[i] *= amplitude * envelope.gainAt((layerFrame + i) * millisPerFrame);
+        }
+    }
+
+    private void writePcm() {
+        pcm.clear();
+        for (int i = 0; i < blockFrames; i++) {
+            pcm.putShort(toSample(mixLeft[i]));
+            pcm.putShort(toSample(mixRight[i]));
+        }
+        pcm.flip();
+    }
+
+    private static short toSample(float value) {
+        return (short) (Math.max(-1f, Math.min(1f, value)) * Short.MAX_VALUE);
+    }
+}
@@ -0,0 +1,277 @@
+package com.studiohartman.jamepad;
+
+/**
+ * The inputs of one controller for the last few game frames, for rollback netcode, which keeps
+ * re-reading past inputs and correcting them as the real remote ones arrive.
+ *
+ * <p>Each frame is stored as a button bit mask and the six axes at 16 bits, the precision SDL
+ * reads them with and the one {@link ControllerStateCodec} sends them at, so an input stored
+ * here compares equal to the same input after a trip over the network. Everything lives in
+ * primitive arrays allocated up front: 16 bytes a frame, however long the game runs, and
+ * nothing for the garbage collector. Reading or writing a frame costs the same however many
+ * frames are kept.
+ *
+ * <p>Frame numbers are the game's own, counting up from 0. A frame newer than any stored reads
+ * as a repeat of the newest stored input, the usual prediction for a remote player whose input
+ * has not arrived yet; before anything is stored, every frame reads as no input. Writing a
+ * frame newer than the newest stores that prediction for the frames skipped in between.
+ * {@link #overwrite(long, int, float[])} reports whether what a frame reads as changed, which
+ * is exactly when a rollback is needed:
+ * <pre>{@code
+ * if (remoteHistory.overwrite(frame, remoteState)) {
+ *     rollbackTo = Math.min(rollbackTo, frame);
+ * }
+ * }</pre>
+ *
+ * <p>A history is not thread-safe; use it from the thread that runs the game simulation.
+ */
+public final class InputHistory {
+    private static final int AXES = ControllerAxis.values().length;
+
+    private final int capacity;
+
+    private final int[] buttons;
+
+    // AXES entries per frame, indexed by SDL value
+    private final short[] axes;
+
+    private final float[] readAxes = new float[AXES];
+
+    private final short[] written = new short[AXES];
+
+    private long oldest = -1;
+
+    private long newest = -1;
+
+    /**
+     * @param capacity how many frames to keep, at least as many as the longest rollback
+     */
+    public InputHistory(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        buttons = new int[capacity];
+        axes = new short[capacity * AXES];
+    }
+
+    /**
+     * @return how many frames are kept
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the oldest frame that can still be read or written, or -1 if nothing is stored
+     */
+    public long getOldestFrame() {
+        return oldest;
+    }
+
+    /**
+     * @return the newest stored frame, or -1 if nothing is stored
+     */
+    public long getNewestFrame() {
+        return newest;
+    }
+
+    /**
+     * Forgets every frame.
+     */
+    public void clear() {
+        oldest = -1;
+        newest = -1;
+    }
+
+    /**
+     * Stores what the last {@link ControllerIndex#poll()} read as the input of a frame.
+     *
+     * @param frame the frame
+     * @param controller the controller to read
+     * @return whether the frame reads differently than before
+     * @throws ControllerUnpluggedException If the controller is not connected
+     * @throws IllegalArgumentException If the frame is negative or older than the oldest kept
+     */
+    public boolean record(long frame, ControllerIndex controller) throws ControllerUnpluggedException {
+        return overwrite(frame, controller.readInputState(readAxes), readAxes);
+    }
+
+    /**
+     * Stores a snapshot as the input of a frame.
+     *
+     * @param frame the frame
+     * @param snapshot the snapshot
+     * @return whether the frame reads differently than before
+     * @throws IllegalArgumentException If the frame is negative or older than the oldest kept
+     */
+    public boolean overwrite(long frame, ControllerSnapshot snapshot) {
+        return overwrite(frame, snapshot.buttons, snapshot.axes);
+    }
+
+    /**
+     * Stores a state, such as one {@link ControllerStateCodec} decoded, as the input of a frame.
+     *
+     * @param frame the frame
+     * @param state the state
+     * @return whether the frame reads differently than before
+     * @throws IllegalArgumentException If the frame is negative or older than the oldest kept
+     */
+    public boolean overwrite(long frame, ControllerState state) {
+        state.copyAxes(readAxes);
+        return overwrite(frame, state.getButtonBits(), readAxes);
+    }
+
+    /**
+     * Stores the input of a frame, or corrects it.
+     *
+     * @param frame the frame
+     * @param buttonBits the held buttons, bit i for the button with SDL value i
+     * @param axisValues the axis values, indexed by SDL value
+     * @return whether the frame reads differently than before
+     * @throws IllegalArgumentException If the frame is negative or older than the oldest kept
+     */
+    public boolean overwrite(long frame, int buttonBits, float[] axisValues) {
+        if (frame < 0) {
+            throw new IllegalArgumentException("Negative frame: " + frame);
+        }
+        for (int i = 0; i < AXES; i++) {
+            written[i] = ControllerStateCodec.Frame.quantize(axisValues[i], ControllerStateCodec.AXIS_SCALE);
+        }
+
+        if (newest < 0) {
+            oldest = frame;
+            newest = frame;
+            store(slot(frame), buttonBits);
+            return !isNeutral(buttonBits);
+        }
+        if (frame < oldest) {
+            throw new IllegalArgumentException("Frame " + frame + " is older than the oldest kept, " + oldest);
+        }
+        if (frame <= newest) {
+            int slot = slot(frame);
+            boolean changed = !matches(slot, buttonBits);
+            store(slot, buttonBits);
+            return changed;
+        }
+
+        // The newest input was the prediction for this frame and every one in between
+        int predicted = slot(newest);
+        boolean changed = !matches(predicted, buttonBits);
+        for (long skipped = Math.max(newest + 1, frame - capacity + 1); skipped < frame; skipped++) {
+            copy(predicted, slot(skipped));
+        }
+        store(slot(frame), buttonBits);
+        newest = frame;
+        oldest = Math.max(oldest, frame - capacity + 1);
+        return changed;
+    }
+
+    /**
+     * Reads the input of a frame.
+     *
+     * @param frame the frame
+     * @param axisValues where to write the axis values, indexed by SDL value
+     * @return the held buttons, bit i for the button with SDL value i, as
+     * {@link ActionMap#update(int, float[])} takes them
+     * @throws IllegalArgumentException If the frame is negative or older than the oldest kept
+     */
+    public int inputAt(long frame, float[] axisValues) {
+        int slot = find(frame);
+        if (slot < 0) {
+            for (int i = 0; i < AXES; i++) {
+                axisValues[i] = 0;
+            }
+            return 0;
+        }
+        for (int i = 0; i < AXES; i++) {
+            axisValues[i] = axes[slot * AXES + i] / ControllerStateCodec.AXIS_SCALE;
+        }
+        return buttons[slot];
+    }
+
+    /**
+     * @param frame the frame
+     * @return the held buttons in that frame, bit i for the button with SDL value i
+     * @throws IllegalArgumentException If the frame is negative or older than the oldest kept
+     */
+    public int buttonsAt(long frame) {
+        int slot = find(frame);
+        return slot < 0 ? 0 : buttons[slot];
+    }
+
+    /**
+     * @param frame the frame
+     * @param button the button
+     * @return whether the button was held in that frame
+     * @throws IllegalArgumentException If the frame is negative or older than the oldest kept
+     */
+    public boolean isPressedAt(long frame, ControllerButton button) {
+        return (buttonsAt(frame) & (1 << button.getSdlValue())) != 0;
+    }
+
+    /**
+     * @param frame the frame
+     * @param axis the axis
+     * @return the value of the axis in that frame
+     * @throws IllegalArgumentException If the frame is negative or older than the oldest kept
+     */
+    public float axisAt(long frame, ControllerAxis axis) {
+        int slot = find(frame);
+        return slot < 0 ? 0 : axes[slot * AXES + axis.getSdlValue()] / ControllerStateCodec.AXIS_SCALE;
+    }
+
+    /**
+     * @return the slot a frame reads from, or -1 for no input
+     */
+    private int find(long frame) {
+        if (frame < 0) {
+            throw new IllegalArgumentException("Negative frame: " + frame);
+        }
+        if (newest < 0) {
+            return -1;
+        }
+        if (frame < oldest) {
+            throw new IllegalArgumentException("Frame " + frame + " is older than the oldest kept, " + oldest);
+        }
+        return slot(Math.min(frame, newest));
+    }
+
+    private int slot(long frame) {
+        return (int) (frame % capacity);
+    }
+
+    private void store(int slot, int buttonBits) {
+        buttons[slot] = buttonBits;
+        System.arraycopy(written, 0, axes, slot * AXES, AXES);
+    }
+
+    private void copy(int from, int to) {
+        buttons[to] = buttons[from];
+        System.arraycopy(axes, from * AXES, axes, to * AXES, AXES);
+    }
+
+    private boolean matches(int slot, int buttonBits) {
+        if (buttons[slot] != buttonBits) {
+            return false;
+        }
+        for (int i = 0; i < AXES; i++) {
+            if (axes[slot * AXES + i] != written[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isNeutral(int buttonBits) {
+        if (buttonBits != 0) {
+            return false;
+        }
+        for (int i = 0; i < AXES; i++) {
+            if (written[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,98 @@
+package com.studiohartman.jamepad;
+
+import java.util.Arrays;
+
+/**
+ * Maps SDL instance ids to slot numbers without boxing, so looking up the controller an event
+ * belongs to costs the same however many controllers are attached.
+ *
+ * <p>Open addressing with linear probing. SDL never hands out instance id 0, so 0 marks a free
+ * entry; removal shifts later entries back instead of leaving tombstones.
+ */
+final class InstanceIdMap {
+    static final int MISSING = -1;
+
+    private int[] keys = new int[16];
+
+    private int[] values = new int[16];
+
+    private int size;
+
+    /**
+     * @return the slot of the instance id, or {@link #MISSING}
+     */
+    int get(int id) {
+        int mask = keys.length - 1;
+        for (int i = home(id, mask); keys[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == id) {
+                return values[i];
+            }
+        }
+        return MISSING;
+    }
+
+    void put(int id, int slot) {
+        if ((size + 1) * 2 > keys.length) {
+            grow();
+        }
+        int mask = keys.length - 1;
+        int i = home(id, mask);
+        while (keys[i] != 0 && keys[i] != id) {
+            i = (i + 1) & mask;
+        }
+        if (keys[i] == 0) {
+            size++;
+        }
+        keys[i] = id;
+        values[i] = slot;
+    }
+
+    void remove(int id) {
+        int mask = keys.length - 1;
+        int hole = home(id, mask);
+        while (keys[hole] != id) {
+            if (keys[hole] == 0) {
+                return;
+            }
+            hole = (hole + 1) & mask;
+        }
+
+        // Pull back every later entry of the probe run that may live in the hole
+        for (int i = (hole + 1) & mask; keys[i] != 0; i = (i + 1) & mask) {
+            if (((i - home(keys[i], mask)) & mask) >= ((i - hole) & mask)) {
+                keys[hole] = keys[i];
+                values[hole] = values[i];
+                hole = i;
+            }
+        }
+        keys[hole] = 0;
+        size--;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(keys, 0);
+        size = 0;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private static int home(int id, int mask) {
+        // Instance ids count up, so the low bits alone spread them well
+        return id & mask;
+    }
+}
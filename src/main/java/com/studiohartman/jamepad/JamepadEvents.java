@@ -0,0 +1,97 @@
+package com.studiohartman.jamepad;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * The JDK Flight Recorder events Jamepad emits, all in the "Jamepad" category.
+ *
+ * <p>Polls and updates only show up when they take at least a millisecond, which is where
+ * input stalls hide; lower the threshold in a custom JFR settings file to see every one.
+ * Output flushes are off by default because there can be hundreds per second.
+ */
+final class JamepadEvents {
+    private JamepadEvents() {
+    }
+
+    @Name("jamepad.Poll")
+    @Label("Controller Poll")
+    @Category("Jamepad")
+    @Description("ControllerIndex.poll(), which pumps SDL's gamepad state")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class Poll extends Event {
+        @Label("Controller Index")
+        int controllerIndex;
+    }
+
+    @Name("jamepad.Update")
+    @Label("Manager Update")
+    @Category("Jamepad")
+    @Description("ControllerManager.update(): hotplug check, event dispatch and output flushes")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class Update extends Event {
+        @Label("Hotplug")
+        boolean hotplug;
+
+        @Label("Controller Reads")
+        @Description("Controller reads since the previous update, each at least two JNI calls")
+        long controllerReads;
+    }
+
+    @Name("jamepad.Hotplug")
+    @Label("Hotplug")
+    @Category("Jamepad")
+    @Description("Giving added devices a free index and freeing the index of removed ones")
+    @StackTrace(false)
+    static final class Hotplug extends Event {
+        @Label("Connected Devices")
+        int connected;
+
+        @Label("Resync")
+        @Description("Whether the indexes were rebuilt from SDL's device lists, after missed events or for waiting devices")
+        boolean resync;
+    }
+
+    @Name("jamepad.MappingsLoad")
+    @Label("Mappings Load")
+    @Category("Jamepad")
+    @StackTrace(false)
+    static final class MappingsLoad extends Event {
+        @Label("Path")
+        String path;
+
+        @Label("In Memory")
+        boolean inMemory;
+
+        @Label("Success")
+        boolean success;
+    }
+
+    @Name("jamepad.OutputFlush")
+    @Label("Output Flush")
+    @Category("Jamepad")
+    @Description("Rumble, LED and trigger writes going out to one controller")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class OutputFlush extends Event {
+        @Label("Controller Index")
+        int controllerIndex;
+
+        @Label("Rumble")
+        boolean rumble;
+
+        @Label("LED")
+        boolean led;
+
+        @Label("Triggers")
+        boolean triggers;
+    }
+}
@@ -0,0 +1,235 @@
+package com.studiohartman.jamepad;
+
+/**
+ * Counters and timings for one {@link ControllerManager}, for telling whether an input stall
+ * comes from Jamepad or from the game. Get it with {@link ControllerManager#getMetrics()}, or
+ * through JMX when {@link Configuration#registerMetricsMBean} is set. The same timings also
+ * go to JDK Flight Recorder as events in the "Jamepad" category.
+ *
+ * <ul>
+ *     <li>Poll and update durations: {@link ControllerIndex#poll()} and
+ *     {@link ControllerManager#update()}</li>
+ *     <li>Controller reads: calls into a {@link ControllerIndex} that go to the native side,
+ *     each at least two JNI calls, in total and since the previous update</li>
+ *     <li>Hotplugs, how long the last one took, and how many fell back to a full resync of
+ *     the indexes</li>
+ *     <li>Motion sensor events SDL delivered against sensor reads by the game</li>
+ *     <li>Axis events dropped as noise, see {@link Configuration#axisEventThreshold}</li>
+ *     <li>Haptic queue depth per controller, and underruns and overflows of the haptics
+ *     channels currently open</li>
+ *     <li>Output reports sent, suppressed and failed, see {@link Configuration#outputFlushIntervalMillis}</li>
+ *     <li>How long loading the controller mappings took</li>
+ * </ul>
+ *
+ * <p>The counters are written by the thread that drives the controllers without any
+ * synchronization, so another thread may read slightly stale values.
+ */
+public final class JamepadMetrics implements JamepadMetricsMXBean {
+    private final LatencyHistogram pollNanos = new LatencyHistogram();
+
+    private final LatencyHistogram updateNanos = new LatencyHistogram();
+
+    private volatile ControllerIndex[] controllers = new ControllerIndex[0];
+
+    long controllerReads;
+
+    private long readsAtLastUpdate;
+
+    private long readsLastUpdate;
+
+    private long hotplugs;
+
+    private long lastHotplugNanos;
+
+    private long hotplugResyncs;
+
+    long sensorReads;
+
+    private long mappingsLoadNanos;
+
+    JamepadMetrics() {
+    }
+
+    void attach(ControllerIndex[] controllers) {
+        this.controllers = controllers;
+    }
+
+    void recordPoll(long nanos) {
+        pollNanos.record(nanos);
+    }
+
+    void recordUpdate(long nanos) {
+        updateNanos.record(nanos);
+        readsLastUpdate = controllerReads - readsAtLastUpdate;
+        readsAtLastUpdate = controllerReads;
+    }
+
+    void recordHotplug(long nanos, boolean resync) {
+        hotplugs++;
+        lastHotplugNanos = nanos;
+        if (resync) {
+            hotplugResyncs++;
+        }
+    }
+
+    void recordMappingsLoad(long nanos) {
+        mappingsLoadNanos = nanos;
+    }
+
+    /**
+     * @return the durations of {@link ControllerIndex#poll()}
+     */
+    public LatencyHistogram getPollHistogram() {
+        return pollNanos;
+    }
+
+    /**
+     * @return the durations of {@link ControllerManager#update()}
+     */
+    public LatencyHistogram getUpdateHistogram() {
+        return updateNanos;
+    }
+
+    @Override
+    public long getPollCount() {
+        return pollNanos.getCount();
+    }
+
+    @Override
+    public long getPollP50Nanos() {
+        return pollNanos.getPercentileNanos(50);
+    }
+
+    @Override
+    public long getPollP99Nanos() {
+        return pollNanos.getPercentileNanos(99);
+    }
+
+    @Override
+    public long getPollMaxNanos() {
+        return pollNanos.getMaxNanos();
+    }
+
+    @Override
+    public long getUpdateCount() {
+        return updateNanos.getCount();
+    }
+
+    @Override
+    public long getUpdateP99Nanos() {
+        return updateNanos.getPercentileNanos(99);
+    }
+
+    @Override
+    public long getUpdateMaxNanos() {
+        return updateNanos.getMaxNanos();
+    }
+
+    @Override
+    public long getControllerReads() {
+        return controllerReads;
+    }
+
+    @Override
+    public long getControllerReadsLastUpdate() {
+        return readsLastUpdate;
+    }
+
+    @Override
+    public long getHotplugCount() {
+        return hotplugs;
+    }
+
+    @Override
+    public long getLastHotplugNanos() {
+        return lastHotplugNanos;
+    }
+
+    @Override
+    public long getHotplugResyncCount() {
+        return hotplugResyncs;
+    }
+
+    @Override
+    public long getSensorEventsReceived() {
+        return ControllerIndex.getSensorEventsReceived();
+    }
+
+    @Override
+    public long getSensorReads() {
+        return sensorReads;
+    }
+
+    @Override
+    public long getAxisEventsSuppressed() {
+        return ControllerIndex.getAxisEventsSuppressed();
+    }
+
+    @Override
+    public int[] getHapticsQueuedMillis() {
+        ControllerIndex[] current = controllers;
+        int[] queued = new int[current.length];
+        for (int i = 0; i < current.length; i++) {
+            queued[i] = current[i] == null ? 0 : (int) current[i].readHapticsCounter(ControllerIndex.HAPTICS_QUEUED_MILLIS);
+        }
+        return queued;
+    }
+
+    @Override
+    public long getHapticsUnderruns() {
+        return sumHapticsCounter(ControllerIndex.HAPTICS_UNDERRUNS);
+    }
+
+    @Override
+    public long getHapticsOverflows() {
+        return sumHapticsCounter(ControllerIndex.HAPTICS_OVERFLOWS);
+    }
+
+    private long sumHapticsCounter(int counter) {
+        long sum = 0;
+        for (ControllerIndex controller : controllers) {
+            if (controller != null) {
+                sum += controller.readHapticsCounter(counter);
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public long getOutputReportsSent() {
+        long sum = 0;
+        for (ControllerIndex controller : controllers) {
+            if (controller != null) {
+                sum += controller.getOutputReportsSent();
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public long getOutputWritesSuppressed() {
+        long sum = 0;
+        for (ControllerIndex controller : controllers) {
+            if (controller != null) {
+                sum += controller.getOutputWritesSuppressed();
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public long getOutputWriteFailures() {
+        long sum = 0;
+        for (ControllerIndex controller : controllers) {
+            if (controller != null) {
+                sum += controller.getOutputWriteFailures();
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public long getMappingsLoadNanos() {
+        return mappingsLoadNanos;
+    }
+}
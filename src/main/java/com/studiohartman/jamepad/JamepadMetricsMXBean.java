@@ -0,0 +1,51 @@
+package com.studiohartman.jamepad;
+
+/**
+ * The management interface of {@link JamepadMetrics}, registered with the platform MBean
+ * server when {@link Configuration#registerMetricsMBean} is set.
+ */
+public interface JamepadMetricsMXBean {
+    long getPollCount();
+
+    long getPollP50Nanos();
+
+    long getPollP99Nanos();
+
+    long getPollMaxNanos();
+
+    long getUpdateCount();
+
+    long getUpdateP99Nanos();
+
+    long getUpdateMaxNanos();
+
+    long getControllerReads();
+
+    long getControllerReadsLastUpdate();
+
+    long getHotplugCount();
+
+    long getLastHotplugNanos();
+
+    long getHotplugResyncCount();
+
+    long getSensorEventsReceived();
+
+    long getSensorReads();
+
+    long getAxisEventsSuppressed();
+
+    int[] getHapticsQueuedMillis();
+
+    long getHapticsUnderruns();
+
+    long getHapticsOverflows();
+
+    long getOutputReportsSent();
+
+    long getOutputWritesSuppressed();
+
+    long getOutputWriteFailures();
+
+    long getMappingsLoadNanos();
+}
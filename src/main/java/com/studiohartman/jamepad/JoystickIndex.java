@@ -0,0 +1,441 @@
+package com.studiohartman.jamepad;
+
+/**
+ * A joystick SDL has no gamepad mapping for: wheels, pedals, flight sticks, throttles, arcade
+ * sticks and the like. These have no standard layout, so everything is read by raw index.
+ *
+ * <p>A JoystickIndex cannot be made from outside the Jamepad package; get one from
+ * {@link ControllerManager#getJoystickIndex(int)}. Like a {@link ControllerIndex} it stands
+ * for a slot that may or may not hold a device. {@link ControllerManager#update()} puts a new
+ * device in the first free slot, where it stays until it is unplugged.
+ * Devices that are gamepads show up as {@link ControllerIndex}es instead, never here.
+ *
+ * <p>Call {@link #poll()} once per frame, then read inputs one by one or all at once with
+ * {@link #readState(long[], short[], byte[], int[])}. The same threading rules as for
+ * {@link ControllerIndex} apply: only the thread driving the manager may use this.
+ */
+public final class JoystickIndex {
+    /*JNI
+    #include <SDL3/SDL.h>
+
+    static SDL_Joystick *jamepad_stick(jlong joystickPtr) {
+        return (SDL_Joystick *)(intptr_t) joystickPtr;
+    }
+
+    // Defined with ControllerIndex
+    void jamepad_read_joystick_state(SDL_Joystick *joystick, long long *buttonBits, int buttonWords,
+                                     short *axes, int axisCount, char *hats, int hatCount);
+    */
+
+    private final int index;
+
+    private final JamepadMetrics metrics;
+
+    private long joystickPtr;
+
+    // The device the manager put in this slot; it stays here until it is unplugged
+    private int assignedInstanceId;
+
+    private ControllerInfo info = ControllerInfo.DISCONNECTED;
+
+    private JoystickType type = JoystickType.UNKNOWN;
+
+    private int numButtons;
+
+    private int numAxes;
+
+    private int numHats;
+
+    private int numBalls;
+
+    JoystickIndex(int index, JamepadMetrics metrics) {
+        this.index = index;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Assigns a device to this slot and connects to it, closing whatever was here before.
+     *
+     * @param instanceId the SDL instance id of the joystick, or 0 to leave the slot empty
+     * @return whether the device could be opened
+     */
+    boolean open(int instanceId) {
+        close();
+        assignedInstanceId = instanceId;
+        connect();
+        return joystickPtr != 0;
+    }
+
+    /**
+     * @return the SDL instance id of the device assigned to this slot, or 0 if it is empty
+     */
+    int getAssignedInstanceId() {
+        return assignedInstanceId;
+    }
+
+    private void connect() {
+        joystickPtr = nativeOpen(assignedInstanceId);
+        if (joystickPtr == 0) {
+            info = ControllerInfo.DISCONNECTED;
+            type = JoystickType.UNKNOWN;
+            numButtons = 0;
+            numAxes = 0;
+            numHats = 0;
+            numBalls = 0;
+            return;
+        }
+
+        String name = nativeGetName(joystickPtr);
+        info = new ControllerInfo(
+                name == null ? "Unnamed Joystick" : name,
+                name == null ? "" : name,
+                nativeGetGuid(joystickPtr),
+                nativeGetVendorId(joystickPtr),
+                nativeGetProductId(joystickPtr),
+                nativeGetInstanceId(joystickPtr),
+                false);
+        type = JoystickType.fromSdlValue(nativeGetType(joystickPtr));
+        numButtons = nativeGetNumButtons(joystickPtr);
+        numAxes = nativeGetNumAxes(joystickPtr);
+        numHats = nativeGetNumHats(joystickPtr);
+        numBalls = nativeGetNumBalls(joystickPtr);
+    }
+
+    private native long nativeOpen(int instanceId); /*
+        if (instanceId == 0) {
+            return 0;
+        }
+        return (jlong)(intptr_t) SDL_OpenJoystick((SDL_JoystickID) instanceId);
+    */
+
+    /**
+     * Lists the instance ids of the connected joysticks that are not gamepads.
+     *
+     * @param ids receives as many ids as fit
+     * @return how many there are, which may be more than fit
+     */
+    static native int nativeListJoysticks(int[] ids, int capacity); /*
+        int count = 0;
+        SDL_JoystickID *all = SDL_GetJoysticks(&count);
+        if (all == NULL) {
+            return 0;
+        }
+
+        int joysticks = 0;
+        for (int i = 0; i < count; i++) {
+            if (!SDL_IsGamepad(all[i])) {
+                if (joysticks < capacity) {
+                    ids[joysticks] = (jint) all[i];
+                }
+                joysticks++;
+            }
+        }
+
+        SDL_free(all);
+        return joysticks;
+    */
+
+    /**
+     * Counts the connected joysticks that are not gamepads.
+     */
+    static native int nativeCountJoysticks(); /*
+        int count = 0;
+        SDL_JoystickID *ids = SDL_GetJoysticks(&count);
+        if (ids == NULL) {
+            return 0;
+        }
+
+        int joysticks = 0;
+        for (int i = 0; i < count; i++) {
+            if (!SDL_IsGamepad(ids[i])) {
+                joysticks++;
+            }
+        }
+
+        SDL_free(ids);
+        return joysticks;
+    */
+
+    private native String nativeGetName(long joystickPtr); /*
+        const char *name = SDL_GetJoystickName(jamepad_stick(joystickPtr));
+        return name == NULL ? NULL : env->NewStringUTF(name);
+    */
+
+    private native String nativeGetGuid(long joystickPtr); /*
+        char guid_str[33];
+        SDL_GUIDToString(SDL_GetJoystickGUID(jamepad_stick(joystickPtr)), guid_str, sizeof(guid_str));
+        return env->NewStringUTF(guid_str);
+    */
+
+    private native int nativeGetVendorId(long joystickPtr); /*
+        return SDL_GetJoystickVendor(jamepad_stick(joystickPtr));
+    */
+
+    private native int nativeGetProductId(long joystickPtr); /*
+        return SDL_GetJoystickProduct(jamepad_stick(joystickPtr));
+    */
+
+    private native int nativeGetInstanceId(long joystickPtr); /*
+        return (jint) SDL_GetJoystickID(jamepad_stick(joystickPtr));
+    */
+
+    private native int nativeGetType(long joystickPtr); /*
+        return (jint) SDL_GetJoystickType(jamepad_stick(joystickPtr));
+    */
+
+    private native int nativeGetNumButtons(long joystickPtr); /*
+        return SDL_GetNumJoystickButtons(jamepad_stick(joystickPtr));
+    */
+
+    private native int nativeGetNumAxes(long joystickPtr); /*
+        return SDL_GetNumJoystickAxes(jamepad_stick(joystickPtr));
+    */
+
+    private native int nativeGetNumHats(long joystickPtr); /*
+        return SDL_GetNumJoystickHats(jamepad_stick(joystickPtr));
+    */
+
+    private native int nativeGetNumBalls(long joystickPtr); /*
+        return SDL_GetNumJoystickBalls(jamepad_stick(joystickPtr));
+    */
+
+    /**
+     * Close the connection to this joystick.
+     */
+    public void close() {
+        if (joystickPtr != 0) {
+            nativeClose(joystickPtr);
+            joystickPtr = 0;
+        }
+        info = ControllerInfo.DISCONNECTED;
+        type = JoystickType.UNKNOWN;
+    }
+
+    private native void nativeClose(long joystickPtr); /*
+        SDL_CloseJoystick(jamepad_stick(joystickPtr));
+    */
+
+    /**
+     * Close and reconnect to the joystick held in this slot. There is no need to call this on
+     * hotplug: {@link ControllerManager#update()} opens new devices in free slots and empties
+     * the slots of devices that went away.
+     *
+     * @return whether or not the joystick could successfully reconnect.
+     */
+    public boolean reconnect() {
+        close();
+        connect();
+        return isConnected();
+    }
+
+    /**
+     * @return Whether or not a joystick is plugged in at this index.
+     */
+    public boolean isConnected() {
+        return joystickPtr != 0 && nativeIsConnected(joystickPtr);
+    }
+
+    private native boolean nativeIsConnected(long joystickPtr); /*
+        return SDL_JoystickConnected(jamepad_stick(joystickPtr)) ? JNI_TRUE : JNI_FALSE;
+    */
+
+    /**
+     * @return The index of this joystick slot.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Fetches the current state of every joystick from the device. Call this before reading
+     * inputs; the getters below return what the last poll fetched.
+     *
+     * @throws ControllerUnpluggedException If the joystick is not connected.
+     */
+    public void poll() throws ControllerUnpluggedException {
+        ensureConnected();
+        nativePoll();
+    }
+
+    private native void nativePoll(); /*
+        SDL_UpdateJoysticks();
+    */
+
+    /**
+     * Returns the name, GUID and USB ids of the joystick. {@link ControllerInfo#getName()} and
+     * {@link ControllerInfo#getDeviceName()} are both the name the device reports, and
+     * {@link ControllerInfo#isDualSense()} is always false.
+     *
+     * @return the device description of this joystick
+     * @throws ControllerUnpluggedException If the joystick is not connected.
+     */
+    public ControllerInfo getJoystickInfo() throws ControllerUnpluggedException {
+        ensureConnected();
+        return info;
+    }
+
+    /**
+     * @return what kind of device SDL believes this is
+     * @throws ControllerUnpluggedException If the joystick is not connected.
+     */
+    public JoystickType getType() throws ControllerUnpluggedException {
+        ensureConnected();
+        return type;
+    }
+
+    /**
+     * @return The number of buttons on this joystick.
+     * @throws ControllerUnpluggedException If the joystick is not connected.
+     */
+    public int getNumButtons() throws ControllerUnpluggedException {
+        ensureConnected();
+        return numButtons;
+    }
+
+    /**
+     * @return The number of axes on this joystick.
+     * @throws ControllerUnpluggedException If the joystick is not connected.
+     */
+    public int getNumAxes() throws ControllerUnpluggedException {
+        ensureConnected();
+        return numAxes;
+    }
+
+    /**
+     * @return The number of hats on this joystick.
+     * @throws ControllerUnpluggedException If the joystick is not connected.
+     */
+    public int getNumHats() throws ControllerUnpluggedException {
+        ensureConnected();
+        return numHats;
+    }
+
+    /**
+     * @return The number of trackballs on this joystick.
+     * @throws ControllerUnpluggedException If the joystick is not connected.
+     */
+    public int getNumBalls() throws ControllerUnpluggedException {
+        ensureConnected();
+        return numBalls;
+    }
+
+    /**
+     * @param buttonIndex The button index to check.
+     * @return {@code true} if the button is currently pressed.
+     * @throws ControllerUnpluggedException If the joystick is not connected.
+     */
+    public boolean isButtonPressed(int buttonIndex) throws ControllerUnpluggedException {
+        ensureConnected();
+        return nativeGetButton(joystickPtr, buttonIndex);
+    }
+
+    private native boolean nativeGetButton(long joystickPtr, int buttonIndex); /*
+        return SDL_GetJoystickButton(jamepad_stick(joystickPtr), buttonIndex) ? JNI_TRUE : JNI_FALSE;
+    */
+
+    /**
+     * @param axisIndex The axis index to read.
+     * @return The axis value, from -32768 to 32767.
+     * @throws ControllerUnpluggedException If the joystick is not connected.
+     */
+    public int getAxisState(int axisIndex) throws ControllerUnpluggedException {
+        ensureConnected();
+        return nativeGetAxis(joystickPtr, axisIndex);
+    }
+
+    private native int nativeGetAxis(long joystickPtr, int axisIndex); /*
+        return SDL_GetJoystickAxis(jamepad_stick(joystickPtr), axisIndex);
+    */
+
+    /**
+     * @param hatIndex The hat index to read.
+     * @return {@link ControllerIndex#HAT_CENTERED}, or a combination of the other
+     * {@code ControllerIndex.HAT_*} bits.
+     * @throws ControllerUnpluggedException If the joystick is not connected.
+     */
+    public int getHatState(int hatIndex) throws ControllerUnpluggedException {
+        ensureConnected();
+        return nativeGetHat(joystickPtr, hatIndex);
+    }
+
+    private native int nativeGetHat(long joystickPtr, int hatIndex); /*
+        return SDL_GetJoystickHat(jamepad_stick(joystickPtr), hatIndex);
+    */
+
+    /**
+     * Reads how far a trackball moved since it was last read, by this method or by
+     * {@link #readState(long[], short[], byte[], int[])}.
+     *
+     * @param ballIndex The trackball index to read.
+     * @param delta Receives the motion, x at index 0 and y at index 1.
+     * @return {@code true} if the motion could be read.
+     * @throws ControllerUnpluggedException If the joystick is not connected.
+     * @throws IllegalArgumentException If the delta array is shorter than two.
+     */
+    public boolean readBallDelta(int ballIndex, int[] delta) throws ControllerUnpluggedException {
+        ensureConnected();
+        if (delta.length < 2) {
+            throw new IllegalArgumentException("The delta array needs room for x and y");
+        }
+        return nativeGetBall(joystickPtr, ballIndex, delta);
+    }
+
+    private native boolean nativeGetBall(long joystickPtr, int ballIndex, int[] delta); /*
+        int dx = 0;
+        int dy = 0;
+        bool result = SDL_GetJoystickBall(jamepad_stick(joystickPtr), ballIndex, &dx, &dy);
+        delta[0] = dx;
+        delta[1] = dy;
+        return result ? JNI_TRUE : JNI_FALSE;
+    */
+
+    /**
+     * Reads every button, axis, hat and trackball of the joystick in one native call.
+     * <p>
+     * Button {@code i} is bit {@code i % 64} of {@code buttonBits[i / 64]}. Axes range from
+     * -32768 to 32767, and hats hold the {@code ControllerIndex.HAT_*} bits. Trackballs take
+     * two entries each, the x and y motion since they were last read. The arrays may be any
+     * size: inputs the joystick has beyond their length are left out, and entries beyond what
+     * the joystick has are set to zero. Size them with {@link #getNumButtons()} and friends,
+     * which do not call into SDL.
+     *
+     * @param buttonBits Receives the buttons, 64 per element.
+     * @param axes Receives the axes.
+     * @param hats Receives the hats.
+     * @param balls Receives the trackball motion, x and y per trackball.
+     * @throws ControllerUnpluggedException If the joystick is not connected.
+     */
+    public void readState(long[] buttonBits, short[] axes, byte[] hats, int[] balls) throws ControllerUnpluggedException {
+        ensureConnected();
+        nativeReadState(joystickPtr, buttonBits, buttonBits.length, axes, axes.length,
+                hats, hats.length, balls, balls.length / 2);
+        if (balls.length % 2 != 0) {
+            balls[balls.length - 1] = 0; // half a trackball
+        }
+    }
+
+    private native void nativeReadState(long joystickPtr, long[] buttonBits, int buttonWords,
+                                        short[] axes, int axisCount, byte[] hats, int hatCount,
+                                        int[] balls, int ballCount); /*
+        SDL_Joystick *joystick = jamepad_stick(joystickPtr);
+        jamepad_read_joystick_state(joystick, buttonBits, buttonWords, axes, axisCount, hats, hatCount);
+
+        int ballTotal = SDL_GetNumJoystickBalls(joystick);
+        for (int i = 0; i < ballCount; i++) {
+            int dx = 0;
+            int dy = 0;
+            if (i < ballTotal) {
+                SDL_GetJoystickBall(joystick, i, &dx, &dy);
+            }
+            balls[i * 2] = dx;
+            balls[i * 2 + 1] = dy;
+        }
+    */
+
+    private void ensureConnected() throws ControllerUnpluggedException {
+        metrics.controllerReads++;
+        if (!isConnected()) {
+            throw new ControllerUnpluggedException("Joystick at index " + index + " is not connected!");
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.studiohartman.jamepad;
+
+/**
+ * The kind of device behind a {@link JoystickIndex}, derived from enum SDL_JoystickType in
+ * SDL_joystick.h. SDL guesses this from the device's USB ids and descriptors, so many devices
+ * report {@link #UNKNOWN}.
+ */
+public enum JoystickType {
+    UNKNOWN(0),
+    GAMEPAD(1),
+    WHEEL(2),
+    ARCADE_STICK(3),
+    FLIGHT_STICK(4),
+    DANCE_PAD(5),
+    GUITAR(6),
+    DRUM_KIT(7),
+    ARCADE_PAD(8),
+    THROTTLE(9);
+
+    private static final JoystickType[] BY_SDL_VALUE = values();
+
+    private final int sdlValue;
+
+    JoystickType(int sdlValue) {
+        this.sdlValue = sdlValue;
+    }
+
+    /**
+     * @return the SDL_JoystickType value this constant corresponds to
+     */
+    public int getSdlValue() {
+        return sdlValue;
+    }
+
+    static JoystickType fromSdlValue(int sdlValue) {
+        return sdlValue >= 0 && sdlValue < BY_SDL_VALUE.length ? BY_SDL_VALUE[sdlValue] : UNKNOWN;
+    }
+}
@@ -0,0 +1,104 @@
+package com.studiohartman.jamepad;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in nanoseconds with one bucket per power of two.
+ *
+ * <p>Recording is a single atomic increment, cheap enough for every poll. Percentiles are only
+ * as precise as the buckets: a reported value is the upper bound of the bucket the percentile
+ * falls into, so it may be up to twice the true value.
+ *
+ * <p>Safe to record and read from different threads.
+ */
+public final class LatencyHistogram {
+    private static final int BUCKETS = 64;
+
+    // Bucket i holds durations in [2^(i-1), 2^i), bucket 0 holds zero and negative ones
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    LatencyHistogram() {
+    }
+
+    void record(long nanos) {
+        buckets.incrementAndGet(nanos <= 0 ? 0 : BUCKETS - Long.numberOfLeadingZeros(nanos));
+    }
+
+    /**
+     * Clears every bucket.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+    }
+
+    /**
+     * @return how many durations were recorded
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += buckets.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @param percentile the percentile between 0 and 100
+     * @return the upper bound of the bucket the percentile falls into, or 0 if nothing was
+     * recorded
+     */
+    public long getPercentileNanos(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("The percentile must be between 0 and 100");
+        }
+        long[] counts = snapshot();
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    /**
+     * @return the upper bound of the highest bucket that holds anything, or 0 if nothing was
+     * recorded
+     */
+    public long getMaxNanos() {
+        for (int i = BUCKETS - 1; i >= 0; i--) {
+            if (buckets.get(i) != 0) {
+                return upperBound(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the count of every bucket; bucket i holds durations from 2^(i-1) up to, but not
+     * including, 2^i nanoseconds
+     */
+    public long[] snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+        }
+        return counts;
+    }
+
+    private static long upperBound(int bucket) {
+        return bucket == 0 ? 0 : bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+}
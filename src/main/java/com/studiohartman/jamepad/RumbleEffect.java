@@ -0,0 +1,120 @@
+package com.studiohartman.jamepad;
+
+import java.util.Objects;
+
+/**
+ * A rumble effect that a {@link RumbleMixer} plays alongside others.
+ *
+ * <p>An effect drives the low and high frequency motors, and optionally the trigger motors, at
+ * fixed strengths shaped over time by an {@link Envelope}. A periodic effect additionally
+ * switches on and off at a fixed period.
+ *
+ * <p>Effects are immutable and can be played any number of times.
+ */
+public final class RumbleEffect {
+    final float low;
+
+    final float high;
+
+    final float leftTrigger;
+
+    final float rightTrigger;
+
+    final Envelope envelope;
+
+    final float periodMillis;
+
+    private RumbleEffect(float low, float high, float leftTrigger, float rightTrigger,
+                         Envelope envelope, float periodMillis) {
+        checkStrength(low);
+        checkStrength(high);
+        checkStrength(leftTrigger);
+        checkStrength(rightTrigger);
+        this.low = low;
+        this.high = high;
+        this.leftTrigger = leftTrigger;
+        this.rightTrigger = rightTrigger;
+        this.envelope = Objects.requireNonNull(envelope);
+        this.periodMillis = periodMillis;
+    }
+
+    private static void checkStrength(float strength) {
+        if (strength < 0 || strength > 1) {
+            throw new IllegalArgumentException("Rumble strengths must be between 0 and 1");
+        }
+    }
+
+    /**
+     * @param low the strength of the low frequency (left) motor, between 0 and 1
+     * @param high the strength of the high frequency (right) motor, between 0 and 1
+     * @param durationMillis how long the kick lasts
+     * @return a short kick at full strength
+     */
+    public static RumbleEffect impulse(float low, float high, float durationMillis) {
+        return new RumbleEffect(low, high, 0, 0, Envelope.constant(durationMillis), 0);
+    }
+
+    /**
+     * @param low the starting strength of the low frequency (left) motor, between 0 and 1
+     * @param high the starting strength of the high frequency (right) motor, between 0 and 1
+     * @param durationMillis how long it takes to fade out
+     * @return a rumble that starts at full strength and fades linearly to nothing
+     */
+    public static RumbleEffect decay(float low, float high, float durationMillis) {
+        return new RumbleEffect(low, high, 0, 0, Envelope.adsr(0, 0, 1, 0, durationMillis), 0);
+    }
+
+    /**
+     * @param low the strength of the low frequency (left) motor, between 0 and 1
+     * @param high the strength of the high frequency (right) motor, between 0 and 1
+     * @param periodMillis the length of one on/off cycle; the motors are on for the first half
+     * @param durationMillis how long the pulsing lasts
+     * @return a pulsing rumble
+     */
+    public static RumbleEffect periodic(float low, float high, float periodMillis, float durationMillis) {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("The period must be positive");
+        }
+        return new RumbleEffect(low, high, 0, 0, Envelope.constant(durationMillis), periodMillis);
+    }
+
+    /**
+     * @param low the peak strength of the low frequency (left) motor, between 0 and 1
+     * @param high the peak strength of the high frequency (right) motor, between 0 and 1
+     * @param envelope the shape and length of the effect
+     * @return a rumble shaped by the envelope
+     */
+    public static RumbleEffect shaped(float low, float high, Envelope envelope) {
+        return new RumbleEffect(low, high, 0, 0, envelope, 0);
+    }
+
+    /**
+     * Adds trigger motors to the effect. Only controllers that report trigger rumble, such as
+     * Xbox One and Series controllers, have them; elsewhere this part is silent.
+     *
+     * @param left the peak strength of the left trigger motor, between 0 and 1
+     * @param right the peak strength of the right trigger motor, between 0 and 1
+     * @return this effect, also driving the trigger motors
+     */
+    public RumbleEffect withTriggers(float left, float right) {
+        return new RumbleEffect(low, high, left, right, envelope, periodMillis);
+    }
+
+    /**
+     * @return the time from the start of the effect to its end
+     */
+    public float getDurationMillis() {
+        return envelope.getDurationMillis();
+    }
+
+    /**
+     * @param millis time since the effect started
+     * @return the factor the strengths are scaled by at that time
+     */
+    float gainAt(float millis) {
+        if (periodMillis > 0 && millis % periodMillis >= periodMillis / 2) {
+            return 0;
+        }
+        return envelope.gainAt(millis);
+    }
+}
@@ -0,0 +1,122 @@
+package com.studiohartman.jamepad;
+
+import java.util.Arrays;
+
+/**
+ * Layers {@link RumbleEffect}s on one controller and sums them into the motor strengths.
+ *
+ * <p>{@link ControllerIndex#doVibration} can only hold one rumble at a time, so games end up
+ * issuing a stream of competing calls. With a mixer, each explosion, engine or footstep is
+ * played as its own effect and the mixer works out what the motors should do. The mix is
+ * evaluated once per tick from {@link ControllerManager#update()} and
+ * {@link ControllerIndex#poll()}, and only changed strengths go out to SDL, so the output
+ * traffic stays bounded no matter how many effects are playing.
+ *
+ * <p>The strengths are quantized to the 8 bit resolution the motors actually have, so slow
+ * fades do not produce a write every tick. While the mixer plays anything it owns the motors;
+ * calls to {@link ControllerIndex#doVibration} in between are overwritten by the next tick.
+ *
+ * <p>Get the mixer of a controller with {@link ControllerIndex#getRumbleMixer()}. Like the
+ * rest of {@link ControllerIndex} it is meant to be used from the thread that drives the
+ * controller.
+ */
+public final class RumbleMixer {
+    private static final int MAX_EFFECTS = 16;
+
+    private static final long TICK_NANOS = 16_000_000L;
+
+    // Each tick asks for a rumble that outlasts it, so the motors stop on their own soon after
+    // the game stops updating. Longer than the output stage's re-send margin, so an unchanged
+    // mix is only extended every few ticks.
+    private static final long HOLD_NANOS = 250_000_000L;
+
+    private final ControllerIndex controller;
+
+    private final RumbleEffect[] effects = new RumbleEffect[MAX_EFFECTS];
+
+    private final long[] startNanos = new long[MAX_EFFECTS];
+
+    private int playing;
+
+    private long lastTickNanos = Long.MIN_VALUE / 2;
+
+    // Whether the last tick left the motors running, so one stop follows the last effect
+    private boolean active;
+
+    RumbleMixer(ControllerIndex controller) {
+        this.controller = controller;
+    }
+
+    /**
+     * Starts playing an effect on top of whatever is already playing.
+     *
+     * @param effect the effect to play
+     * @return false if {@value #MAX_EFFECTS} effects are playing already, in which case
+     * nothing is played
+     */
+    public boolean play(RumbleEffect effect) {
+        for (int i = 0; i < MAX_EFFECTS; i++) {
+            if (effects[i] == null) {
+                effects[i] = effect;
+                startNanos[i] = System.nanoTime();
+                playing++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stops every playing effect. The motors stop with the next tick.
+     */
+    public void stopAll() {
+        Arrays.fill(effects, null);
+        playing = 0;
+    }
+
+    /**
+     * @return the number of effects currently playing
+     */
+    public int getPlayingEffects() {
+        return playing;
+    }
+
+    /**
+     * Sums the playing effects and hands the result to the output stage of the controller.
+     * Does nothing if less than a tick has passed since the last time.
+     */
+    void tick(long now) {
+        if (now - lastTickNanos < TICK_NANOS || (playing == 0 && !active)) {
+            return;
+        }
+        lastTickNanos = now;
+
+        float low = 0, high = 0, leftTrigger = 0, rightTrigger = 0;
+        for (int i = 0; i < MAX_EFFECTS; i++) {
+            RumbleEffect effect = effects[i];
+            if (effect == null) {
+                continue;
+            }
+            float millis = (now - startNanos[i]) / 1_000_000f;
+            if (millis >= effect.getDurationMillis()) {
+                effects[i] = null;
+                playing--;
+                continue;
+            }
+            float gain = effect.gainAt(millis);
+            low += effect.low * gain;
+            high += effect.high * gain;
+            leftTrigger += effect.leftTrigger * gain;
+            rightTrigger += effect.rightTrigger * gain;
+        }
+
+        controller.mixRumble(toMagnitude(low), toMagnitude(high),
+                toMagnitude(leftTrigger), toMagnitude(rightTrigger), now + HOLD_NANOS, now);
+        active = playing > 0;
+    }
+
+    private static int toMagnitude(float strength) {
+        int quantized = Math.round(Math.min(1f, strength) * 255);
+        return quantized * 257; // 255 * 257 = 65535
+    }
+}
@@ -0,0 +1,54 @@
+package com.studiohartman.jamepad;
+
+/**
+ * Maps SDL event timestamps, which count nanoseconds on SDL's own clock, onto
+ * {@link System#nanoTime()} so they can be compared with the game's frame times.
+ *
+ * <p>Both are monotonic clocks that tick at the same rate, so one offset relates them. It is
+ * measured by bracketing an SDL clock read with two {@code System.nanoTime()} calls and
+ * keeping the tightest of a few tries; the error is half of that bracket, well below a
+ * microsecond on a normal desktop.
+ */
+final class SdlClock {
+    /*JNI
+    #include <SDL3/SDL.h>
+    */
+
+    private static final int CALIBRATION_TRIES = 8;
+
+    private static volatile long offset;
+
+    private SdlClock() {
+    }
+
+    /**
+     * Measures the offset between the clocks. Must run while SDL is initialized.
+     */
+    static void calibrate() {
+        long best = Long.MAX_VALUE;
+        long bestOffset = 0;
+        for (int i = 0; i < CALIBRATION_TRIES; i++) {
+            long before = System.nanoTime();
+            long sdl = nativeGetTicksNS();
+            long after = System.nanoTime();
+            if (after - before < best) {
+                best = after - before;
+                bestOffset = before + (after - before) / 2 - sdl;
+            }
+        }
+        offset = bestOffset;
+    }
+
+    /**
+     * @param sdlNanos an SDL timestamp
+     * @return the same instant on the {@link System#nanoTime()} clock, or 0 if the timestamp
+     * is 0, which SDL uses for "never"
+     */
+    static long toNanoTime(long sdlNanos) {
+        return sdlNanos == 0 ? 0 : sdlNanos + offset;
+    }
+
+    private static native long nativeGetTicksNS(); /*
+        return (jlong) SDL_GetTicksNS();
+    */
+}
@@ -0,0 +1,306 @@
+package com.studiohartman.jamepad;
+
+import java.util.Arrays;
+
+/**
+ * Turns the accelerometer and gyroscope samples of one controller into a stream at an exact,
+ * fixed rate, for consumers such as motion models that were trained on uniform data.
+ *
+ * <p>Controllers report motion at their own, often jittery rates, and the two sensors do not
+ * report together. The resampler takes every sample SDL delivers, with its hardware timestamp,
+ * and treats each one as the reading for the time since the previous sample of that sensor.
+ * Each output frame is the average over its own period, so the integral of the stream is kept:
+ * summing gyroscope frames times the period gives the same rotation as integrating the raw
+ * samples, whatever the two rates are. Where a sensor sends nothing, its last reading holds.
+ *
+ * <p>Frames are {@value #FRAME_SIZE} floats, accelerometer X, Y and Z followed by gyroscope X,
+ * Y and Z, in the units of {@link SensorState}. A sensor the controller lacks reads 0.
+ *
+ * <p>Get the resampler of a controller with {@link ControllerIndex#getSensorResampler(float)};
+ * it needs {@link Configuration#useControllerMotionSensors}. New samples are taken in on each
+ * {@link ControllerIndex#poll()}, including the ones behind {@link ControllerManager#getState(int)}
+ * and {@link ControllerManager#getStates(ControllerState[])}, and frames wait until
+ * {@link #read(float[], int, int)} takes them. One resampler serves a controller, so read once
+ * per tick and hand the buffer to every consumer instead of resampling for each of them. Like
+ * the rest of {@link ControllerIndex} it is meant to be used from the thread that drives the
+ * controller.
+ */
+public final class SensorResampler {
+    /** Floats per frame. */
+    public static final int FRAME_SIZE = 6;
+
+    /** Samples taken from the native log per poll; must match JAMEPAD_SENSOR_LOG. */
+    static final int LOG_CAPACITY = 512;
+
+    private static final int ACCEL = 0;
+
+    private static final int GYRO = 1;
+
+    // Frames kept for the reader, at least this long
+    private static final long BUFFER_NANOS = 250_000_000L;
+
+    private static final int MIN_BUFFER_FRAMES = 64;
+
+    // SDL_SensorType values
+    private static final int SDL_SENSOR_ACCEL = 1;
+
+    private static final int SDL_SENSOR_GYRO = 2;
+
+    // Filled by the native side on each poll
+    final long[] logTimes = new long[LOG_CAPACITY];
+
+    final int[] logSensors = new int[LOG_CAPACITY];
+
+    final float[] logData = new float[LOG_CAPACITY * 3];
+
+    private float rate;
+
+    private double periodNanos;
+
+    private float[] frames;
+
+    private int capacity;
+
+    // Frames are numbered from 1; frame n covers the period that ends at origin + n periods
+    private boolean started;
+
+    private long origin;
+
+    private long nextRead = 1;
+
+    private long dropped;
+
+    private final Stream[] streams = { new Stream(ACCEL), new Stream(GYRO) };
+
+    SensorResampler(float rate) {
+        setRate(rate);
+    }
+
+    /**
+     * Changes the output rate and starts over, dropping frames not read yet.
+     */
+    void setRate(float rate) {
+        if (!(rate > 0)) {
+            throw new IllegalArgumentException("rate must be positive: " + rate);
+        }
+        this.rate = rate;
+        periodNanos = 1e9 / rate;
+        capacity = Math.max(MIN_BUFFER_FRAMES, (int) Math.ceil(BUFFER_NANOS / periodNanos));
+        frames = new float[capacity * FRAME_SIZE];
+        reset();
+    }
+
+    /**
+     * Starts over, for a new connection; the hardware clock of the new one is unrelated.
+     */
+    void reset() {
+        started = false;
+        nextRead = 1;
+        Arrays.fill(frames, 0);
+        for (Stream stream : streams) {
+            stream.reset();
+        }
+    }
+
+    /**
+     * @return the output rate in frames per second
+     */
+    public float getRate() {
+        return rate;
+    }
+
+    /**
+     * @return how many frames are ready to read
+     */
+    public int available() {
+        discardOverrun();
+        return (int) Math.max(0, completed() - nextRead + 1);
+    }
+
+    /**
+     * Takes the oldest ready frames, oldest first.
+     *
+     * @param buffer where to write the frames, {@value #FRAME_SIZE} floats each
+     * @param offset the index in the buffer of the first float to write
+     * @param maxFrames the most frames to take
+     * @return how many frames were written
+     */
+    public int read(float[] buffer, int offset, int maxFrames) {
+        int count = Math.min(available(), Math.min(maxFrames, (buffer.length - offset) / FRAME_SIZE));
+        for (int i = 0; i < count; i++) {
+            int slot = slot(nextRead + i);
+            System.arraycopy(frames, slot * FRAME_SIZE, buffer, offset + i * FRAME_SIZE, FRAME_SIZE);
+        }
+        nextRead += count;
+        return count;
+    }
+
+    /**
+     * The time the next frame to read ends at, on the hardware clock of
+     * {@link SensorState#getTimestamp()}. Each frame after it ends one period later.
+     *
+     * @return the end of the next frame, or 0 before the first sample arrived
+     */
+    public long getNextFrameTimestamp() {
+        discardOverrun();
+        return started ? frameEnd(nextRead) : 0;
+    }
+
+    /**
+     * @return how many frames were discarded because they were not read within the buffer,
+     * which holds at least a quarter of a second
+     */
+    public long getDroppedFrames() {
+        return dropped;
+    }
+
+    /**
+     * Takes in the samples the native side logged since the last poll.
+     *
+     * @param count how many entries of the log arrays are filled
+     */
+    void consume(int count) {
+        for (int i = 0; i < count; i++) {
+            Stream stream;
+            if (logSensors[i] == SDL_SENSOR_ACCEL) {
+                stream = streams[ACCEL];
+            } else if (logSensors[i] == SDL_SENSOR_GYRO) {
+                stream = streams[GYRO];
+            } else {
+                continue;
+            }
+
+            long time = logTimes[i];
+            if (!started) {
+                started = true;
+                origin = time;
+            }
+            stream.add(time, i * 3);
+        }
+
+        // A sensor that fell silent must not hold up the other one for good
+        long ahead = furthest();
+        for (Stream stream : streams) {
+            if (stream.started && ahead - stream.produced > capacity / 2) {
+                stream.holdUntil(ahead - capacity / 2);
+            }
+        }
+    }
+
+    private long completed() {
+        long completed = Long.MAX_VALUE;
+        for (Stream stream : streams) {
+            if (stream.started) {
+                completed = Math.min(completed, stream.produced);
+            }
+        }
+        return completed == Long.MAX_VALUE ? 0 : completed;
+    }
+
+    private long furthest() {
+        return Math.max(streams[ACCEL].produced, streams[GYRO].produced);
+    }
+
+    // The sensor that is ahead writes over the oldest frames first
+    private void discardOverrun() {
+        long overrun = furthest() - nextRead + 1 - capacity;
+        if (overrun > 0) {
+            nextRead += overrun;
+            dropped += overrun;
+        }
+    }
+
+    private long frameEnd(long frame) {
+        return origin + Math.round(frame * periodNanos);
+    }
+
+    private int slot(long frame) {
+        return (int) ((frame - 1) % capacity);
+    }
+
+    /**
+     * One sensor's part of the frames: integrates its samples over each frame period.
+     */
+    private final class Stream {
+        private final int column;
+
+        private boolean started;
+
+        // Frames this sensor has filled in
+        private long produced;
+
+        private long lastTime;
+
+        private final float[] last = new float[3];
+
+        // Integral of the current frame so far, in value nanoseconds
+        private final double[] sum = new double[3];
+
+        Stream(int index) {
+            this.column = index * 3;
+        }
+
+        void reset() {
+            started = false;
+            produced = 0;
+            for (int i = 0; i < 3; i++) {
+                last[i] = 0;
+                sum[i] = 0;
+            }
+        }
+
+        /**
+         * Counts the sample as this sensor's reading since its previous sample, or since the
+         * start of the frame if it is the first one.
+         */
+        void add(long time, int data) {
+            if (started && time - lastTime <= 0) {
+                return; // repeated or out of order
+            }
+            last[0] = logData[data];
+            last[1] = logData[data + 1];
+            last[2] = logData[data + 2];
+
+            long from = started ? lastTime : frameEnd(produced);
+            started = true;
+            lastTime = time;
+            integrateUntil(from, time);
+        }
+
+        /**
+         * Holds the last reading over frames up to the given one.
+         */
+        void holdUntil(long frame) {
+            long end = frameEnd(frame);
+            if (end - lastTime > 0) {
+                integrateUntil(lastTime, end);
+                lastTime = end;
+            }
+        }
+
+        private void integrateUntil(long from, long to) {
+            from = Math.max(from, frameEnd(produced));
+            while (to - from > 0) {
+                long end = frameEnd(produced + 1);
+                long until = Math.min(to, end);
+                long span = until - from;
+                for (int i = 0; i < 3; i++) {
+                    sum[i] += (double) last[i] * span;
+                }
+                from = until;
+                if (until == end) {
+                    finishFrame(end - frameEnd(produced));
+                }
+            }
+        }
+
+        private void finishFrame(long length) {
+            produced++;
+            int base = slot(produced) * FRAME_SIZE + column;
+            for (int i = 0; i < 3; i++) {
+                frames[base + i] = (float) (sum[i] / length);
+                sum[i] = 0;
+            }
+        }
+    }
+}
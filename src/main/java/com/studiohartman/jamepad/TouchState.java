@@ -10,16 +10,20 @@ public class TouchState {
 
     private float y;
 
+    private float pressure;
+
     TouchState() {
         this.state = false;
         this.x = 0;
         this.y = 0;
+        this.pressure = 0;
     }
 
-    TouchState(boolean state, float x, float y) {
+    TouchState(boolean state, float x, float y, float pressure) {
         this.state = state;
         this.x = x;
         this.y = y;
+        this.pressure = pressure;
     }
 
     public boolean getState() {
@@ -34,15 +38,25 @@ public class TouchState {
         return y;
     }
 
-    void update(boolean state, float x, float y){
+    /**
+     * @return how hard the finger presses, from 0 to 1, or 0 if the touchpad does not report
+     * pressure
+     */
+    public float getPressure() {
+        return pressure;
+    }
+
+    void update(boolean state, float x, float y, float pressure){
         this.state = state;
         this.x = x;
         this.y = y;
+        this.pressure = pressure;
     }
 
     void update(TouchState touchState) {
         this.state = touchState.state;
         this.x = touchState.x;
         this.y = touchState.y;
+        this.pressure = touchState.pressure;
     }
 }
@@ -0,0 +1,60 @@
+package com.studiohartman.jamepad;
+
+/**
+ * Receives the gestures recognized on the touchpad of a DualShock 4 or DualSense. Register it
+ * with {@link ControllerIndex#setTouchpadGestureListener}.
+ *
+ * <p>Gestures are recognized from the touchpad events SDL delivers, with their timestamps, so
+ * fast swipes are not missed between two frames. The callbacks run on the thread that calls
+ * {@link ControllerManager#update()}. Coordinates are normalized to 0..1 across the pad with
+ * the origin at the top left. Every method does nothing by default.
+ */
+public interface TouchpadGestureListener {
+    enum SwipeDirection {
+        LEFT,
+        RIGHT,
+        UP,
+        DOWN
+    }
+
+    /**
+     * A single finger touched and let go quickly without moving.
+     */
+    default void onTap(ControllerIndex controller, float x, float y) {
+    }
+
+    /**
+     * A second tap followed the first one quickly and close by. The first tap was reported
+     * through {@link #onTap} already.
+     */
+    default void onDoubleTap(ControllerIndex controller, float x, float y) {
+    }
+
+    /**
+     * A single finger moved fast and far, then let go.
+     *
+     * @param velocityX the horizontal speed at release, in pad widths per second
+     * @param velocityY the vertical speed at release, in pad heights per second
+     */
+    default void onSwipe(ControllerIndex controller, SwipeDirection direction, float velocityX, float velocityY) {
+    }
+
+    /**
+     * Two fingers moved apart or together.
+     *
+     * @param scale the distance between the fingers relative to when the pinch started
+     * @param centerX the horizontal middle between the fingers
+     * @param centerY the vertical middle between the fingers
+     */
+    default void onPinch(ControllerIndex controller, float scale, float centerX, float centerY) {
+    }
+
+    /**
+     * Two fingers moved together in the same direction.
+     *
+     * @param deltaX how far the fingers moved horizontally since the last call
+     * @param deltaY how far the fingers moved vertically since the last call
+     */
+    default void onScroll(ControllerIndex controller, float deltaX, float deltaY) {
+    }
+}
@@ -0,0 +1,240 @@
+package com.studiohartman.jamepad;
+
+/**
+ * Turns the touchpad event stream of one controller into gestures for a
+ * {@link TouchpadGestureListener}.
+ *
+ * <p>A gesture session runs from the first finger touching down to the last one lifting. A
+ * session that only ever had one finger can end in a tap or a swipe; once a second finger
+ * joins it becomes a pinch or a scroll, whichever movement shows first. Only the first
+ * touchpad is tracked. All state lives in fixed fields, so feeding events allocates nothing.
+ */
+final class TouchpadGestures {
+    static final int DOWN = 0;
+
+    static final int MOTION = 1;
+
+    static final int UP = 2;
+
+    private static final int MAX_FINGERS = 2;
+
+    private static final long TAP_MAX_NANOS = 200_000_000L;
+
+    private static final long DOUBLE_TAP_MAX_NANOS = 300_000_000L;
+
+    private static final float TAP_SLOP = 0.04f;
+
+    private static final float SWIPE_MIN_DISTANCE = 0.15f;
+
+    private static final float SWIPE_MIN_VELOCITY = 0.6f;
+
+    private static final float PINCH_SLOP = 0.04f;
+
+    private static final float SCROLL_SLOP = 0.03f;
+
+    // Weight of the newest sample in the smoothed velocity
+    private static final float VELOCITY_SMOOTHING = 0.5f;
+
+    private static final int MODE_NONE = 0;
+
+    private static final int MODE_PINCH = 1;
+
+    private static final int MODE_SCROLL = 2;
+
+    private final ControllerIndex controller;
+
+    private final TouchpadGestureListener listener;
+
+    private final boolean[] down = new boolean[MAX_FINGERS];
+
+    private final float[] startX = new float[MAX_FINGERS];
+
+    private final float[] startY = new float[MAX_FINGERS];
+
+    private final float[] lastX = new float[MAX_FINGERS];
+
+    private final float[] lastY = new float[MAX_FINGERS];
+
+    private final long[] lastNanos = new long[MAX_FINGERS];
+
+    private final float[] velocityX = new float[MAX_FINGERS];
+
+    private final float[] velocityY = new float[MAX_FINGERS];
+
+    private long sessionStartNanos;
+
+    private int fingersDown;
+
+    private boolean multiFinger;
+
+    private int twoFingerMode;
+
+    private float startDistance;
+
+    private float centerX;
+
+    private float centerY;
+
+    private long lastTapNanos = Long.MIN_VALUE / 2;
+
+    private float lastTapX;
+
+    private float lastTapY;
+
+    TouchpadGestures(ControllerIndex controller, TouchpadGestureListener listener) {
+        this.controller = controller;
+        this.listener = listener;
+    }
+
+    void reset() {
+        for (int i = 0; i < MAX_FINGERS; i++) {
+            down[i] = false;
+        }
+        fingersDown = 0;
+        multiFinger = false;
+        twoFingerMode = MODE_NONE;
+        lastTapNanos = Long.MIN_VALUE / 2;
+    }
+
+    /**
+     * @param type {@link #DOWN}, {@link #MOTION} or {@link #UP}
+     * @param nanos the event timestamp
+     */
+    void onEvent(int type, int touchpad, int finger, float x, float y, long nanos) {
+        if (touchpad != 0 || finger < 0 || finger >= MAX_FINGERS) {
+            return;
+        }
+
+        switch (type) {
+            case DOWN:
+                fingerDown(finger, x, y, nanos);
+                break;
+            case MOTION:
+                if (down[finger]) {
+                    fingerMoved(finger, x, y, nanos);
+                }
+                break;
+            case UP:
+                if (down[finger]) {
+                    fingerUp(finger, x, y, nanos);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void fingerDown(int finger, float x, float y, long nanos) {
+        if (down[finger]) {
+            return;
+        }
+        if (fingersDown == 0) {
+            sessionStartNanos = nanos;
+            multiFinger = false;
+            twoFingerMode = MODE_NONE;
+        }
+        down[finger] = true;
+        fingersDown++;
+        startX[finger] = lastX[finger] = x;
+        startY[finger] = lastY[finger] = y;
+        lastNanos[finger] = nanos;
+        velocityX[finger] = velocityY[finger] = 0;
+
+        if (fingersDown == MAX_FINGERS) {
+            multiFinger = true;
+            twoFingerMode = MODE_NONE;
+            startDistance = distance();
+            centerX = (lastX[0] + lastX[1]) / 2;
+            centerY = (lastY[0] + lastY[1]) / 2;
+        }
+    }
+
+    private void fingerMoved(int finger, float x, float y, long nanos) {
+        long dt = nanos - lastNanos[finger];
+        if (dt > 0) {
+            float seconds = dt / 1_000_000_000f;
+            velocityX[finger] += VELOCITY_SMOOTHING * ((x - lastX[finger]) / seconds - velocityX[finger]);
+            velocityY[finger] += VELOCITY_SMOOTHING * ((y - lastY[finger]) / seconds - velocityY[finger]);
+        }
+        lastX[finger] = x;
+        lastY[finger] = y;
+        lastNanos[finger] = nanos;
+
+        if (fingersDown == MAX_FINGERS) {
+            twoFingersMoved();
+        }
+    }
+
+    private void twoFingersMoved() {
+        float distance = distance();
+        float newCenterX = (lastX[0] + lastX[1]) / 2;
+        float newCenterY = (lastY[0] + lastY[1]) / 2;
+
+        if (twoFingerMode == MODE_NONE) {
+            if (Math.abs(distance - startDistance) > PINCH_SLOP) {
+                twoFingerMode = MODE_PINCH;
+            } else if (Math.hypot(newCenterX - centerX, newCenterY - centerY) > SCROLL_SLOP) {
+                twoFingerMode = MODE_SCROLL;
+            } else {
+                return;
+            }
+        }
+
+        if (twoFingerMode == MODE_PINCH) {
+            if (startDistance > 0) {
+                listener.onPinch(controller, distance / startDistance, newCenterX, newCenterY);
+            }
+        } else {
+            listener.onScroll(controller, newCenterX - centerX, newCenterY - centerY);
+        }
+        centerX = newCenterX;
+        centerY = newCenterY;
+    }
+
+    private void fingerUp(int finger, float x, float y, long nanos) {
+        // The up event repeats the last position; feeding that in would only drag the
+        // velocity towards zero.
+        if (x != lastX[finger] || y != lastY[finger]) {
+            fingerMoved(finger, x, y, nanos);
+        }
+        down[finger] = false;
+        fingersDown--;
+
+        if (fingersDown > 0 || multiFinger) {
+            return;
+        }
+
+        float dx = x - startX[finger];
+        float dy = y - startY[finger];
+        float moved = (float) Math.hypot(dx, dy);
+        float vx = velocityX[finger];
+        float vy = velocityY[finger];
+
+        if (moved < TAP_SLOP && nanos - sessionStartNanos <= TAP_MAX_NANOS) {
+            listener.onTap(controller, x, y);
+            if (nanos - lastTapNanos <= DOUBLE_TAP_MAX_NANOS
+                    && Math.hypot(x - lastTapX, y - lastTapY) < 2 * TAP_SLOP) {
+                listener.onDoubleTap(controller, x, y);
+                lastTapNanos = Long.MIN_VALUE / 2; // a third tap starts over
+            } else {
+                lastTapNanos = nanos;
+                lastTapX = x;
+                lastTapY = y;
+            }
+        } else if (moved >= SWIPE_MIN_DISTANCE && Math.hypot(vx, vy) >= SWIPE_MIN_VELOCITY) {
+            TouchpadGestureListener.SwipeDirection direction;
+            if (Math.abs(dx) >= Math.abs(dy)) {
+                direction = dx > 0 ? TouchpadGestureListener.SwipeDirection.RIGHT
+                        : TouchpadGestureListener.SwipeDirection.LEFT;
+            } else {
+                direction = dy > 0 ? TouchpadGestureListener.SwipeDirection.DOWN
+                        : TouchpadGestureListener.SwipeDirection.UP;
+            }
+            listener.onSwipe(controller, direction, vx, vy);
+        }
+    }
+
+    private float distance() {
+        return (float) Math.hypot(lastX[1] - lastX[0], lastY[1] - lastY[0]);
+    }
+}
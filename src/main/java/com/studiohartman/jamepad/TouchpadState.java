@@ -0,0 +1,119 @@
+package com.studiohartman.jamepad;
+
+import java.util.Arrays;
+
+/**
+ * Every finger on every touchpad of a controller, read in a single native call.
+ *
+ * <p>The fingers are stored flat in one float array, four values per finger (down, x, y and
+ * pressure), touchpad after touchpad. The layout is set up when the controller connects, so
+ * reading it allocates nothing. Coordinates run from 0 to 1 with the origin at the top left;
+ * pressure runs from 0 to 1 on pads that report it and is 0 elsewhere.
+ *
+ * <p>{@link ControllerIndex#getTouchpadState()} and {@link ControllerIndex#getTouchpadStateFast()}
+ * refill and return the same instance every time, from what the last poll picked up.
+ */
+public final class TouchpadState {
+    static final int FIELDS_PER_FINGER = 4;
+
+    private static final int DOWN = 0;
+
+    private static final int X = 1;
+
+    private static final int Y = 2;
+
+    private static final int PRESSURE = 3;
+
+    // Index of the first finger of each touchpad, plus the total finger count at the end
+    private int[] firstFinger = { 0 };
+
+    float[] fingers = new float[0];
+
+    TouchpadState() {
+    }
+
+    /**
+     * Sets up the layout for a newly connected controller and clears all fingers.
+     */
+    void reshape(int[] fingersPerTouchpad) {
+        int[] first = new int[fingersPerTouchpad.length + 1];
+        for (int i = 0; i < fingersPerTouchpad.length; i++) {
+            first[i + 1] = first[i] + fingersPerTouchpad[i];
+        }
+        firstFinger = first;
+        fingers = new float[first[fingersPerTouchpad.length] * FIELDS_PER_FINGER];
+    }
+
+    void clear() {
+        Arrays.fill(fingers, 0);
+    }
+
+    /**
+     * @return the number of touchpads, 0 if the controller has none
+     */
+    public int getNumTouchpads() {
+        return firstFinger.length - 1;
+    }
+
+    /**
+     * @param touchpad the touchpad index
+     * @return how many fingers the touchpad can track at once
+     */
+    public int getNumFingers(int touchpad) {
+        checkTouchpad(touchpad);
+        return firstFinger[touchpad + 1] - firstFinger[touchpad];
+    }
+
+    /**
+     * @param touchpad the touchpad index
+     * @return how many fingers are on the touchpad right now
+     */
+    public int getNumFingersDown(int touchpad) {
+        checkTouchpad(touchpad);
+        int down = 0;
+        for (int f = firstFinger[touchpad]; f < firstFinger[touchpad + 1]; f++) {
+            if (fingers[f * FIELDS_PER_FINGER + DOWN] != 0) {
+                down++;
+            }
+        }
+        return down;
+    }
+
+    public boolean isDown(int touchpad, int finger) {
+        return fingers[slot(touchpad, finger) + DOWN] != 0;
+    }
+
+    public float getX(int touchpad, int finger) {
+        return fingers[slot(touchpad, finger) + X];
+    }
+
+    public float getY(int touchpad, int finger) {
+        return fingers[slot(touchpad, finger) + Y];
+    }
+
+    public float getPressure(int touchpad, int finger) {
+        return fingers[slot(touchpad, finger) + PRESSURE];
+    }
+
+    /**
+     * Copies one finger into a {@link TouchState}.
+     */
+    void copyTo(int touchpad, int finger, TouchState touchState) {
+        int slot = slot(touchpad, finger);
+        touchState.update(fingers[slot + DOWN] != 0, fingers[slot + X], fingers[slot + Y], fingers[slot + PRESSURE]);
+    }
+
+    private int slot(int touchpad, int finger) {
+        checkTouchpad(touchpad);
+        if (finger < 0 || finger >= firstFinger[touchpad + 1] - firstFinger[touchpad]) {
+            throw new IndexOutOfBoundsException("Touchpad " + touchpad + " has no finger " + finger);
+        }
+        return (firstFinger[touchpad] + finger) * FIELDS_PER_FINGER;
+    }
+
+    private void checkTouchpad(int touchpad) {
+        if (touchpad < 0 || touchpad >= firstFinger.length - 1) {
+            throw new IndexOutOfBoundsException("No touchpad " + touchpad);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.studiohartman.jamepad;
+
+import java.util.Arrays;
+
+/**
+ * An adaptive trigger effect for the DualSense, ready to send with
+ * {@link ControllerIndex#sendAdaptiveTriggerEffects(TriggerEffect, TriggerEffect)}.
+ *
+ * <p>The factories cover the documented trigger modes. Trigger travel is split into ten zones,
+ * 0 at rest and 9 fully pulled, and strengths and amplitudes run from 1 (weakest) to 8
+ * (strongest); a strength of 0 gives {@link #OFF}. The encoding follows
+ * <a href="https://gist.github.com/Nielk1/6d54cc2c00d2201ccb8c2720ad7538db">Nielk1's notes</a>
+ * on the DualSense trigger protocol.
+ *
+ * <p>An effect is encoded once, when it is created, and the encoded form is what gets
+ * compared and sent. Build effects up front and send them as often as needed; sending
+ * allocates nothing, and re-sending what a trigger already has is skipped.
+ *
+ * <p>Instances are immutable.
+ */
+public final class TriggerEffect {
+    private static final int ZONES = 10;
+
+    private static final int MAX_STRENGTH = 8;
+
+    private static final byte MODE_OFF = 0x05;
+
+    private static final byte MODE_FEEDBACK = 0x21;
+
+    private static final byte MODE_WEAPON = 0x25;
+
+    private static final byte MODE_VIBRATION = 0x26;
+
+    /**
+     * No resistance at all.
+     */
+    public static final TriggerEffect OFF = new TriggerEffect(MODE_OFF);
+
+    // Mode byte followed by the ten parameter bytes of a DS5 trigger block
+    final byte[] block = new byte[ControllerOutput.TRIGGER_EFFECT_SIZE];
+
+    private TriggerEffect(byte mode) {
+        block[0] = mode;
+    }
+
+    /**
+     * Uniform resistance from a position to the end of the trigger travel.
+     *
+     * @param position the zone the resistance starts at, 0 to 9
+     * @param strength the resistance, 0 to 8
+     * @return the effect
+     */
+    public static TriggerEffect feedback(int position, int strength) {
+        checkRange(position, 0, ZONES - 1, "position");
+        checkRange(strength, 0, MAX_STRENGTH, "strength");
+        int[] strengths = new int[ZONES];
+        Arrays.fill(strengths, position, ZONES, strength);
+        return zoned(MODE_FEEDBACK, strengths, 0);
+    }
+
+    /**
+     * Resistance that differs per zone.
+     *
+     * @param strengths the resistance of each of the ten zones, 0 to 8
+     * @return the effect
+     */
+    public static TriggerEffect multiplePositionFeedback(int... strengths) {
+        checkZones(strengths);
+        return zoned(MODE_FEEDBACK, strengths, 0);
+    }
+
+    /**
+     * Resistance that changes linearly between two positions and holds the end strength after
+     * that.
+     *
+     * @param startPosition the zone the slope starts at, 0 to 8
+     * @param endPosition the zone the slope ends at, after the start and at most 9
+     * @param startStrength the resistance at the start, 1 to 8
+     * @param endStrength the resistance at the end, 1 to 8
+     * @return the effect
+     */
+    public static TriggerEffect slopeFeedback(int startPosition, int endPosition, int startStrength, int endStrength) {
+        checkRange(startPosition, 0, ZONES - 2, "startPosition");
+        checkRange(endPosition, startPosition + 1, ZONES - 1, "endPosition");
+        checkRange(startStrength, 1, MAX_STRENGTH, "startStrength");
+        checkRange(endStrength, 1, MAX_STRENGTH, "endStrength");
+        int[] strengths = new int[ZONES];
+        float slope = (endStrength - startStrength) / (float) (endPosition - startPosition);
+        for (int i = startPosition; i <= endPosition; i++) {
+            strengths[i] = Math.round(startStrength + slope * (i - startPosition));
+        }
+        Arrays.fill(strengths, endPosition + 1, ZONES, endStrength);
+        return zoned(MODE_FEEDBACK, strengths, 0);
+    }
+
+    /**
+     * Resistance between two positions that gives way with a snap, like the trigger of a gun.
+     *
+     * @param startPosition the zone the resistance starts at, 2 to 7
+     * @param endPosition the zone it gives way at, after the start and at most 8
+     * @param strength the resistance, 0 to 8
+     * @return the effect
+     */
+    public static TriggerEffect weapon(int startPosition, int endPosition, int strength) {
+        checkRange(startPosition, 2, 7, "startPosition");
+        checkRange(endPosition, startPosition + 1, 8, "endPosition");
+        checkRange(strength, 0, MAX_STRENGTH, "strength");
+        if (strength == 0) {
+            return OFF;
+        }
+        TriggerEffect effect = new TriggerEffect(MODE_WEAPON);
+        int zones = (1 << startPosition) | (1 << endPosition);
+        effect.block[1] = (byte) zones;
+        effect.block[2] = (byte) (zones >> 8);
+        effect.block[3] = (byte) (strength - 1);
+        return effect;
+    }
+
+    /**
+     * Vibration from a position to the end of the trigger travel.
+     *
+     * @param position the zone the vibration starts at, 0 to 9
+     * @param amplitude the strength of the vibration, 0 to 8
+     * @param frequency the frequency in Hz, 0 to 255
+     * @return the effect
+     */
+    public static TriggerEffect vibration(int position, int amplitude, int frequency) {
+        checkRange(position, 0, ZONES - 1, "position");
+        checkRange(amplitude, 0, MAX_STRENGTH, "amplitude");
+        int[] amplitudes = new int[ZONES];
+        Arrays.fill(amplitudes, position, ZONES, amplitude);
+        return multiplePositionVibration(frequency, amplitudes);
+    }
+
+    /**
+     * Vibration whose strength differs per zone.
+     *
+     * @param frequency the frequency in Hz, 0 to 255
+     * @param amplitudes the strength of the vibration in each of the ten zones, 0 to 8
+     * @return the effect
+     */
+    public static TriggerEffect multiplePositionVibration(int frequency, int... amplitudes) {
+        checkRange(frequency, 0, 255, "frequency");
+        checkZones(amplitudes);
+        if (frequency == 0) {
+            return OFF;
+        }
+        return zoned(MODE_VIBRATION, amplitudes, frequency);
+    }
+
+    /**
+     * An effect in any trigger mode, for modes the factories do not cover.
+     *
+     * @param mode the effect mode byte
+     * @param data up to ten parameter bytes; missing bytes are 0
+     * @return the effect
+     */
+    public static TriggerEffect raw(byte mode, byte... data) {
+        if (data.length > ZONES) {
+            throw new IllegalArgumentException("A trigger effect has at most " + ZONES + " parameter bytes");
+        }
+        TriggerEffect effect = new TriggerEffect(mode);
+        System.arraycopy(data, 0, effect.block, 1, data.length);
+        return effect;
+    }
+
+    // Feedback and vibration share a layout: a bit per active zone, then three bits of
+    // strength per zone, then (vibration only) the frequency.
+    private static TriggerEffect zoned(byte mode, int[] strengths, int frequency) {
+        int activeZones = 0;
+        int strengthZones = 0;
+        for (int i = 0; i < ZONES; i++) {
+            if (strengths[i] > 0) {
+                activeZones |= 1 << i;
+                strengthZones |= ((strengths[i] - 1) & 0x07) << (3 * i);
+            }
+        }
+        if (activeZones == 0) {
+            return OFF;
+        }
+
+        TriggerEffect effect = new TriggerEffect(mode);
+        effect.block[1] = (byte) activeZones;
+        effect.block[2] = (byte) (activeZones >> 8);
+        effect.block[3] = (byte) strengthZones;
+        effect.block[4] = (byte) (strengthZones >> 8);
+        effect.block[5] = (byte) (strengthZones >> 16);
+        effect.block[6] = (byte) (strengthZones >> 24);
+        effect.block[9] = (byte) frequency;
+        return effect;
+    }
+
+    private static void checkZones(int[] strengths) {
+        if (strengths.length != ZONES) {
+            throw new IllegalArgumentException("Expected a value for each of the " + ZONES + " zones");
+        }
+        for (int strength : strengths) {
+            checkRange(strength, 0, MAX_STRENGTH, "strength");
+        }
+    }
+
+    private static void checkRange(int value, int min, int max, String name) {
+        if (value < min || value > max) {
+            throw new IllegalArgumentException("The " + name + " must be between " + min + " and " + max);
+        }
+    }
+
+    /**
+     * @return the effect mode byte
+     */
+    public byte getMode() {
+        return block[0];
+    }
+
+    /**
+     * @return a copy of the encoded effect: the mode byte followed by ten parameter bytes
+     */
+    public byte[] toBytes() {
+        return block.clone();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof TriggerEffect && Arrays.equals(block, ((TriggerEffect) o).block);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(block);
+    }
+}
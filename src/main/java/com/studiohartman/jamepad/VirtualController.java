@@ -0,0 +1,423 @@
+package com.studiohartman.jamepad;
+
+/**
+ * A controller that exists only in software, made with
+ * {@link ControllerManager#createVirtualController}. Whatever is set here reaches the game
+ * through the same path as a real device: the controller is plugged in on the next
+ * {@link ControllerManager#update()}, gets a {@link ControllerIndex}, and every value set here
+ * shows up there after its next poll, with events, timestamps and all. Use it for bots, input
+ * injection and tests on machines without hardware.
+ *
+ * <p>The setters pass their values straight to SDL and allocate nothing, but SDL only applies
+ * them when it next updates its devices: in {@link ControllerManager#update()},
+ * {@link ControllerManager#getStates}, or {@link ControllerIndex#poll()}. Until then the
+ * controller still reads as before, so set the values first and update after:
+ * <pre>{@code
+ * pad.setButton(ControllerButton.A, true);
+ * manager.update();
+ * assert manager.getState(0).a;
+ * }</pre>
+ *
+ * <p>Rumble, trigger rumble and LED requests the game sends to the controller are recorded, so
+ * a test can check them.
+ *
+ * <p>Use it from the thread that drives the manager. {@link #close()} unplugs the controller;
+ * the manager closes every virtual controller that is still open when it quits.
+ */
+public final class VirtualController implements AutoCloseable {
+    /*JNI
+    #include <SDL3/SDL.h>
+
+    // What the game last asked the device for, written from SDL's callbacks
+    typedef struct {
+        SDL_Joystick *joystick;
+        SDL_JoystickID id;
+        Uint16 rumbleLow;
+        Uint16 rumbleHigh;
+        Uint16 triggerLeft;
+        Uint16 triggerRight;
+        Uint32 ledColor;
+    } JamepadVirtualPad;
+
+    static JamepadVirtualPad *jamepad_virtual(jlong padPtr) {
+        return (JamepadVirtualPad *)(intptr_t) padPtr;
+    }
+
+    static bool SDLCALL jamepad_virtual_rumble(void *userdata, Uint16 low, Uint16 high) {
+        JamepadVirtualPad *pad = (JamepadVirtualPad *) userdata;
+        pad->rumbleLow = low;
+        pad->rumbleHigh = high;
+        return true;
+    }
+
+    static bool SDLCALL jamepad_virtual_rumble_triggers(void *userdata, Uint16 left, Uint16 right) {
+        JamepadVirtualPad *pad = (JamepadVirtualPad *) userdata;
+        pad->triggerLeft = left;
+        pad->triggerRight = right;
+        return true;
+    }
+
+    static bool SDLCALL jamepad_virtual_set_led(void *userdata, Uint8 red, Uint8 green, Uint8 blue) {
+        JamepadVirtualPad *pad = (JamepadVirtualPad *) userdata;
+        pad->ledColor = ((Uint32) red << 16) | ((Uint32) green << 8) | blue;
+        return true;
+    }
+    */
+
+    private static final int RUMBLE_LOW = 0;
+
+    private static final int RUMBLE_HIGH = 1;
+
+    private static final int TRIGGER_LEFT = 2;
+
+    private static final int TRIGGER_RIGHT = 3;
+
+    private static final int LED_COLOR = 4;
+
+    private static final int SDL_SENSOR_ACCEL = 1;
+
+    private static final int SDL_SENSOR_GYRO = 2;
+
+    private final ControllerManager manager;
+
+    private long padPtr;
+
+    private final int instanceId;
+
+    // SDL numbers only the buttons and axes the controller has, in SDL value order. Per SDL
+    // value the device's own index, or -1 if it does not have it, and per device index the
+    // SDL value.
+    private final int[] buttonIndex = new int[32];
+
+    private final int[] buttonValues;
+
+    private final int[] axisIndex = new int[32];
+
+    private final int[] axisValues;
+
+    VirtualController(ControllerManager manager, VirtualControllerDescriptor descriptor) {
+        this.manager = manager;
+        int buttonMask = 0;
+        for (ControllerButton button : descriptor.buttons) {
+            buttonMask |= 1 << button.getSdlValue();
+        }
+        int axisMask = 0;
+        for (ControllerAxis axis : descriptor.axes) {
+            axisMask |= 1 << axis.getSdlValue();
+        }
+        buttonValues = pack(buttonMask, buttonIndex);
+        axisValues = pack(axisMask, axisIndex);
+
+        padPtr = nativeAttach(descriptor.name, descriptor.vendorId, descriptor.productId,
+                buttonMask, buttonValues.length, axisMask, axisValues.length,
+                descriptor.touchpadFingers, descriptor.accelerometerRate, descriptor.gyroscopeRate);
+        if (padPtr == 0) {
+            throw new IllegalStateException("Failed to create a virtual controller: " + nativeGetError());
+        }
+        instanceId = nativeGetInstanceId(padPtr);
+    }
+
+    private static int[] pack(int mask, int[] index) {
+        int[] values = new int[Integer.bitCount(mask)];
+        int next = 0;
+        for (int value = 0; value < index.length; value++) {
+            if ((mask & (1 << value)) != 0) {
+                index[value] = next;
+                values[next++] = value;
+            } else {
+                index[value] = -1;
+            }
+        }
+        return values;
+    }
+
+    private static native long nativeAttach(String name, int vendorId, int productId,
+                                            int buttonMask, int buttonCount, int axisMask, int axisCount,
+                                            int touchpadFingers, float accelRate, float gyroRate); /*
+        SDL_VirtualJoystickDesc desc;
+        SDL_INIT_INTERFACE(&desc);
+        desc.type = SDL_JOYSTICK_TYPE_GAMEPAD;
+        desc.vendor_id = (Uint16) vendorId;
+        desc.product_id = (Uint16) productId;
+        desc.naxes = (Uint16) axisCount;
+        desc.nbuttons = (Uint16) buttonCount;
+        desc.axis_mask = (Uint32) axisMask;
+        desc.button_mask = (Uint32) buttonMask;
+        desc.name = name;
+
+        SDL_VirtualJoystickTouchpadDesc touchpad;
+        SDL_zero(touchpad);
+        if (touchpadFingers > 0) {
+            touchpad.nfingers = (Uint16) touchpadFingers;
+            desc.ntouchpads = 1;
+            desc.touchpads = &touchpad;
+        }
+
+        SDL_VirtualJoystickSensorDesc sensors[2];
+        SDL_zeroa(sensors);
+        if (accelRate > 0) {
+            sensors[desc.nsensors].type = SDL_SENSOR_ACCEL;
+            sensors[desc.nsensors].rate = accelRate;
+            desc.nsensors++;
+        }
+        if (gyroRate > 0) {
+            sensors[desc.nsensors].type = SDL_SENSOR_GYRO;
+            sensors[desc.nsensors].rate = gyroRate;
+            desc.nsensors++;
+        }
+        if (desc.nsensors > 0) {
+            desc.sensors = sensors;
+        }
+
+        JamepadVirtualPad *pad = (JamepadVirtualPad *) SDL_calloc(1, sizeof(JamepadVirtualPad));
+        if (pad == NULL) {
+            return 0;
+        }
+        desc.userdata = pad;
+        desc.Rumble = jamepad_virtual_rumble;
+        desc.RumbleTriggers = jamepad_virtual_rumble_triggers;
+        desc.SetLED = jamepad_virtual_set_led;
+
+        // SDL copies the description, so nothing here needs to outlive the call
+        pad->id = SDL_AttachVirtualJoystick(&desc);
+        if (pad->id == 0) {
+            SDL_free(pad);
+            return 0;
+        }
+
+        // The setters need an open joystick; this reference is ours, separate from the one
+        // the ControllerIndex opens through the gamepad API
+        pad->joystick = SDL_OpenJoystick(pad->id);
+        if (pad->joystick == NULL) {
+            SDL_DetachVirtualJoystick(pad->id);
+            SDL_free(pad);
+            return 0;
+        }
+        return (jlong)(intptr_t) pad;
+    */
+
+    private static native int nativeGetInstanceId(long padPtr); /*
+        return (jint) jamepad_virtual(padPtr)->id;
+    */
+
+    private static native String nativeGetError(); /*
+        return env->NewStringUTF(SDL_GetError());
+    */
+
+    /**
+     * @return the SDL instance id of the device, the same as
+     * {@link ControllerIndex#getInstanceIdOrZero()} reports for it
+     */
+    public int getInstanceId() {
+        return instanceId;
+    }
+
+    /**
+     * @return whether the controller is still plugged in
+     */
+    public boolean isOpen() {
+        return padPtr != 0;
+    }
+
+    /**
+     * @param button the button
+     * @param pressed whether it is held down
+     * @throws IllegalArgumentException If the controller was not described with the button
+     */
+    public void setButton(ControllerButton button, boolean pressed) {
+        ensureOpen();
+        int device = buttonIndex[button.getSdlValue()];
+        if (device < 0) {
+            throw new IllegalArgumentException("The virtual controller has no " + button + " button");
+        }
+        nativeSetButton(padPtr, device, pressed);
+    }
+
+    private static native void nativeSetButton(long padPtr, int button, boolean pressed); /*
+        SDL_SetJoystickVirtualButton(jamepad_virtual(padPtr)->joystick, button, pressed);
+    */
+
+    /**
+     * Sets every button at once. Bits of buttons the controller was not described with are
+     * ignored.
+     *
+     * @param buttons the held buttons, bit i for the button with SDL value i, as in
+     *                {@link ActionMap#update(int, float[])}
+     */
+    public void setButtons(int buttons) {
+        ensureOpen();
+        nativeSetButtons(padPtr, buttons, buttonValues, buttonValues.length);
+    }
+
+    private static native void nativeSetButtons(long padPtr, int buttons, int[] values, int count); /*
+        SDL_Joystick *joystick = jamepad_virtual(padPtr)->joystick;
+        for (int i = 0; i < count; i++) {
+            SDL_SetJoystickVirtualButton(joystick, i, (buttons & (1 << values[i])) != 0);
+        }
+    */
+
+    /**
+     * @param axis the axis
+     * @param value -1 to 1 for sticks, 0 to 1 for triggers; values outside are clamped
+     * @throws IllegalArgumentException If the controller was not described with the axis
+     */
+    public void setAxis(ControllerAxis axis, float value) {
+        ensureOpen();
+        int device = axisIndex[axis.getSdlValue()];
+        if (device < 0) {
+            throw new IllegalArgumentException("The virtual controller has no " + axis + " axis");
+        }
+        nativeSetAxis(padPtr, device, toRaw(axis.getSdlValue(), value));
+    }
+
+    private static native void nativeSetAxis(long padPtr, int axis, int value); /*
+        SDL_SetJoystickVirtualAxis(jamepad_virtual(padPtr)->joystick, axis, (Sint16) value);
+    */
+
+    /**
+     * Sets every axis at once. Values of axes the controller was not described with are
+     * ignored.
+     *
+     * @param axes the axis values, indexed by SDL value, as in {@link ControllerSnapshot}
+     */
+    public void setAxes(float[] axes) {
+        ensureOpen();
+        for (int i = 0; i < axisValues.length && axisValues[i] < axes.length; i++) {
+            int value = axisValues[i];
+            nativeSetAxis(padPtr, i, toRaw(value, axes[value]));
+        }
+    }
+
+    /**
+     * Puts a finger on the touchpad, moves it, or lifts it.
+     *
+     * @param finger the finger, below {@link VirtualControllerDescriptor#touchpadFingers}
+     * @param down whether the finger touches the pad
+     * @param x the horizontal position, 0 to 1 from the left
+     * @param y the vertical position, 0 to 1 from the top
+     * @param pressure the pressure, 0 to 1
+     */
+    public void setTouchpadFinger(int finger, boolean down, float x, float y, float pressure) {
+        ensureOpen();
+        nativeSetTouchpad(padPtr, finger, down, x, y, pressure);
+    }
+
+    private static native void nativeSetTouchpad(long padPtr, int finger, boolean down, float x, float y, float pressure); /*
+        SDL_SetJoystickVirtualTouchpad(jamepad_virtual(padPtr)->joystick, 0, finger, down, x, y, pressure);
+    */
+
+    /**
+     * Sends an accelerometer sample, in the units of {@link SensorState}. The controller must
+     * have been described with an accelerometer rate, and the manager configured with
+     * {@link Configuration#useControllerMotionSensors}.
+     *
+     * @param timestampNanos the sample time, which shows up as {@link SensorState#getAccelTimestamp()}
+     */
+    public void sendAccelerometer(long timestampNanos, float x, float y, float z) {
+        ensureOpen();
+        nativeSendSensor(padPtr, SDL_SENSOR_ACCEL, timestampNanos, x, y, z);
+    }
+
+    /**
+     * Sends a gyroscope sample, see {@link #sendAccelerometer}.
+     *
+     * @param timestampNanos the sample time, which shows up as {@link SensorState#getGyroTimestamp()}
+     */
+    public void sendGyroscope(long timestampNanos, float x, float y, float z) {
+        ensureOpen();
+        nativeSendSensor(padPtr, SDL_SENSOR_GYRO, timestampNanos, x, y, z);
+    }
+
+    private static native void nativeSendSensor(long padPtr, int sensor, long timestamp, float x, float y, float z); /*
+        float data[3] = { x, y, z };
+        SDL_SendJoystickVirtualSensorData(jamepad_virtual(padPtr)->joystick, (SDL_SensorType) sensor,
+                                          (Uint64) timestamp, data, 3);
+    */
+
+    /**
+     * @return the low frequency motor strength the game last asked for, 0 to 1
+     */
+    public float getRumbleLowFrequency() {
+        return readRecorded(RUMBLE_LOW) / 65535f;
+    }
+
+    /**
+     * @return the high frequency motor strength the game last asked for, 0 to 1
+     */
+    public float getRumbleHighFrequency() {
+        return readRecorded(RUMBLE_HIGH) / 65535f;
+    }
+
+    /**
+     * @return the left trigger motor strength the game last asked for, 0 to 1
+     */
+    public float getTriggerRumbleLeft() {
+        return readRecorded(TRIGGER_LEFT) / 65535f;
+    }
+
+    /**
+     * @return the right trigger motor strength the game last asked for, 0 to 1
+     */
+    public float getTriggerRumbleRight() {
+        return readRecorded(TRIGGER_RIGHT) / 65535f;
+    }
+
+    /**
+     * @return the LED color the game last set, as 0xRRGGBB
+     */
+    public int getLedColor() {
+        return (int) readRecorded(LED_COLOR);
+    }
+
+    private long readRecorded(int what) {
+        ensureOpen();
+        return nativeReadRecorded(padPtr, what);
+    }
+
+    private static native long nativeReadRecorded(long padPtr, int what); /*
+        JamepadVirtualPad *pad = jamepad_virtual(padPtr);
+        switch (what) {
+            case 0: return pad->rumbleLow;
+            case 1: return pad->rumbleHigh;
+            case 2: return pad->triggerLeft;
+            case 3: return pad->triggerRight;
+            default: return pad->ledColor;
+        }
+    */
+
+    /**
+     * Unplugs the controller. Its {@link ControllerIndex} disconnects on the next
+     * {@link ControllerManager#update()}. Does nothing if it was closed already.
+     */
+    @Override
+    public void close() {
+        if (padPtr == 0) {
+            return;
+        }
+        nativeDetach(padPtr);
+        padPtr = 0;
+        manager.virtualControllerClosed(this);
+    }
+
+    private static native void nativeDetach(long padPtr); /*
+        JamepadVirtualPad *pad = jamepad_virtual(padPtr);
+        SDL_CloseJoystick(pad->joystick);
+        SDL_DetachVirtualJoystick(pad->id);
+        SDL_free(pad);
+    */
+
+    private void ensureOpen() {
+        if (padPtr == 0) {
+            throw new IllegalStateException("The virtual controller was closed");
+        }
+    }
+
+    // SDL maps the triggers of a virtual gamepad from the whole raw range, so released is the
+    // raw minimum rather than 0
+    private static int toRaw(int axis, float value) {
+        if (axis >= ControllerAxis.TRIGGERLEFT.getSdlValue()) {
+            return Math.round(-32768 + Math.max(0, Math.min(1, value)) * 65535);
+        }
+        return Math.round(Math.max(-1, Math.min(1, value)) * 32767);
+    }
+}
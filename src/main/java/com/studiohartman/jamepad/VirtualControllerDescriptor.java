@@ -0,0 +1,49 @@
+package com.studiohartman.jamepad;
+
+/**
+ * Describes a virtual controller for {@link ControllerManager#createVirtualController}. Fill in
+ * the fields that matter and leave the rest at their defaults, which make a plain gamepad with
+ * every standard button and axis.
+ */
+public class VirtualControllerDescriptor {
+    /**
+     * The name the controller reports through {@link ControllerIndex#getName()}.
+     */
+    public String name = "Jamepad Virtual Controller";
+
+    /**
+     * The USB vendor id to report, or 0. Some ids make SDL treat the device like the real
+     * product, for example a Sony id for the PlayStation button names.
+     */
+    public int vendorId = 0;
+
+    /**
+     * The USB product id to report, or 0.
+     */
+    public int productId = 0;
+
+    /**
+     * The buttons the controller has.
+     */
+    public ControllerButton[] buttons = ControllerButton.values();
+
+    /**
+     * The axes the controller has.
+     */
+    public ControllerAxis[] axes = ControllerAxis.values();
+
+    /**
+     * How many fingers the touchpad tracks, or 0 for no touchpad.
+     */
+    public int touchpadFingers = 0;
+
+    /**
+     * The rate the accelerometer reports at, in samples per second, or 0 for none.
+     */
+    public float accelerometerRate = 0;
+
+    /**
+     * The rate the gyroscope reports at, in samples per second, or 0 for none.
+     */
+    public float gyroscopeRate = 0;
+}